@@ -0,0 +1,147 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.Executor;
+
+/**
+ * Reads a range of bytes from the table file through an {@link AsynchronousFileChannel} and
+ * decodes them when the read has completed. The bytes are decoded on the thread that completes the
+ * read, so that the thread that started the read is never blocked. Memos are read from the memo
+ * file with blocking reads, so they are not read on that thread, which would hold up the other
+ * reads of the channel: if a memo executor is given, the memos are read on it before the handler is
+ * called; otherwise they are left to be read when they are first asked for.
+ *
+ * @param <V> the type of the decoded result
+ * @param <A> the type of the attachment passed to the handler
+ */
+abstract class AsyncRecordRead<V, A>
+    implements CompletionHandler<Integer, Void>
+{
+    private final AsynchronousFileChannel channel;
+    private final long position;
+    private final ByteBuffer buffer;
+    private final Executor memoExecutor;
+    private final A attachment;
+    private final CompletionHandler<V, ? super A> handler;
+
+    AsyncRecordRead(final AsynchronousFileChannel channel, final long position, final int length,
+                    final Executor memoExecutor, final A attachment, final CompletionHandler<V, ? super A> handler)
+    {
+        this.channel = channel;
+        this.position = position;
+        this.buffer = ByteBuffer.allocate(length);
+        this.memoExecutor = memoExecutor;
+        this.attachment = attachment;
+        this.handler = handler;
+    }
+
+    /**
+     * Starts the read.
+     */
+    void start()
+    {
+        channel.read(buffer, position, null, this);
+    }
+
+    /**
+     * Decodes the bytes read. Fewer bytes than requested are passed if the end of the file was
+     * reached.
+     *
+     * @param bytes the bytes read
+     * @param length the number of bytes read
+     * @return the result to pass to the handler
+     */
+    abstract V decode(byte[] bytes, int length)
+               throws Exception;
+
+    /**
+     * Reads the memos of the decoded result. Called on the memo executor.
+     *
+     * @param result the decoded result
+     */
+    abstract void readMemos(V result)
+                     throws Exception;
+
+    public void completed(final Integer nrBytesRead, final Void unused)
+    {
+        if (nrBytesRead != -1 && buffer.hasRemaining())
+        {
+            channel.read(buffer, position + buffer.position(), null, this);
+
+            return;
+        }
+
+        final V result;
+
+        try
+        {
+            result = decode(buffer.array(),
+                            buffer.position());
+        }
+        catch (final Exception exception)
+        {
+            handler.failed(exception, attachment);
+
+            return;
+        }
+
+        if (memoExecutor == null)
+        {
+            handler.completed(result, attachment);
+
+            return;
+        }
+
+        try
+        {
+            memoExecutor.execute(new Runnable()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            readMemos(result);
+                        }
+                        catch (final Exception exception)
+                        {
+                            handler.failed(exception, attachment);
+
+                            return;
+                        }
+
+                        handler.completed(result, attachment);
+                    }
+                });
+        }
+        catch (final RuntimeException exception)
+        {
+            /*
+             * The executor rejected the task.
+             */
+            handler.failed(exception, attachment);
+        }
+    }
+
+    public void failed(final Throwable throwable, final Void unused)
+    {
+        handler.failed(throwable, attachment);
+    }
+}
@@ -39,6 +39,7 @@ class DataFormatValidatorFactory
         {
             case BINARY:
             case GENERAL:
+            case PICTURE:
                 return doNothingValidator;
 
             case CHARACTER:
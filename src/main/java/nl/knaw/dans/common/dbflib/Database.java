@@ -17,12 +17,20 @@
 package nl.knaw.dans.common.dbflib;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 /**
  * Represents an xBase database. An xBase database is a directory containing table files (.DBF
@@ -208,6 +216,131 @@ public class Database
         tableMap.remove(table.getName());
     }
 
+    /**
+     * As {@link #scanTables(TableHandler, ExecutorService, int)}, using a new thread pool with
+     * <code>maxOpenTables</code> threads.
+     *
+     * @param handler the handler to pass the tables to
+     * @param maxOpenTables the maximum number of tables that are processed at the same time
+     * @return the exceptions of the tables that could not be processed, by table name
+     *
+     * @throws InterruptedException if the calling thread was interrupted while waiting for the
+     *             tables to be processed
+     */
+    public Map<String, Exception> scanTables(final TableHandler handler, final int maxOpenTables)
+                                      throws InterruptedException
+    {
+        final ExecutorService executor = Executors.newFixedThreadPool(maxOpenTables);
+
+        try
+        {
+            return scanTables(handler, executor, maxOpenTables);
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Passes every table of this database to <code>handler</code>, processing several tables at
+     * the same time on the threads of <code>executor</code>. One task is submitted per table, but
+     * at most <code>maxOpenTables</code> tables are open at any time. Tables that are not open are
+     * opened read-only before they are passed to the handler and closed afterwards; tables that are
+     * already open are passed as they are. The executor can be any executor, for instance one that
+     * starts a lightweight thread per task.
+     * <p>
+     * An exception thrown while processing a table does not stop the processing of the other
+     * tables. The exceptions are returned instead.
+     *
+     * @param handler the handler to pass the tables to
+     * @param executor the executor to run the tasks on
+     * @param maxOpenTables the maximum number of tables that are processed at the same time
+     * @return the exceptions of the tables that could not be processed, by table name
+     *
+     * @throws InterruptedException if the calling thread was interrupted while waiting for the
+     *             tables to be processed
+     */
+    public Map<String, Exception> scanTables(final TableHandler handler, final ExecutorService executor,
+                                             final int maxOpenTables)
+                                      throws InterruptedException
+    {
+        final Semaphore openTables = new Semaphore(maxOpenTables);
+        final Map<String, Future<Void>> results = new TreeMap<String, Future<Void>>();
+
+        for (final Map.Entry<String, Table> entry : tableMap.entrySet())
+        {
+            final Table table = entry.getValue();
+
+            results.put(entry.getKey(),
+                        executor.submit(new Callable<Void>()
+                {
+                    public Void call()
+                              throws Exception
+                    {
+                        openTables.acquire();
+
+                        try
+                        {
+                            scanTable(table, handler);
+                        }
+                        finally
+                        {
+                            openTables.release();
+                        }
+
+                        return null;
+                    }
+                }));
+        }
+
+        final Map<String, Exception> failures = new TreeMap<String, Exception>();
+
+        for (final Map.Entry<String, Future<Void>> entry : results.entrySet())
+        {
+            try
+            {
+                entry.getValue().get();
+            }
+            catch (final ExecutionException executionException)
+            {
+                final Throwable cause = executionException.getCause();
+
+                if (cause instanceof Error)
+                {
+                    throw (Error) cause;
+                }
+
+                failures.put(entry.getKey(),
+                             (Exception) cause);
+            }
+        }
+
+        return failures;
+    }
+
+    private static void scanTable(final Table table, final TableHandler handler)
+                           throws IOException, DbfLibException
+    {
+        if (table.isOpen())
+        {
+            handler.handle(table);
+
+            return;
+        }
+
+        table.openReadOnly();
+
+        try
+        {
+            handler.handle(table);
+        }
+        finally
+        {
+            table.close();
+        }
+    }
+
     /**
      * Returns the name of the character set to use when reading from and writing to database files.
      * This value can be overridden by the one specified through {@link Table}'s constructor.
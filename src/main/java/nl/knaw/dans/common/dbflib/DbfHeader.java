@@ -16,14 +16,22 @@
  */
 package nl.knaw.dans.common.dbflib;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInput;
+import java.io.DataInputStream;
 import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Encapsulates the DBF table header.
@@ -83,6 +91,12 @@ class DbfHeader
     private static final int LENGTH_RESERVED_2 = OFFSET_MDX_FLAG - OFFSET_RESERVED_2;
     private static final int LENGTH_RESERVED_3 = OFFSET_FIELD_DESCRIPTORS - OFFSET_RESERVED_3;
 
+    /*
+     * Number of bytes read at once when reading the header from a file. Enough for the headers of
+     * tables with up to 127 fields.
+     */
+    private static final int LENGTH_HEADER_READ_AHEAD = 4096;
+
     /*
      * Maximum field lengths. Notice: version dependent maximum field lengths defined in the Version
      * class
@@ -108,6 +122,82 @@ class DbfHeader
     private Date lastModifiedDate;
     private boolean hasMemo;
 
+    /*
+     * Record layout, derived from the field list.
+     */
+    private Field[] fieldArray = new Field[0];
+    private int[] fieldOffsets = new int[0];
+    private final Map<String, Integer> fieldIndexes = new HashMap<String, Integer>();
+
+    /**
+     * Reads the header from the start of <code>file</code>. The header is read into memory with a
+     * single read, and a second one for very wide tables, and parsed from there.
+     */
+    void readFrom(final RandomAccessFile file)
+           throws IOException, CorruptedTableException
+    {
+        file.seek(0);
+
+        byte[] buffer = new byte[LENGTH_HEADER_READ_AHEAD];
+        int nrBytesRead = readAvailable(file, buffer, 0);
+
+        /*
+         * The header length is little-endian at offset 8. If the header does not fit in what was
+         * read, the rest is read too. A file that is too short is reported by readAll.
+         */
+        if (nrBytesRead > OFFSET_HEADER_LENGTH + 1)
+        {
+            final int length =
+                (buffer[OFFSET_HEADER_LENGTH] & 0xff) | ((buffer[OFFSET_HEADER_LENGTH + 1] & 0xff) << 8);
+
+            if (length > nrBytesRead)
+            {
+                buffer = Arrays.copyOf(buffer, length);
+                nrBytesRead = readAvailable(file, buffer, nrBytesRead);
+            }
+        }
+
+        readAll(new DataInputStream(new ByteArrayInputStream(buffer, 0, nrBytesRead)));
+    }
+
+    /*
+     * Reads from the current position of the file into buffer, starting at offset, until the buffer
+     * is full or the end of the file is reached, and returns the number of bytes in the buffer.
+     */
+    private static int readAvailable(final RandomAccessFile file, final byte[] buffer, final int offset)
+                              throws IOException
+    {
+        int n = offset;
+
+        while (n < buffer.length)
+        {
+            final int read = file.read(buffer, n, buffer.length - n);
+
+            if (read == -1)
+            {
+                break;
+            }
+
+            n += read;
+        }
+
+        return n;
+    }
+
+    /**
+     * Writes the header at the start of <code>file</code>. The header is laid out in memory and
+     * written with a single write.
+     */
+    void writeTo(final RandomAccessFile file)
+          throws IOException
+    {
+        final ByteArrayOutputStream byteArrayOutputStream =
+            new ByteArrayOutputStream(LENGTH_TABLE_INFO_BLOCK + LENGTH_FIELD_DESCRIPTOR * fields.size() + 2);
+        writeAll(new DataOutputStream(byteArrayOutputStream));
+        file.seek(0);
+        file.write(byteArrayOutputStream.toByteArray());
+    }
+
     void readAll(final DataInput dataInput)
           throws IOException, CorruptedTableException
     {
@@ -129,7 +219,7 @@ class DbfHeader
         readRecordLength(dataInput);
         dataInput.skipBytes(LENGTH_TABLE_HEADER_AFTER_RECORD_COUNT);
         readFieldDescriptors(dataInput,
-                             getFieldCount());
+                             calculateFieldCount());
     }
 
     Date getLastModifiedDate()
@@ -170,8 +260,8 @@ class DbfHeader
                        );
     }
 
-    private int getFieldCount()
-                       throws CorruptedTableException
+    private int calculateFieldCount()
+                             throws CorruptedTableException
     {
         final int nrBytesFieldDescriptorArray =
             headerLength - LENGTH_TABLE_INFO_BLOCK - version.getLengthHeaderTerminator();
@@ -234,10 +324,68 @@ class DbfHeader
     void readFieldDescriptors(final DataInput dataInput, final int fieldCount)
                        throws IOException
     {
+        /*
+         * The fields in the file replace any fields given for a new table, also when the table is
+         * opened again.
+         */
+        fields = new ArrayList<Field>(fieldCount);
+
         for (int i = 0; i < fieldCount; ++i)
         {
             fields.add(readField(dataInput));
         }
+
+        calculateLayout();
+    }
+
+    /*
+     * Caches the fields in an array together with the offset of each field in the record, so that
+     * records can be decoded without copying the field list or summing the field lengths.
+     */
+    private void calculateLayout()
+    {
+        fieldArray = fields.toArray(new Field[fields.size()]);
+        fieldOffsets = new int[fieldArray.length];
+        fieldIndexes.clear();
+
+        int offset = LENGTH_DELETE_FLAG;
+
+        for (int i = 0; i < fieldArray.length; ++i)
+        {
+            fieldOffsets[i] = offset;
+            offset += fieldArray[i].getLength();
+            fieldIndexes.put(fieldArray[i].getName(),
+                             i);
+        }
+    }
+
+    int getFieldCount()
+    {
+        return fieldArray.length;
+    }
+
+    Field getField(final int index)
+    {
+        return fieldArray[index];
+    }
+
+    /**
+     * Returns the offset of the field with the specified index from the start of the record. The
+     * first field starts at offset 1, directly after the deletion flag.
+     */
+    int getFieldOffset(final int index)
+    {
+        return fieldOffsets[index];
+    }
+
+    /**
+     * Returns the index of the field with the specified name or -1 if there is no such field.
+     */
+    int getFieldIndex(final String name)
+    {
+        final Integer index = fieldIndexes.get(name);
+
+        return index == null ? -1 : index;
     }
 
     private Field readField(final DataInput dataInput)
@@ -306,6 +454,7 @@ class DbfHeader
         checkFieldValidity(fields);
         calculateRecordLength();
         calculateHeaderLength();
+        calculateLayout();
     }
 
     void checkFieldValidity(final List<Field> fieldList)
@@ -525,6 +674,21 @@ class DbfHeader
         dataOutput.writeInt(Util.changeEndianness(recordCount));
     }
 
+    /**
+     * Overwrites the record count in the header at the start of <code>file</code> with one write.
+     */
+    void updateRecordCount(final RandomAccessFile file)
+                    throws IOException
+    {
+        final byte[] bytes =
+            {
+                (byte) recordCount, (byte) (recordCount >>> 8), (byte) (recordCount >>> 16),
+                (byte) (recordCount >>> 24)
+            };
+        file.seek(OFFSET_RECORD_COUNT);
+        file.write(bytes);
+    }
+
     void writeRecordLength(final DataOutput dataOutput)
                     throws IOException
     {
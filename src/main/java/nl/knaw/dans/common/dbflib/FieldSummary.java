@@ -0,0 +1,161 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import java.util.Calendar;
+import java.util.Date;
+
+/**
+ * The number, sum, minimum and maximum of the non-empty values of a NUMBER, FLOAT or DATE field,
+ * as computed by {@link Table#summarize(String, RecordFilter)}. Values of DATE fields are counted
+ * as the number of days since 1 January 1970; {@link #getMinDate()} and {@link #getMaxDate()}
+ * convert the minimum and maximum back into dates.
+ */
+public class FieldSummary
+{
+    private final Field field;
+    private long count = 0;
+    private double sum = 0;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    FieldSummary(final Field field)
+    {
+        this.field = field;
+    }
+
+    void add(final double value)
+    {
+        ++count;
+        sum += value;
+
+        if (value < min)
+        {
+            min = value;
+        }
+
+        if (value > max)
+        {
+            max = value;
+        }
+    }
+
+    void merge(final FieldSummary other)
+    {
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Returns the field that was summarized.
+     *
+     * @return the field
+     */
+    public Field getField()
+    {
+        return field;
+    }
+
+    /**
+     * Returns the number of non-empty values.
+     *
+     * @return the number of values
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+    /**
+     * Returns the sum of the values, or 0 if there are none.
+     *
+     * @return the sum
+     */
+    public double getSum()
+    {
+        return sum;
+    }
+
+    /**
+     * Returns the average of the values, or <code>NaN</code> if there are none.
+     *
+     * @return the average
+     */
+    public double getAverage()
+    {
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    /**
+     * Returns the smallest value, or <code>NaN</code> if there are none.
+     *
+     * @return the minimum
+     */
+    public double getMin()
+    {
+        return count == 0 ? Double.NaN : min;
+    }
+
+    /**
+     * Returns the largest value, or <code>NaN</code> if there are none.
+     *
+     * @return the maximum
+     */
+    public double getMax()
+    {
+        return count == 0 ? Double.NaN : max;
+    }
+
+    /**
+     * Returns the earliest date of a DATE field, or <code>null</code> if there are no values or
+     * the field is not a DATE field.
+     *
+     * @return the earliest date
+     */
+    public Date getMinDate()
+    {
+        return toDate(min);
+    }
+
+    /**
+     * Returns the latest date of a DATE field, or <code>null</code> if there are no values or the
+     * field is not a DATE field.
+     *
+     * @return the latest date
+     */
+    public Date getMaxDate()
+    {
+        return toDate(max);
+    }
+
+    private Date toDate(final double epochDay)
+    {
+        if (count == 0 || field.getType() != Type.DATE)
+        {
+            return null;
+        }
+
+        final int dateDigits = RawValueParser.toDateDigits((long) epochDay);
+        final Calendar cal = Calendar.getInstance();
+        cal.clear();
+        cal.set(dateDigits / 10000, dateDigits / 100 % 100 - 1, dateDigits % 100);
+
+        return cal.getTime();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Represents a value whose data is read from an {@link InputStream}. When written to a MEMO,
+ * GENERAL, BINARY or PICTURE field, the data is copied from the stream to the memo file in chunks,
+ * so that large values, such as scanned documents, never have to be held in memory as a whole.
+ * <p>
+ * The stream is read when the record is written and is not closed. A value can therefore only be
+ * written once. Written to any other type of field, the value is rejected.
+ */
+public class InputStreamValue
+    extends Value
+{
+    /**
+     * Creates a new <code>InputStreamValue</code> object.
+     *
+     * @param inputStream the stream to read the value from
+     */
+    public InputStreamValue(final InputStream inputStream)
+    {
+        super((Object) inputStream);
+
+        if (inputStream == null)
+        {
+            throw new IllegalArgumentException("Input stream must not be null");
+        }
+    }
+
+    /**
+     * Returns the stream to write to <code>field</code>.
+     *
+     * @throws DbfLibException if a stream cannot be written to the field
+     */
+    InputStream getInputStream(final Field field)
+                        throws DbfLibException
+    {
+        field.validateTypedValue(typed);
+
+        return (InputStream) typed;
+    }
+
+    @Override
+    protected Object doGetTypedValue(final byte[] rawValue)
+    {
+        return new ByteArrayInputStream(rawValue);
+    }
+
+    /*
+     * Only used if the value is not written through the memo file, which reads the stream instead.
+     */
+    @Override
+    protected byte[] doGetRawValue(final Field field)
+                            throws ValueTooLargeException
+    {
+        final InputStream inputStream = (InputStream) typed;
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+
+        try
+        {
+            int n;
+
+            while ((n = inputStream.read(buffer)) != -1)
+            {
+                bytes.write(buffer, 0, n);
+            }
+        }
+        catch (final IOException ex)
+        {
+            throw new RuntimeException("Could not read value of field " + field.getName(), ex);
+        }
+
+        return bytes.toByteArray();
+    }
+}
@@ -17,10 +17,23 @@
 package nl.knaw.dans.common.dbflib;
 
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 /**
  * Represents a memo (.DBT) file.
@@ -41,11 +54,24 @@ class Memo
      */
     private static final int DEFAULT_LENGTH_MEMO_BLOCK = 512;
     private static final int LENGTH_FILE_NAME = 8;
+    private static final int LENGTH_INT = 4;
+    private static final int LENGTH_FOXPRO_HEADER_START = 2 * LENGTH_INT;
+    private static final int LENGTH_MEMO_HEADER = 8;
 
     /*
      * Markers.
      */
     private static final byte MARKER_MEMO_END = 0x1a;
+    private static final int LENGTH_COPY_BUFFER = 64 * 1024;
+    private static final int LENGTH_WRITE_BUFFER = 64 * 1024;
+    private static final String MEMO_INDEX_DIGEST = "SHA-1";
+
+    /*
+     * Memos read together are read with one read if at most this many blocks lie between them and
+     * the read is not longer than LENGTH_PREFETCH_READ.
+     */
+    private static final int MAX_PREFETCH_GAP_BLOCKS = 4;
+    private static final int LENGTH_PREFETCH_READ = 256 * 1024;
 
     /*
      * Fields.
@@ -55,16 +81,50 @@ class Memo
     private int nextAvailableBlock = 0;
     private int blockLength = DEFAULT_LENGTH_MEMO_BLOCK;
     private final Version version;
+    private final MemoCache cache;
+
+    /*
+     * Runs of free blocks: first block index to number of blocks.
+     */
+    private final TreeMap<Integer, Integer> freeBlocks = new TreeMap<Integer, Integer>();
+
+    /*
+     * Memos appended since the last flush, starting at block writeBufferBlock. Readers check
+     * firstBufferedBlock, which is Integer.MAX_VALUE while the buffer is empty, so that only reads of
+     * buffered blocks wait for the buffer to be written.
+     */
+    private final ByteBuffer writeBuffer = ByteBuffer.allocate(LENGTH_WRITE_BUFFER);
+    private int writeBufferBlock;
+    private volatile int firstBufferedBlock = Integer.MAX_VALUE;
+    private boolean headerChanged = false;
+
+    /*
+     * Digest of the memo contents to first block of the memo, or null if the index is disabled.
+     */
+    private Map<ByteBuffer, Integer> memoIndex = null;
+    private MessageDigest digest = null;
+
+    /*
+     * The memo file mapped into memory if it was opened read-only, otherwise null.
+     */
+    private volatile ByteBuffer mappedFile = null;
+
+    /*
+     * Incremented whenever blocks that held a memo may be overwritten with another memo, i.e. when
+     * free blocks are reused or the file is compacted.
+     */
+    private volatile int generation = 0;
 
     /**
      * Creates a new <code>Memo</code> object.
      *
      * @param memoFile the underlying .DBT file
      * @param version the version of DBF to use
+     * @param cache the cache to use for memo data
      *
      * @throws IllegalArgumentException if <code>memoFile</code> is <code>null</code>
      */
-    Memo(final File memoFile, final Version version)
+    Memo(final File memoFile, final Version version, final MemoCache cache)
         throws IllegalArgumentException
     {
         if (memoFile == null)
@@ -74,42 +134,117 @@ class Memo
 
         this.memoFile = memoFile;
         this.version = version;
+        this.cache = cache;
     }
 
-    void open(final IfNonExistent ifNonExistent)
+    /**
+     * Opens the memo file. If <code>readOnly</code> is <code>true</code> the file is opened for
+     * reading only and is never created.
+     *
+     * @param ifNonExistent what to do if the memo file does not exist
+     * @param readOnly whether to open the memo file for reading only
+     *
+     * @throws IOException if the memo file could not be opened
+     */
+    void open(final IfNonExistent ifNonExistent, final boolean readOnly)
        throws IOException
     {
         if (memoFile.exists())
         {
-            raf = new RandomAccessFile(memoFile, "rw");
+            raf = new RandomAccessFile(memoFile, readOnly ? "r" : "rw");
 
-            if (version == Version.FOXPRO_26)
+            if (readOnly)
             {
-                raf.skipBytes(4);
-                blockLength = raf.readInt();
+                mapFile();
             }
-        }
-        else if (ifNonExistent.isCreate())
-        {
-            raf = new RandomAccessFile(memoFile, "rw");
 
-            if (version == Version.CLIPPER_5)
+            /*
+             * The next available block and, in FoxPro, the block length are read with one read.
+             */
+            final ByteBuffer headerStart =
+                ByteBuffer.wrap(new byte[version == Version.FOXPRO_26 ? LENGTH_FOXPRO_HEADER_START : LENGTH_INT]);
+            raf.readFully(headerStart.array());
+
+            final int nextAvailableBlockInHeader = headerStart.getInt();
+
+            if (version == Version.FOXPRO_26)
             {
-                nextAvailableBlock = 2;
+                nextAvailableBlock = nextAvailableBlockInHeader;
+                blockLength = headerStart.getInt();
             }
             else
             {
-                nextAvailableBlock = 1;
+                nextAvailableBlock = Util.changeEndianness(nextAvailableBlockInHeader);
             }
 
+            /*
+             * Never append before the end of the file, whatever the header says.
+             */
+            final long blocksInFile = (raf.length() + blockLength - 1) / blockLength;
+            nextAvailableBlock = (int) Math.max(Math.max(nextAvailableBlock, blocksInFile), getFirstDataBlock());
+        }
+        else if (ifNonExistent.isCreate() && ! readOnly)
+        {
+            raf = new RandomAccessFile(memoFile, "rw");
+            nextAvailableBlock = getFirstDataBlock();
             writeMemoHeader();
         }
-        else if (ifNonExistent.isError())
+        else if (ifNonExistent.isError() || readOnly)
         {
             throw new FileNotFoundException("Cannot find memo file");
         }
     }
 
+    /*
+     * Maps the whole memo file, unless it is larger than a mapped buffer can be.
+     */
+    private void mapFile()
+                  throws IOException
+    {
+        final long fileLength = raf.length();
+
+        if (fileLength <= Integer.MAX_VALUE)
+        {
+            mappedFile = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, fileLength);
+        }
+    }
+
+    /*
+     * Returns a view of the mapped memo file that reaches at least up to end if the file is that
+     * long, or null if the memo file is not mapped. The file is mapped again if it has grown beyond
+     * the mapping.
+     */
+    private ByteBuffer getMappedView(final long end)
+                              throws IOException
+    {
+        ByteBuffer mapped = mappedFile;
+
+        if (mapped == null)
+        {
+            return null;
+        }
+
+        if (end > mapped.capacity())
+        {
+            synchronized (this)
+            {
+                if (end > mappedFile.capacity() && raf.length() > mappedFile.capacity())
+                {
+                    mapFile();
+                }
+
+                mapped = mappedFile;
+            }
+        }
+
+        return mapped.duplicate();
+    }
+
+    private int getFirstDataBlock()
+    {
+        return version == Version.CLIPPER_5 ? 2 : 1;
+    }
+
     /**
      * Closes the memo file for reading and writing.
      *
@@ -123,7 +258,15 @@ class Memo
             return;
         }
 
-        raf.close();
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            mappedFile = null;
+            raf.close();
+        }
     }
 
     /**
@@ -139,7 +282,10 @@ class Memo
     }
 
     /**
-     * Reads a string of characters from memo file.
+     * Reads a string of characters from memo file. The memo is read at an absolute position in the
+     * file, without moving the file pointer, so several threads may read memos at the same time.
+     * Memos found in the cache are not read again. The returned array may be shared with the cache,
+     * so it must not be modified.
      *
      * @param blockIndex block number where the string of characters starts
      *
@@ -147,208 +293,1133 @@ class Memo
     byte[] readMemo(final int blockIndex)
              throws IOException, CorruptedTableException
     {
-        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        int memoLength = 0;
-        int c = 0;
+        byte[] data = cache.get(blockIndex);
 
-        raf.seek(blockIndex * blockLength);
+        if (data == null)
+        {
+            data = readMemoFromFile(blockIndex);
+            cache.put(blockIndex, data);
+        }
 
-        switch (version)
+        return data;
+    }
+
+    /**
+     * Reads the memos that start at <code>blockIndexes</code> in one ascending sweep through the
+     * memo file. Memos that lie close together are read with a single read of the blocks that hold
+     * them. Memos found in the cache are not read again. Memos that cannot be read because the file
+     * is corrupt are left out of the result, so that the error is only reported if they are read on
+     * their own.
+     *
+     * @param blockIndexes the first blocks of the memos, in ascending order without duplicates
+     * @return a map from the first block of each memo to its data
+     *
+     * @throws IOException if the memo file could not be read
+     */
+    Map<Integer, byte[]> readMemos(final int[] blockIndexes)
+                            throws IOException
+    {
+        final Map<Integer, byte[]> memos = new HashMap<Integer, byte[]>();
+        final int[] uncached = new int[blockIndexes.length];
+        int nrUncached = 0;
+
+        for (final int blockIndex : blockIndexes)
         {
-            case DBASE_3:
-            case CLIPPER_5:
+            final byte[] data = cache.get(blockIndex);
 
-                while ((c = raf.read()) != MARKER_MEMO_END)
-                {
-                    if (c == -1)
-                    {
-                        throw new CorruptedTableException("Corrupted memo file, EOF exception");
-                    }
+            if (data == null)
+            {
+                uncached[nrUncached++] = blockIndex;
+            }
+            else
+            {
+                memos.put(blockIndex, data);
+            }
+        }
 
-                    bos.write(c);
-                }
+        int first = 0;
 
-                break;
+        while (first < nrUncached)
+        {
+            /*
+             * Extend the run while the gap to the next memo is small and the run fits in one read.
+             */
+            int last = first;
 
-            case DBASE_4:
-            case DBASE_5:
-            case FOXPRO_26:
-                /*
-                 * at the beginning of each memo there is a header of 8 bytes. 4 first bytes: dBase -
-                 * FFFF0800h, FoxPro - type of data (text/general/picture) 4 last bytes: dBase - offset
-                 * to the end of memo (length of data + 8) FoxPro - length of data
-                 */
-                raf.skipBytes(4);
+            while (last + 1 < nrUncached && uncached[last + 1] - uncached[last] <= MAX_PREFETCH_GAP_BLOCKS
+                       && (long) (uncached[last + 1] - uncached[first] + 1) * blockLength <= LENGTH_PREFETCH_READ)
+            {
+                ++last;
+            }
+
+            /*
+             * A few blocks more are read, so that the last memo of the run usually ends within it.
+             */
+            final ByteBuffer run =
+                mappedFile == null ? readBlocks(uncached[first], uncached[last] + MAX_PREFETCH_GAP_BLOCKS) : null;
 
-                if (version == Version.FOXPRO_26)
+            for (int i = first; i <= last; ++i)
+            {
+                final byte[] data = run == null ? null : extractMemo(run, (uncached[i] - uncached[first]) * blockLength);
+
+                try
                 {
-                    memoLength = raf.readInt();
+                    /*
+                     * Memos that extend beyond the run are read on their own.
+                     */
+                    memos.put(uncached[i], data == null ? readMemoFromFile(uncached[i]) : data);
+                    cache.put(uncached[i], memos.get(uncached[i]));
                 }
-                else
+                catch (final CorruptedTableException corruptedTableException)
                 {
-                    memoLength = Util.changeEndianness(raf.readInt()) - version.getMemoDataOffset();
+                    /*
+                     * Left out; reported when the memo is read on its own.
+                     */
                 }
+            }
 
-                for (int i = 0; i < memoLength; i++)
-                {
-                    c = raf.read();
+            first = last + 1;
+        }
 
-                    if (c == -1)
-                    {
-                        throw new CorruptedTableException("Corrupted memo file, EOF exception");
-                    }
+        return memos;
+    }
 
-                    bos.write(c);
-                }
+    /*
+     * Reads the blocks from firstBlock up to and including lastBlock, or up to the end of the file.
+     * The limit of the returned buffer is the number of bytes read.
+     */
+    private ByteBuffer readBlocks(final int firstBlock, final int lastBlock)
+                           throws IOException
+    {
+        flushWriteBufferFrom(lastBlock);
+
+        final FileChannel channel = raf.getChannel();
+        final long position = (long) firstBlock * blockLength;
+        final ByteBuffer buffer = ByteBuffer.allocate((lastBlock - firstBlock + 1) * blockLength);
 
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer, position + buffer.position()) == -1)
+            {
                 break;
+            }
+        }
+
+        buffer.flip();
+
+        return buffer;
+    }
+
+    /*
+     * Returns the data of the memo at offset in run, or null if the memo does not end within the run.
+     */
+    private byte[] extractMemo(final ByteBuffer run, final int offset)
+    {
+        final int dataOffset = offset + version.getMemoDataOffset();
+
+        if (dataOffset > run.limit())
+        {
+            return null;
+        }
+
+        int end;
+
+        if (version == Version.DBASE_3 || version == Version.CLIPPER_5)
+        {
+            end = (int) findEndMarker(run, dataOffset);
+        }
+        else
+        {
+            end = dataOffset + getMemoLength(run.getInt(offset + LENGTH_MEMO_HEADER - 4));
+        }
+
+        if (end == -1 || end > run.limit() || end < dataOffset)
+        {
+            return null;
+        }
+
+        final byte[] data = new byte[end - dataOffset];
+        final ByteBuffer view = run.duplicate();
+        view.position(dataOffset);
+        view.get(data);
+
+        return data;
+    }
+
+    private byte[] readMemoFromFile(final int blockIndex)
+                             throws IOException, CorruptedTableException
+    {
+        flushWriteBufferFrom(blockIndex);
+
+        final ByteBuffer mappedMemo = sliceMappedMemo(blockIndex);
+
+        if (mappedMemo != null)
+        {
+            final byte[] data = new byte[mappedMemo.remaining()];
+            mappedMemo.get(data);
+
+            return data;
+        }
+
+        final FileChannel channel = raf.getChannel();
+        final long position = (long) blockIndex * blockLength;
+
+        switch (version)
+        {
+            case DBASE_3:
+            case CLIPPER_5:
+                return readUntilEndMarker(channel, position);
+
+            case DBASE_4:
+            case DBASE_5:
+            case FOXPRO_26:
+
+                /*
+                 * The length is known, so the data is read at once.
+                 */
+                final ByteBuffer memoData = ByteBuffer.allocate(readMemoLength(channel, position));
+                readFully(channel, memoData, position + LENGTH_MEMO_HEADER);
+
+                return memoData.array();
 
             default:
                 assert false : "Programming error, did not handle version " + version.toString();
-        }
 
-        return bos.toByteArray();
+                return new byte[0];
+        }
     }
 
     /**
-     * Writes a string of characters to memo file.
+     * Returns the data of the memo that starts at <code>blockIndex</code> as a read-only buffer. If
+     * the memo file is mapped, the buffer is a view of the mapped file and nothing is copied;
+     * otherwise the memo is read like {@link #readMemo(int)} does.
+     *
+     * @param blockIndex block number where the memo starts
+     * @return a read-only buffer with the memo data
+     *
+     * @throws IOException if the memo could not be read
+     * @throws CorruptedTableException if the memo lies beyond the end of the file
      */
-    int writeMemo(final byte[] memoBytes)
-           throws IOException
+    ByteBuffer getMemoBuffer(final int blockIndex)
+                      throws IOException, CorruptedTableException
     {
-        final int nrBytesToWrite =
-            memoBytes.length + version.getMemoFieldEndMarkerLength() + version.getMemoDataOffset();
-        int nrBlocksToWrite = nrBytesToWrite / blockLength + 1;
-        int nrSpacesToPadLastBlock = blockLength - nrBytesToWrite % blockLength;
+        final ByteBuffer mappedMemo = sliceMappedMemo(blockIndex);
 
-        /*
-         * Exact fit; we don't need an extra block.
-         */
-        if (nrSpacesToPadLastBlock == blockLength)
+        if (mappedMemo != null)
         {
-            nrSpacesToPadLastBlock = -blockLength;
-            --nrBlocksToWrite;
+            return mappedMemo;
         }
 
-        final int blockIndex = nextAvailableBlock;
+        return ByteBuffer.wrap(readMemo(blockIndex)).asReadOnlyBuffer();
+    }
 
-        /*
-         * Write the string and end of file markers.
-         */
-        raf.seek(blockIndex * blockLength);
+    /*
+     * Returns a view of the data of the memo at blockIndex in the mapped memo file, or null if the
+     * memo file is not mapped.
+     */
+    private ByteBuffer sliceMappedMemo(final int blockIndex)
+                                throws IOException, CorruptedTableException
+    {
+        flushWriteBufferFrom(blockIndex);
 
-        if (version == Version.DBASE_4 || version == Version.DBASE_5)
-        {
-            raf.writeInt(0xffff0800);
-            raf.writeInt(Util.changeEndianness(memoBytes.length + version.getMemoDataOffset()));
-        }
-        else if (version == Version.FOXPRO_26)
+        final long position = (long) blockIndex * blockLength;
+        final long dataPosition = position + version.getMemoDataOffset();
+        ByteBuffer view = getMappedView(dataPosition);
+
+        if (view == null)
         {
-            raf.writeInt(1);
-            raf.writeInt(memoBytes.length);
+            return null;
         }
 
-        raf.write(memoBytes); // Note: cuts off higher bytes, so assumes ASCII string
+        long end;
 
-        if (version.getMemoFieldEndMarkerLength() != 0)
+        if (version == Version.DBASE_3 || version == Version.CLIPPER_5)
         {
-            if (version.getMemoFieldEndMarkerLength() == 1)
+            end = findEndMarker(view, dataPosition);
+
+            if (end == -1)
             {
-                raf.writeByte(version.getMemoFieldEndMarker());
+                view = getMappedView(view.capacity() + 1);
+                end = findEndMarker(view, dataPosition);
             }
-            else
+        }
+        else
+        {
+            if (dataPosition > view.capacity())
             {
-                raf.writeShort(version.getMemoFieldEndMarker());
+                throw new CorruptedTableException("Corrupted memo file, EOF exception");
             }
+
+            end = dataPosition + getMemoLength(view.getInt((int) position + LENGTH_MEMO_HEADER - 4));
+            view = getMappedView(end);
         }
 
-        /*
-         * Pad the last block with zeros.
-         */
-        for (int i = 0; i < nrSpacesToPadLastBlock; ++i)
+        if (end == -1 || end > view.capacity())
         {
-            raf.writeByte(0x00);
+            throw new CorruptedTableException("Corrupted memo file, EOF exception");
         }
 
-        /*
-         * Update next available block to write.
-         */
-        raf.seek(OFFSET_NEXT_AVAILABLE_BLOCK_INDEX);
-        nextAvailableBlock += nrBlocksToWrite;
+        view.limit((int) end);
+        view.position((int) dataPosition);
 
-        if (version == Version.FOXPRO_26)
-        {
-            raf.writeInt(nextAvailableBlock);
-        }
-        else
+        return view.slice();
+    }
+
+    /*
+     * Returns the position of the first end of memo marker at or after position, or -1 if there is
+     * none.
+     */
+    private static long findEndMarker(final ByteBuffer view, final long position)
+    {
+        for (int i = (int) Math.min(position, view.limit()); i < view.limit(); ++i)
         {
-            raf.writeInt(Util.changeEndianness(nextAvailableBlock));
+            if (view.get(i) == MARKER_MEMO_END)
+            {
+                return i;
+            }
         }
 
-        return blockIndex;
+        return -1;
     }
 
     /*
-     * Writes a header for a new memo file.
+     * Reads the memo data from position up to the end of memo marker. The marker is searched for in
+     * chunks of growing size, starting with one block.
      */
-    private void writeMemoHeader()
-                          throws IOException
+    private byte[] readUntilEndMarker(final FileChannel channel, final long position)
+                               throws IOException, CorruptedTableException
     {
-        /*
-         * Number of next available block intialized to zero.
-         */
-        raf.writeInt(0);
+        final InputStream in = new MemoInputStream(channel, position, MARKER_MEMO_END, blockLength);
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream(blockLength);
+        final byte[] bytes = new byte[blockLength];
 
-        /*
-         * Write the block length . In FoxPro.
-         */
-        if (version == Version.FOXPRO_26)
+        try
         {
-            raf.writeInt(blockLength);
+            int n;
+
+            while ((n = in.read(bytes)) != -1)
+            {
+                bos.write(bytes, 0, n);
+            }
         }
-        else
+        catch (final EOFException eofException)
         {
-            raf.writeInt(0);
+            throw new CorruptedTableException("Corrupted memo file, EOF exception");
         }
 
-        /*
-         * Write the file name. In dBaseIV and V.
-         */
-        Util.writeString(raf,
-                         Util.stripExtension(memoFile.getName()).toUpperCase(),
-                         LENGTH_FILE_NAME);
+        return bos.toByteArray();
+    }
 
-        if (version == Version.DBASE_4 || version == Version.DBASE_5)
-        {
-            /*
-             * Meaning of the following bytes not clear. These values in all .dbt files that we have
-             * seen have the following values. In dBaseIV and V.
-             */
-            raf.writeByte(0x00);
-            raf.writeByte(0x00);
-            raf.writeByte(0x02);
-            raf.writeByte(0x01);
+    /**
+     * Returns a stream over the data of the memo that starts at <code>blockIndex</code>. The data
+     * is read from the memo file while the stream is read, so that large memos do not have to be
+     * held in memory.
+     *
+     * @param blockIndex block number where the memo starts
+     * @return an input stream
+     *
+     * @throws IOException if the memo header could not be read
+     * @throws CorruptedTableException if the memo header lies beyond the end of the file
+     */
+    InputStream getInputStream(final int blockIndex)
+                        throws IOException, CorruptedTableException
+    {
+        flushWriteBufferFrom(blockIndex);
 
-            /*
-             * Write the block size. In dBaseIV and V.
-             */
-            raf.writeShort(Util.changeEndianness((short) blockLength));
-        }
-        else
+        final FileChannel channel = raf.getChannel();
+        final long position = (long) blockIndex * blockLength;
+
+        if (version == Version.DBASE_3 || version == Version.CLIPPER_5)
         {
-            raf.writeByte(0x00);
-            raf.writeByte(0x00);
-            raf.writeByte(0x00);
-            raf.writeByte(0x00);
-            raf.writeShort(0);
+            return new MemoInputStream(channel, position, MARKER_MEMO_END, blockLength);
         }
 
+        return new MemoInputStream(channel,
+                                   position + LENGTH_MEMO_HEADER,
+                                   readMemoLength(channel, position),
+                                   blockLength);
+    }
+
+    /*
+     * Reads the length of the memo data from the header of a dBase IV, dBase V or FoxPro memo.
+     */
+    private int readMemoLength(final FileChannel channel, final long position)
+                        throws IOException, CorruptedTableException
+    {
         /*
-         * Rest of the header is filled with zeros
+         * at the beginning of each memo there is a header of 8 bytes. 4 first bytes: dBase -
+         * FFFF0800h, FoxPro - type of data (text/general/picture) 4 last bytes: dBase - offset to the
+         * end of memo (length of data + 8) FoxPro - length of data
          */
-        for (int i = OFFSET_BLOCK_SIZE + 2; i < blockLength; i++)
-        {
-            raf.writeByte(0x00);
-        }
+        final ByteBuffer memoHeader = ByteBuffer.allocate(LENGTH_MEMO_HEADER);
+        readFully(channel, memoHeader, position);
+
+        return getMemoLength(memoHeader.getInt(LENGTH_MEMO_HEADER - 4));
+    }
+
+    /*
+     * Converts the last four bytes of the header of a memo, read as a big-endian int, into the
+     * length of the memo data.
+     */
+    private int getMemoLength(final int memoLength)
+    {
+        if (version == Version.FOXPRO_26)
+        {
+            return Math.max(0, memoLength);
+        }
+
+        return Math.max(0,
+                        Util.changeEndianness(memoLength) - version.getMemoDataOffset());
+    }
+
+    /*
+     * Fills the buffer from position in the file.
+     */
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position)
+                           throws IOException, CorruptedTableException
+    {
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer, position + buffer.position()) == -1)
+            {
+                throw new CorruptedTableException("Corrupted memo file, EOF exception");
+            }
+        }
+    }
+
+    /**
+     * Writes a string of characters to memo file. Memos appended to the end of the file are
+     * collected in a write buffer and the header of the memo file is only updated by
+     * {@link #flush()}, so that adding many memos does not cost several small writes and a seek back
+     * to the header per memo.
+     * <p>
+     * If the memo index is enabled and a memo with the same contents was written or indexed before,
+     * nothing is written and the block of that memo is returned.
+     */
+    int writeMemo(final byte[] memoBytes)
+           throws IOException
+    {
+        if (memoIndex == null)
+        {
+            return writeMemoBlocks(memoBytes);
+        }
+
+        final ByteBuffer key = getIndexKey(memoBytes);
+        final Integer indexedBlockIndex = memoIndex.get(key);
+
+        if (indexedBlockIndex != null)
+        {
+            return indexedBlockIndex;
+        }
+
+        final int blockIndex = writeMemoBlocks(memoBytes);
+        memoIndex.put(key, blockIndex);
+
+        return blockIndex;
+    }
+
+    private int writeMemoBlocks(final byte[] memoBytes)
+                         throws IOException
+    {
+        final int nrBlocksToWrite = getBlockCount(memoBytes.length);
+        final int freeBlockIndex = allocateFreeBlocks(nrBlocksToWrite);
+        final int blockIndex = freeBlockIndex == -1 ? nextAvailableBlock : freeBlockIndex;
+        cache.invalidate(blockIndex, nrBlocksToWrite);
+
+        final ByteBuffer blocks = ByteBuffer.allocate(nrBlocksToWrite * blockLength);
+
+        /*
+         * Write the string and end of file markers. The rest of the last block is left filled with
+         * zeros.
+         */
+        putMemoHeader(blocks, memoBytes.length);
+        blocks.put(memoBytes); // Note: cuts off higher bytes, so assumes ASCII string
+        putEndMarker(blocks);
+        blocks.clear();
+
+        if (freeBlockIndex != -1)
+        {
+            /*
+             * The free blocks may still be in the write buffer.
+             */
+            flushWriteBuffer();
+            writeFully(blocks, (long) blockIndex * blockLength);
+
+            return blockIndex;
+        }
+
+        if (writeBuffer.remaining() < blocks.remaining())
+        {
+            flushWriteBuffer();
+        }
+
+        if (writeBuffer.remaining() < blocks.remaining())
+        {
+            writeFully(blocks, (long) blockIndex * blockLength);
+        }
+        else
+        {
+            synchronized (this)
+            {
+                if (writeBuffer.position() == 0)
+                {
+                    writeBufferBlock = blockIndex;
+                    firstBufferedBlock = blockIndex;
+                }
+
+                writeBuffer.put(blocks);
+            }
+        }
+
+        nextAvailableBlock += nrBlocksToWrite;
+        headerChanged = true;
+
+        return blockIndex;
+    }
+
+    /**
+     * Writes the data read from <code>in</code> as a new memo at the end of the memo file. The data
+     * is copied in chunks, so that it never has to be held in memory as a whole. The length in the
+     * header of the memo, if the version has one, is written after all data has been copied.
+     * <p>
+     * If the memo index is enabled and a memo with the same contents was written or indexed before,
+     * the copied data is removed again and the block of that memo is returned. Streamed memos are
+     * never written into freed blocks, because their length is not known in advance.
+     *
+     * @param in the stream to read the memo data from. It is not closed.
+     * @return the first block of the memo
+     *
+     * @throws IOException if the stream could not be read or the memo file could not be written, or
+     *             if the stream holds more data than a memo can
+     */
+    int writeMemo(final InputStream in)
+           throws IOException
+    {
+        flushWriteBuffer();
+
+        final int blockIndex = nextAvailableBlock;
+        final long position = (long) blockIndex * blockLength;
+        final long dataPosition = position + version.getMemoDataOffset();
+        final MessageDigest memoDigest = memoIndex == null ? null : getDigest();
+        final byte[] bytes = new byte[LENGTH_WRITE_BUFFER];
+        final long maxDataLength = Integer.MAX_VALUE - version.getMemoDataOffset() - blockLength;
+        long dataLength = 0;
+        int n;
+
+        try
+        {
+            while ((n = in.read(bytes)) != -1)
+            {
+                if (dataLength + n > maxDataLength)
+                {
+                    throw new IOException("Memo data longer than " + maxDataLength + " bytes");
+                }
+
+                if (memoDigest != null)
+                {
+                    memoDigest.update(bytes, 0, n);
+                }
+
+                writeFully(ByteBuffer.wrap(bytes, 0, n), dataPosition + dataLength);
+                dataLength += n;
+            }
+        }
+        catch (final IOException ex)
+        {
+            /*
+             * Remove the data copied so far.
+             */
+            raf.setLength(position);
+
+            if (memoDigest != null)
+            {
+                memoDigest.reset();
+            }
+
+            throw ex;
+        }
+
+        final int nrBlocks = getBlockCount((int) dataLength);
+        final long end = position + (long) nrBlocks * blockLength;
+
+        /*
+         * End marker and padding of the last block, then the memo header with the length.
+         */
+        final ByteBuffer tail = ByteBuffer.allocate((int) (end - dataPosition - dataLength));
+        putEndMarker(tail);
+        tail.clear();
+        writeFully(tail, dataPosition + dataLength);
+
+        final ByteBuffer memoHeader = ByteBuffer.allocate(version.getMemoDataOffset());
+        putMemoHeader(memoHeader, (int) dataLength);
+        memoHeader.clear();
+        writeFully(memoHeader, position);
+
+        if (memoDigest != null)
+        {
+            final ByteBuffer key = ByteBuffer.wrap(memoDigest.digest());
+            final Integer indexedBlockIndex = memoIndex.get(key);
+
+            if (indexedBlockIndex != null)
+            {
+                raf.setLength(position);
+
+                return indexedBlockIndex;
+            }
+
+            memoIndex.put(key, blockIndex);
+        }
+
+        cache.invalidate(blockIndex, nrBlocks);
+        nextAvailableBlock += nrBlocks;
+        headerChanged = true;
+
+        return blockIndex;
+    }
+
+    /*
+     * Puts the header that precedes the data of a memo, if the version has one.
+     */
+    private void putMemoHeader(final ByteBuffer buffer, final int dataLength)
+    {
+        if (version == Version.DBASE_4 || version == Version.DBASE_5)
+        {
+            buffer.putInt(0xffff0800);
+            buffer.putInt(Util.changeEndianness(dataLength + version.getMemoDataOffset()));
+        }
+        else if (version == Version.FOXPRO_26)
+        {
+            buffer.putInt(1);
+            buffer.putInt(dataLength);
+        }
+    }
+
+    /*
+     * Puts the marker that follows the data of a memo, if the version has one.
+     */
+    private void putEndMarker(final ByteBuffer buffer)
+    {
+        if (version.getMemoFieldEndMarkerLength() == 1)
+        {
+            buffer.put((byte) version.getMemoFieldEndMarker());
+        }
+        else if (version.getMemoFieldEndMarkerLength() == 2)
+        {
+            buffer.putShort((short) version.getMemoFieldEndMarker());
+        }
+    }
+
+    /**
+     * Writes the memos in the write buffer to the memo file and updates the header of the memo
+     * file.
+     *
+     * @throws IOException if the memo file could not be written
+     */
+    void flush()
+        throws IOException
+    {
+        flushWriteBuffer();
+
+        if (headerChanged)
+        {
+            writeNextAvailableBlock();
+            headerChanged = false;
+        }
+    }
+
+    /**
+     * Writes the memos in the write buffer to the memo file, without updating the header. The
+     * buffer is written when it is full, when the memo file is flushed or closed, and when a memo in
+     * it is read, so that records may point to buffered memos.
+     *
+     * @throws IOException if the memo file could not be written
+     */
+    synchronized void flushWriteBuffer()
+                                throws IOException
+    {
+        if (writeBuffer.position() == 0)
+        {
+            return;
+        }
+
+        writeBuffer.flip();
+        writeFully(writeBuffer, (long) writeBufferBlock * blockLength);
+        writeBuffer.clear();
+        firstBufferedBlock = Integer.MAX_VALUE;
+    }
+
+    /*
+     * Writes the write buffer to the memo file if it holds blocks at or after blockIndex. Reads of
+     * blocks before the buffer do not lock.
+     */
+    private void flushWriteBufferFrom(final int blockIndex)
+                               throws IOException
+    {
+        if (blockIndex >= firstBufferedBlock)
+        {
+            flushWriteBuffer();
+        }
+    }
+
+    /*
+     * Writes the remaining bytes of buffer, with its first byte at position in the file.
+     */
+    private void writeFully(final ByteBuffer buffer, final long position)
+                     throws IOException
+    {
+        final FileChannel channel = raf.getChannel();
+        final long start = position - buffer.position();
+
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer, start + buffer.position());
+        }
+    }
+
+    private void writeNextAvailableBlock()
+                                  throws IOException
+    {
+        final ByteBuffer buffer = ByteBuffer.allocate(LENGTH_INT);
+
+        if (version == Version.FOXPRO_26)
+        {
+            buffer.putInt(nextAvailableBlock);
+        }
+        else
+        {
+            buffer.putInt(Util.changeEndianness(nextAvailableBlock));
+        }
+
+        buffer.flip();
+        writeFully(buffer, OFFSET_NEXT_AVAILABLE_BLOCK_INDEX);
+    }
+
+    /**
+     * Removes all blocks from the memo file that are not taken by the memos starting at
+     * <code>blockIndexes</code>. The remaining blocks are moved to the front of the file, keeping
+     * their order, and the file is truncated after them. Memos are copied block by block, without
+     * being read into memory as a whole. Memos that overlap, for instance because one pointer points
+     * into another memo, keep overlapping. If one of the memos cannot be read, the file is left
+     * unchanged.
+     *
+     * @param blockIndexes the first blocks of the memos to keep
+     * @return a map from the old to the new first block of each memo that was kept
+     *
+     * @throws IOException if the memo file could not be read or written
+     * @throws CorruptedTableException if one of the memos could not be read
+     */
+    Map<Integer, Integer> compact(final Collection<Integer> blockIndexes)
+                           throws IOException, CorruptedTableException
+    {
+        flushWriteBuffer();
+
+        final int firstDataBlock = getFirstDataBlock();
+
+        /*
+         * All memos are measured before any block is moved, so that a bad pointer leaves the file
+         * unchanged.
+         */
+        final TreeMap<Integer, Integer> extents = new TreeMap<Integer, Integer>();
+
+        for (final int blockIndex : new TreeSet<Integer>(blockIndexes))
+        {
+            if (blockIndex < firstDataBlock)
+            {
+                throw new CorruptedTableException("Corrupted memo file, memo pointer " + blockIndex
+                                                  + " points into the header");
+            }
+
+            extents.put(blockIndex,
+                        getBlockCountAt(blockIndex));
+        }
+
+        final Map<Integer, Integer> newBlockIndexes = new HashMap<Integer, Integer>();
+        int runStart = -1;
+        int runEnd = -1;
+        int newRunStart = firstDataBlock;
+
+        for (final Map.Entry<Integer, Integer> extent : extents.entrySet())
+        {
+            final int blockIndex = extent.getKey();
+            final int memoEnd = blockIndex + extent.getValue();
+
+            if (blockIndex >= runEnd)
+            {
+                if (runStart != -1)
+                {
+                    moveBlocks(runStart, newRunStart, runEnd - runStart);
+                    newRunStart += runEnd - runStart;
+                }
+
+                runStart = blockIndex;
+            }
+
+            runEnd = Math.max(runEnd, memoEnd);
+            newBlockIndexes.put(blockIndex, newRunStart + blockIndex - runStart);
+        }
+
+        if (runStart != -1)
+        {
+            moveBlocks(runStart, newRunStart, runEnd - runStart);
+            newRunStart += runEnd - runStart;
+        }
+
+        nextAvailableBlock = newRunStart;
+        writeNextAvailableBlock();
+        headerChanged = false;
+        raf.setLength((long) nextAvailableBlock * blockLength);
+        freeBlocks.clear();
+        cache.clear();
+        ++generation;
+
+        if (memoIndex != null)
+        {
+            final Iterator<Map.Entry<ByteBuffer, Integer>> entries = memoIndex.entrySet().iterator();
+
+            while (entries.hasNext())
+            {
+                final Map.Entry<ByteBuffer, Integer> entry = entries.next();
+                final Integer newBlockIndex = newBlockIndexes.get(entry.getValue());
+
+                if (newBlockIndex == null)
+                {
+                    entries.remove();
+                }
+                else
+                {
+                    entry.setValue(newBlockIndex);
+                }
+            }
+        }
+
+        return newBlockIndexes;
+    }
+
+    /*
+     * Returns the number of blocks taken by the memo that starts at blockIndex.
+     */
+    private int getBlockCountAt(final int blockIndex)
+                         throws IOException, CorruptedTableException
+    {
+        flushWriteBuffer();
+
+        if (version == Version.DBASE_3 || version == Version.CLIPPER_5)
+        {
+            final InputStream in = getInputStream(blockIndex);
+            final byte[] bytes = new byte[blockLength];
+            int dataLength = 0;
+            int n;
+
+            try
+            {
+                while ((n = in.read(bytes)) != -1)
+                {
+                    dataLength += n;
+                }
+            }
+            catch (final EOFException eofException)
+            {
+                throw new CorruptedTableException("Corrupted memo file, EOF exception");
+            }
+
+            return getBlockCount(dataLength);
+        }
+
+        return getBlockCount(readMemoLength(raf.getChannel(), (long) blockIndex * blockLength));
+    }
+
+    /*
+     * Copies nrBlocks blocks from block from to block to, which must not lie after from. The blocks
+     * are copied from front to back, so the ranges may overlap.
+     */
+    private void moveBlocks(final int from, final int to, final int nrBlocks)
+                     throws IOException
+    {
+        if (from == to)
+        {
+            return;
+        }
+
+        final FileChannel channel = raf.getChannel();
+        final long length = (long) nrBlocks * blockLength;
+        final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(length, LENGTH_COPY_BUFFER));
+        long copied = 0;
+
+        while (copied < length)
+        {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), length - copied));
+
+            final int n = channel.read(buffer, (long) from * blockLength + copied);
+
+            if (n == -1)
+            {
+                /*
+                 * The last memo may lack padding at the end of the file.
+                 */
+                break;
+            }
+
+            buffer.flip();
+
+            while (buffer.hasRemaining())
+            {
+                channel.write(buffer, (long) to * blockLength + copied + buffer.position());
+            }
+
+            copied += n;
+        }
+    }
+
+    /**
+     * Enables the memo index, which maps the contents of memos to the blocks where they are
+     * stored, so that {@link #writeMemo(byte[])} writes memos with the same contents only once. The
+     * index starts empty; existing memos are added with {@link #addToIndex(int, byte[])}. Memos
+     * are identified by the SHA-1 digest of their contents.
+     */
+    void enableIndex()
+    {
+        if (memoIndex == null)
+        {
+            memoIndex = new HashMap<ByteBuffer, Integer>();
+        }
+    }
+
+    /**
+     * Disables and clears the memo index.
+     */
+    void disableIndex()
+    {
+        memoIndex = null;
+    }
+
+    boolean isIndexEnabled()
+    {
+        return memoIndex != null;
+    }
+
+    /**
+     * Adds the memo that starts at <code>blockIndex</code> and has the data
+     * <code>memoBytes</code> to the memo index, unless a memo with the same contents is already in
+     * the index.
+     */
+    void addToIndex(final int blockIndex, final byte[] memoBytes)
+    {
+        final ByteBuffer key = getIndexKey(memoBytes);
+
+        if (! memoIndex.containsKey(key))
+        {
+            memoIndex.put(key, blockIndex);
+        }
+    }
+
+    private ByteBuffer getIndexKey(final byte[] memoBytes)
+    {
+        return ByteBuffer.wrap(getDigest().digest(memoBytes));
+    }
+
+    private MessageDigest getDigest()
+    {
+        if (digest == null)
+        {
+            try
+            {
+                digest = MessageDigest.getInstance(MEMO_INDEX_DIGEST);
+            }
+            catch (final NoSuchAlgorithmException ex)
+            {
+                throw new IllegalStateException("Every Java platform must support " + MEMO_INDEX_DIGEST, ex);
+            }
+        }
+
+        return digest;
+    }
+
+    /**
+     * Returns the number of blocks taken by a memo with <code>dataLength</code> bytes of data.
+     */
+    int getBlockCount(final int dataLength)
+    {
+        final int nrBytes = dataLength + version.getMemoFieldEndMarkerLength() + version.getMemoDataOffset();
+
+        return (nrBytes + blockLength - 1) / blockLength;
+    }
+
+    /**
+     * Returns a number that changes whenever memo blocks may have been given to another memo, by
+     * reusing free blocks or by {@link #compact(Collection)}. A block index obtained before the
+     * number changed may no longer point to the same memo.
+     *
+     * @return the generation of the memo file
+     */
+    int getGeneration()
+    {
+        return generation;
+    }
+
+    /**
+     * Marks the blocks of the memo that starts at <code>blockIndex</code> and has
+     * <code>dataLength</code> bytes of data as free, so that they can be reused by
+     * {@link #writeMemo(byte[])}. The caller must make sure that no record refers to the memo
+     * anymore. Free blocks are only remembered while the memo file is open.
+     *
+     * @param blockIndex the first block of the memo
+     * @param dataLength the length of the memo data
+     */
+    void freeMemo(final int blockIndex, final int dataLength)
+    {
+        freeBlocks(blockIndex,
+                   getBlockCount(dataLength));
+    }
+
+    /**
+     * Marks the blocks of the memo that starts at <code>blockIndex</code> as free, like
+     * {@link #freeMemo(int, int)}, without reading the memo data.
+     *
+     * @param blockIndex the first block of the memo
+     *
+     * @throws IOException if the memo could not be read
+     * @throws CorruptedTableException if the memo could not be read
+     */
+    void freeMemo(final int blockIndex)
+           throws IOException, CorruptedTableException
+    {
+        freeBlocks(blockIndex,
+                   getBlockCountAt(blockIndex));
+    }
+
+    private void freeBlocks(final int blockIndex, final int nrBlocks)
+    {
+        if (blockIndex < getFirstDataBlock() || blockIndex + nrBlocks > nextAvailableBlock)
+        {
+            return;
+        }
+
+        int start = blockIndex;
+        int length = nrBlocks;
+        final Map.Entry<Integer, Integer> before = freeBlocks.floorEntry(blockIndex);
+
+        if (before != null && before.getKey() + before.getValue() > blockIndex)
+        {
+            /*
+             * Already free.
+             */
+            return;
+        }
+
+        if (before != null && before.getKey() + before.getValue() == blockIndex)
+        {
+            start = before.getKey();
+            length += before.getValue();
+        }
+
+        final Integer after = freeBlocks.get(blockIndex + nrBlocks);
+
+        if (after != null)
+        {
+            freeBlocks.remove(blockIndex + nrBlocks);
+            length += after;
+        }
+
+        freeBlocks.put(start, length);
+    }
+
+    /*
+     * Takes nrBlocks blocks from the first run of free blocks that is large enough. Returns the
+     * index of the first block, or -1 if no run is large enough.
+     */
+    private int allocateFreeBlocks(final int nrBlocks)
+    {
+        for (final Map.Entry<Integer, Integer> run : freeBlocks.entrySet())
+        {
+            if (run.getValue() >= nrBlocks)
+            {
+                final int start = run.getKey();
+                final int length = run.getValue();
+                freeBlocks.remove(start);
+
+                if (length > nrBlocks)
+                {
+                    freeBlocks.put(start + nrBlocks, length - nrBlocks);
+                }
+
+                ++generation;
+
+                return start;
+            }
+        }
+
+        return -1;
+    }
+
+    /*
+     * Writes a header for a new memo file. The header is laid out in memory and written with one
+     * write.
+     */
+    private void writeMemoHeader()
+                          throws IOException
+    {
+        final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(blockLength);
+        final DataOutputStream out = new DataOutputStream(byteArrayOutputStream);
+
+        /*
+         * Number of next available block intialized to zero.
+         */
+        out.writeInt(0);
+
+        /*
+         * Write the block length . In FoxPro.
+         */
+        if (version == Version.FOXPRO_26)
+        {
+            out.writeInt(blockLength);
+        }
+        else
+        {
+            out.writeInt(0);
+        }
+
+        /*
+         * Write the file name. In dBaseIV and V.
+         */
+        Util.writeString(out,
+                         Util.stripExtension(memoFile.getName()).toUpperCase(),
+                         LENGTH_FILE_NAME);
+
+        if (version == Version.DBASE_4 || version == Version.DBASE_5)
+        {
+            /*
+             * Meaning of the following bytes not clear. These values in all .dbt files that we have
+             * seen have the following values. In dBaseIV and V.
+             */
+            out.writeByte(0x00);
+            out.writeByte(0x00);
+            out.writeByte(0x02);
+            out.writeByte(0x01);
+
+            /*
+             * Write the block size. In dBaseIV and V.
+             */
+            out.writeShort(Util.changeEndianness((short) blockLength));
+        }
+        else
+        {
+            out.writeByte(0x00);
+            out.writeByte(0x00);
+            out.writeByte(0x00);
+            out.writeByte(0x00);
+            out.writeShort(0);
+        }
+
+        /*
+         * Rest of the header is filled with zeros
+         */
+        for (int i = OFFSET_BLOCK_SIZE + 2; i < blockLength; i++)
+        {
+            out.writeByte(0x00);
+        }
+
+        writeFully(ByteBuffer.wrap(byteArrayOutputStream.toByteArray()),
+                   0);
     }
 }
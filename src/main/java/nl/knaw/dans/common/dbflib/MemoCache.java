@@ -0,0 +1,170 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of memo data, keyed by the index of the first block of the memo. The total size of the
+ * cached data is kept within a budget by evicting the least recently used memos. A budget of 0
+ * disables the cache. All methods are synchronized, so that the cache can be used by several
+ * readers at the same time. The cached arrays are not copied: they are shared by the cache and all
+ * readers of the memo, and must not be modified.
+ */
+class MemoCache
+{
+    private final LinkedHashMap<Integer, byte[]> entries = new LinkedHashMap<Integer, byte[]>(16, 0.75f, true);
+    private long maxBytes = 0;
+    private long cachedBytes = 0;
+    private int highestBlockIndex = -1;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Sets the budget and evicts memos until the cached data fits in it.
+     */
+    synchronized void setMaxBytes(final long maxBytes)
+    {
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    synchronized long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    /**
+     * Returns the cached data of the memo that starts at <code>blockIndex</code>, or
+     * <code>null</code> if it is not cached. The array is shared and must not be modified.
+     */
+    synchronized byte[] get(final int blockIndex)
+    {
+        if (maxBytes == 0)
+        {
+            return null;
+        }
+
+        final byte[] data = entries.get(blockIndex);
+
+        if (data == null)
+        {
+            ++misses;
+
+            return null;
+        }
+
+        ++hits;
+
+        return data;
+    }
+
+    /**
+     * Caches the data of the memo that starts at <code>blockIndex</code>, unless it is larger than
+     * the budget. The array is cached as is, so it must not be modified afterwards.
+     */
+    synchronized void put(final int blockIndex, final byte[] data)
+    {
+        if (data.length > maxBytes)
+        {
+            return;
+        }
+
+        final byte[] previous = entries.put(blockIndex, data);
+
+        if (previous != null)
+        {
+            cachedBytes -= previous.length;
+        }
+
+        cachedBytes += data.length;
+        highestBlockIndex = Math.max(highestBlockIndex, blockIndex);
+        evict();
+    }
+
+    /**
+     * Removes the memos that start in the <code>nrBlocks</code> blocks from
+     * <code>firstBlockIndex</code>, because these blocks have been overwritten.
+     */
+    synchronized void invalidate(final int firstBlockIndex, final int nrBlocks)
+    {
+        /*
+         * Memos are usually appended after all cached blocks.
+         */
+        if (firstBlockIndex > highestBlockIndex)
+        {
+            return;
+        }
+
+        final Iterator<Map.Entry<Integer, byte[]>> iterator = entries.entrySet().iterator();
+
+        while (iterator.hasNext())
+        {
+            final Map.Entry<Integer, byte[]> entry = iterator.next();
+            final int blockIndex = entry.getKey();
+
+            if (blockIndex >= firstBlockIndex && blockIndex < firstBlockIndex + nrBlocks)
+            {
+                cachedBytes -= entry.getValue().length;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all memos from the cache.
+     */
+    synchronized void clear()
+    {
+        entries.clear();
+        cachedBytes = 0;
+        highestBlockIndex = -1;
+    }
+
+    synchronized long getHits()
+    {
+        return hits;
+    }
+
+    synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    synchronized long getCachedBytes()
+    {
+        return cachedBytes;
+    }
+
+    private void evict()
+    {
+        final Iterator<byte[]> iterator = entries.values().iterator();
+
+        while (cachedBytes > maxBytes && iterator.hasNext())
+        {
+            cachedBytes -= iterator.next().length;
+            iterator.remove();
+        }
+
+        if (entries.isEmpty())
+        {
+            highestBlockIndex = -1;
+        }
+    }
+}
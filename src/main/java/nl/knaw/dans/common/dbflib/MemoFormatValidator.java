@@ -16,6 +16,7 @@
  */
 package nl.knaw.dans.common.dbflib;
 
+import java.io.InputStream;
 import java.util.Date;
 
 /**
@@ -33,8 +34,8 @@ class MemoFormatValidator
     /**
      * {@inheritDoc}
      * <p>
-     * For a MEMO field values of types {@link String}, {@link Boolean}, {@link Date} and
-     * {@link Number} are acceptable.
+     * For a MEMO field values of types {@link String}, {@link Boolean}, {@link Date},
+     * {@link Number} and {@link InputStream} are acceptable.
      */
     public void validate(final Object typedObject)
                   throws DbfLibException
@@ -42,7 +43,8 @@ class MemoFormatValidator
         if (typedObject instanceof String
                 || typedObject instanceof Boolean
                 || typedObject instanceof Date
-                || typedObject instanceof Number)
+                || typedObject instanceof Number
+                || typedObject instanceof InputStream)
         {
             return;
         }
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Streams the data of one memo from the memo file. The data is read in chunks at absolute
+ * positions in the file, so that the stream does not interfere with other readers of the memo
+ * file. The memo either has a known length, or ends at the first end of memo marker.
+ * <p>
+ * Closing the stream does not close the memo file. The stream cannot be read after the table has
+ * been closed.
+ */
+class MemoInputStream
+    extends InputStream
+{
+    private static final int MAX_CHUNK_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final byte endMarker;
+    private ByteBuffer chunk;
+    private long position;
+    private long remaining;
+    private boolean endReached = false;
+
+    /**
+     * Creates a stream over the <code>length</code> bytes at <code>position</code>.
+     */
+    MemoInputStream(final FileChannel channel, final long position, final long length, final int chunkSize)
+    {
+        this(channel, position, length, (byte) 0, chunkSize);
+    }
+
+    /**
+     * Creates a stream over the bytes from <code>position</code> up to the first
+     * <code>endMarker</code>.
+     */
+    MemoInputStream(final FileChannel channel, final long position, final byte endMarker, final int chunkSize)
+    {
+        this(channel, position, -1, endMarker, chunkSize);
+    }
+
+    private MemoInputStream(final FileChannel channel, final long position, final long length, final byte endMarker,
+                            final int chunkSize)
+    {
+        this.channel = channel;
+        this.position = position;
+        this.remaining = length;
+        this.endMarker = endMarker;
+
+        /*
+         * Start with a small chunk, as most memos are short.
+         */
+        chunk = ByteBuffer.allocate(length >= 0 ? (int) Math.min(length, MAX_CHUNK_SIZE) : chunkSize);
+        chunk.limit(0);
+    }
+
+    @Override
+    public int read()
+             throws IOException
+    {
+        if (! fill())
+        {
+            return -1;
+        }
+
+        return chunk.get() & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len)
+             throws IOException
+    {
+        if (len == 0)
+        {
+            return 0;
+        }
+
+        if (! fill())
+        {
+            return -1;
+        }
+
+        final int n = Math.min(len,
+                               chunk.remaining());
+        chunk.get(b, off, n);
+
+        return n;
+    }
+
+    @Override
+    public int available()
+    {
+        return chunk.remaining();
+    }
+
+    /*
+     * Makes sure the chunk has data. Returns false at the end of the memo.
+     */
+    private boolean fill()
+                  throws IOException
+    {
+        while (! chunk.hasRemaining())
+        {
+            if (endReached)
+            {
+                return false;
+            }
+
+            readChunk();
+        }
+
+        return true;
+    }
+
+    private void readChunk()
+                    throws IOException
+    {
+        if (remaining == 0)
+        {
+            endReached = true;
+
+            return;
+        }
+
+        chunk.clear();
+
+        if (remaining > 0 && remaining < chunk.capacity())
+        {
+            chunk.limit((int) remaining);
+        }
+
+        final int n = channel.read(chunk, position);
+
+        if (n == -1)
+        {
+            throw new EOFException("Corrupted memo file, EOF exception");
+        }
+
+        chunk.flip();
+        position += n;
+
+        if (remaining > 0)
+        {
+            remaining -= n;
+
+            return;
+        }
+
+        for (int i = 0; i < n; ++i)
+        {
+            if (chunk.get(i) == endMarker)
+            {
+                chunk.limit(i);
+                endReached = true;
+
+                return;
+            }
+        }
+
+        /*
+         * The memo is longer than the chunk: read larger chunks from now on.
+         */
+        if (chunk.capacity() < MAX_CHUNK_SIZE)
+        {
+            final ByteBuffer larger = ByteBuffer.allocate(Math.min(chunk.capacity() * 2, MAX_CHUNK_SIZE));
+            larger.put(chunk);
+            larger.flip();
+            chunk = larger;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * The value of a MEMO, GENERAL, BINARY or PICTURE field, read from a table. The value only holds
+ * the index of the first memo block until it is asked for; the memo is then read from the memo file
+ * of the table. The table must still be open at that time, and its memo file must not have been
+ * compacted, nor its free blocks reused, since the value was read. Otherwise the block index may
+ * point to another memo, so reading the memo fails with an <code>IllegalStateException</code>.
+ * <p>
+ * Like the values of the other memo-backed fields, the typed value of a MEMO field is a
+ * <code>String</code> and the typed value of the other fields is a <code>byte[]</code>.
+ */
+class MemoValue
+    extends Value
+{
+    private final Table table;
+    private final Field field;
+    private final int blockIndex;
+    private final int generation;
+    private volatile byte[] memoBytes = null;
+
+    MemoValue(final Table table, final Field field, final int blockIndex, final int generation)
+    {
+        super(field, null);
+        this.table = table;
+        this.field = field;
+        this.blockIndex = blockIndex;
+        this.generation = generation;
+    }
+
+    /**
+     * Returns the generation of the memo file when the block index was read.
+     *
+     * @see Table#getMemoGeneration()
+     */
+    int getGeneration()
+    {
+        return generation;
+    }
+
+    /**
+     * Returns the index of the first block of the memo in the memo file.
+     *
+     * @return the block index
+     */
+    int getBlockIndex()
+    {
+        return blockIndex;
+    }
+
+    /**
+     * Returns the table the memo belongs to.
+     *
+     * @return the table
+     */
+    Table getTable()
+    {
+        return table;
+    }
+
+    /**
+     * Returns whether the memo has been read from the memo file.
+     */
+    boolean isRead()
+    {
+        return memoBytes != null;
+    }
+
+    /**
+     * Sets the memo data, read from the memo file ahead of time.
+     */
+    void setMemoBytes(final byte[] memoBytes)
+    {
+        this.memoBytes = memoBytes;
+    }
+
+    /**
+     * Returns a stream over the raw bytes of the memo. If the memo has not been read yet, it is
+     * streamed from the memo file instead of being read into memory.
+     *
+     * @return an input stream
+     *
+     * @throws IOException if the memo could not be read
+     * @throws CorruptedTableException if the memo file is corrupt
+     */
+    InputStream getInputStream()
+                        throws IOException, CorruptedTableException
+    {
+        final byte[] bytes = memoBytes;
+
+        if (bytes != null)
+        {
+            return new ByteArrayInputStream(bytes);
+        }
+
+        return table.getMemoInputStream(blockIndex, generation);
+    }
+
+    /**
+     * Returns the memo data as a read-only buffer. If the memo has not been read yet and the memo
+     * file is mapped, the buffer is a view of the mapped file.
+     *
+     * @throws IOException if the memo could not be read
+     * @throws CorruptedTableException if the memo file is corrupt
+     */
+    ByteBuffer getByteBuffer()
+                      throws IOException, CorruptedTableException
+    {
+        final byte[] bytes = memoBytes;
+
+        if (bytes != null)
+        {
+            return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+        }
+
+        return table.getMemoBuffer(blockIndex, generation);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Reads the memo from the memo file on the first call.
+     *
+     * @throws RuntimeException if the memo file could not be read. The cause is the
+     *             <code>IOException</code> or {@link CorruptedTableException}.
+     * @throws IllegalStateException if the table has been closed, or its memo file was compacted or
+     *             its free blocks were reused since the value was read
+     */
+    @Override
+    byte[] getOriginalRawValue()
+    {
+        byte[] bytes = memoBytes;
+
+        if (bytes == null)
+        {
+            try
+            {
+                bytes = table.readMemo(blockIndex, generation);
+            }
+            catch (final IOException ioException)
+            {
+                throw new RuntimeException(ioException.getMessage(), ioException);
+            }
+            catch (final CorruptedTableException corruptedTableException)
+            {
+                throw new RuntimeException(corruptedTableException.getMessage(), corruptedTableException);
+            }
+
+            memoBytes = bytes;
+        }
+
+        return bytes;
+    }
+
+    @Override
+    protected Object doGetTypedValue(final byte[] rawValue)
+    {
+        if (field.getType() == Type.MEMO)
+        {
+            return new StringValue(field, rawValue, table.getCharsetName()).getTypedValue();
+        }
+
+        /*
+         * The raw value may be shared with the memo cache, so the caller gets a copy it may change.
+         */
+        return rawValue == null ? null : rawValue.clone();
+    }
+
+    @Override
+    protected byte[] doGetRawValue(final Field aField)
+                            throws ValueTooLargeException
+    {
+        if (field.getType() == Type.MEMO)
+        {
+            return new StringValue((String) typed, table.getCharsetName()).doGetRawValue(aField);
+        }
+
+        return (byte[]) typed;
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Writes numbers into NUMBER and FLOAT fields directly as ASCII digits, without creating format
+ * strings, <code>String</code> objects or intermediate byte arrays. The output is the same as that
+ * of <code>String.format(Locale.US, "%<i>length</i>.<i>decimals</i>f", number)</code>, or of
+ * <code>"%<i>length</i>d"</code> for fields without decimals, as used by {@link NumberValue}:
+ * the number is right-aligned and padded with spaces, and rounded half up.
+ * <p>
+ * Numbers that cannot be encoded exactly this way are left to the caller. This is the case for
+ * numbers that do not fit in the field or in a <code>long</code>, and for doubles that lie so close
+ * to halfway between two roundings that the outcome depends on the decimal representation that
+ * <code>String.format</code> chooses.
+ */
+final class NumberEncoder
+{
+    private static final long[] POWERS_OF_TEN =
+        {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L, 10000000000L,
+            100000000000L, 1000000000000L, 10000000000000L, 100000000000000L, 1000000000000000L,
+            10000000000000000L, 100000000000000000L, 1000000000000000000L
+        };
+    private static final int MAX_DECIMAL_COUNT = POWERS_OF_TEN.length - 1;
+
+    /*
+     * Integral numbers are formatted as doubles if the field has decimals. Up to this magnitude
+     * they are exact doubles.
+     */
+    private static final long MAX_EXACT_DOUBLE = 1L << 53;
+
+    /*
+     * Below this magnitude a scaled double is accurate to well within TIE_MARGIN, also when compared
+     * to the shortest decimal representation of the double, which String.format rounds.
+     */
+    private static final double MAX_SCALED_DOUBLE = 1L << 40;
+    private static final double TIE_MARGIN = 1e-3;
+
+    private NumberEncoder()
+    {
+        /*
+         * Disallow instantiation.
+         */
+    }
+
+    /**
+     * Stores <code>number</code> in the <code>field.getLength()</code> bytes of
+     * <code>destination</code> starting at <code>offset</code>, formatted for <code>field</code>.
+     * Returns <code>false</code>, leaving <code>destination</code> untouched, if the number cannot
+     * be encoded exactly like <code>String.format</code> would.
+     */
+    static boolean encode(final Number number, final Field field, final byte[] destination, final int offset)
+    {
+        final int decimalCount = field.getDecimalCount();
+
+        if (decimalCount > MAX_DECIMAL_COUNT)
+        {
+            return false;
+        }
+
+        if (decimalCount == 0 && ! isIntegral(number))
+        {
+            /*
+             * Rounded the same way as by NumberValue.
+             */
+            return encodeLong(Math.round(number.doubleValue()), field, destination, offset);
+        }
+
+        if (number instanceof Integer || number instanceof Long || number instanceof Short || number instanceof Byte)
+        {
+            final long value = number.longValue();
+
+            if (decimalCount > 0 && (value > MAX_EXACT_DOUBLE || value < -MAX_EXACT_DOUBLE))
+            {
+                return false;
+            }
+
+            return encodeLong(value, field, destination, offset);
+        }
+
+        if (number instanceof BigInteger)
+        {
+            final BigInteger value = (BigInteger) number;
+
+            return value.bitLength() < Long.SIZE && encodeLong(value.longValue(), field, destination, offset);
+        }
+
+        if (number instanceof Double || number instanceof Float)
+        {
+            return encodeDouble(number.doubleValue(), field, destination, offset);
+        }
+
+        if (number instanceof BigDecimal)
+        {
+            return encodeBigDecimal((BigDecimal) number, field, destination, offset);
+        }
+
+        return false;
+    }
+
+    private static boolean isIntegral(final Number number)
+    {
+        return number instanceof Byte || number instanceof Short || number instanceof Integer || number instanceof Long
+               || number instanceof BigInteger;
+    }
+
+    private static boolean encodeLong(final long value, final Field field, final byte[] destination,
+                                      final int offset)
+    {
+        if (value == Long.MIN_VALUE)
+        {
+            return false;
+        }
+
+        final long magnitude = Math.abs(value);
+        final long power = POWERS_OF_TEN[field.getDecimalCount()];
+
+        if (magnitude > Long.MAX_VALUE / power)
+        {
+            return false;
+        }
+
+        return put(magnitude * power, value < 0, field, destination, offset);
+    }
+
+    private static boolean encodeDouble(final double value, final Field field, final byte[] destination,
+                                        final int offset)
+    {
+        if (Double.isNaN(value) || Double.isInfinite(value))
+        {
+            return false;
+        }
+
+        /*
+         * Like String.format, a sign is written for negative zero and for negative numbers that are
+         * rounded to zero.
+         */
+        final boolean negative = Double.compare(value, 0.0) < 0;
+        final double scaled = Math.abs(value) * POWERS_OF_TEN[field.getDecimalCount()];
+
+        if (scaled >= MAX_SCALED_DOUBLE)
+        {
+            return false;
+        }
+
+        final double floor = Math.floor(scaled);
+        final double fraction = scaled - floor;
+
+        if (Math.abs(fraction - 0.5) <= TIE_MARGIN)
+        {
+            return false;
+        }
+
+        return put((long) floor + (fraction > 0.5 ? 1 : 0), negative, field, destination, offset);
+    }
+
+    private static boolean encodeBigDecimal(final BigDecimal value, final Field field, final byte[] destination,
+                                            final int offset)
+    {
+        final BigInteger unscaledValue = value.unscaledValue();
+
+        if (unscaledValue.bitLength() >= Long.SIZE)
+        {
+            return false;
+        }
+
+        final long unscaled = Math.abs(unscaledValue.longValue());
+        final int shift = field.getDecimalCount() - value.scale();
+        final long scaled;
+
+        if (shift >= 0)
+        {
+            if (shift > MAX_DECIMAL_COUNT || unscaled > Long.MAX_VALUE / POWERS_OF_TEN[shift])
+            {
+                return false;
+            }
+
+            scaled = unscaled * POWERS_OF_TEN[shift];
+        }
+        else
+        {
+            if (-shift > MAX_DECIMAL_COUNT)
+            {
+                return false;
+            }
+
+            final long power = POWERS_OF_TEN[-shift];
+            final long remainder = unscaled % power;
+            scaled = unscaled / power + (remainder * 2 >= power ? 1 : 0);
+        }
+
+        return put(scaled, value.signum() < 0, field, destination, offset);
+    }
+
+    /*
+     * Writes scaled, which holds the number multiplied by ten to the power of the decimal count,
+     * right-aligned in the field.
+     */
+    private static boolean put(final long scaled, final boolean negative, final Field field,
+                               final byte[] destination, final int offset)
+    {
+        final int decimalCount = field.getDecimalCount();
+        final int nrIntegerDigits = getNumberOfDigits(scaled / POWERS_OF_TEN[decimalCount]);
+        final int width = (negative ? 1 : 0) + nrIntegerDigits + (decimalCount == 0 ? 0 : decimalCount + 1);
+        final int end = offset + field.getLength();
+
+        if (width > field.getLength())
+        {
+            return false;
+        }
+
+        int position = end;
+        long remaining = scaled;
+
+        for (int i = 0; i < decimalCount; ++i)
+        {
+            destination[--position] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        }
+
+        if (decimalCount > 0)
+        {
+            destination[--position] = '.';
+        }
+
+        do
+        {
+            destination[--position] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        }
+        while (remaining != 0);
+
+        if (negative)
+        {
+            destination[--position] = '-';
+        }
+
+        while (position > offset)
+        {
+            destination[--position] = ' ';
+        }
+
+        return true;
+    }
+
+    private static int getNumberOfDigits(final long value)
+    {
+        int n = 1;
+
+        while (n <= MAX_DECIMAL_COUNT && value >= POWERS_OF_TEN[n])
+        {
+            ++n;
+        }
+
+        return n;
+    }
+}
@@ -20,6 +20,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.Locale;
 
 /**
@@ -45,6 +46,20 @@ public class NumberValue
      */
     private static final int MAX_LENGTH_LONG = Long.valueOf(Long.MAX_VALUE).toString().length();
 
+    /*
+     * Numbers are encoded into this array first, so that the raw value is only allocated once the
+     * encoder has succeeded. The length of a field is stored in one byte.
+     */
+    private static final ThreadLocal<byte[]> ENCODE_SCRATCH =
+        new ThreadLocal<byte[]>()
+        {
+            @Override
+            protected byte[] initialValue()
+            {
+                return new byte[0xff];
+            }
+        };
+
     /**
      * Creates a new NumberValue object.
      *
@@ -103,6 +118,19 @@ public class NumberValue
         return new BigDecimal(stringValue);
     }
 
+    private static byte[] getEncodeScratch(final int length)
+    {
+        byte[] scratch = ENCODE_SCRATCH.get();
+
+        if (scratch.length < length)
+        {
+            scratch = new byte[length];
+            ENCODE_SCRATCH.set(scratch);
+        }
+
+        return scratch;
+    }
+
     @Override
     protected byte[] doGetRawValue(final Field field)
     {
@@ -115,6 +143,13 @@ public class NumberValue
 
             if (field.getType() == Type.NUMBER || field.getType() == Type.FLOAT)
             {
+                final byte[] scratch = getEncodeScratch(field.getLength());
+
+                if (NumberEncoder.encode(number, field, scratch, 0))
+                {
+                    return Arrays.copyOf(scratch, field.getLength());
+                }
+
                 bytes = formatNumber(number, field).getBytes();
             }
             else
@@ -135,6 +170,28 @@ public class NumberValue
         return byteArrayOutputStream.toByteArray();
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Numbers created from Java objects are written into NUMBER and FLOAT fields without
+     * intermediate strings, if possible.
+     *
+     * @see NumberEncoder
+     */
+    @Override
+    boolean putRawValue(final Field field, final byte[] destination, final int offset)
+                 throws DbfLibException
+    {
+        if (isOriginal() || (field.getType() != Type.NUMBER && field.getType() != Type.FLOAT))
+        {
+            return false;
+        }
+
+        field.validateTypedValue(typed);
+
+        return NumberEncoder.encode((Number) typed, field, destination, offset);
+    }
+
     private static Number convertIntegralToFractional(final Number integralNumber)
     {
         if (integralNumber instanceof BigInteger)
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A {@link Future} that is completed through the {@link CompletionHandler} interface. Pending
+ * reads cannot be cancelled.
+ *
+ * @param <V> the type of the result
+ */
+class PendingResult<V>
+    implements Future<V>, CompletionHandler<V, Object>
+{
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile V result = null;
+    private volatile Throwable failure = null;
+
+    public void completed(final V value, final Object attachment)
+    {
+        result = value;
+        done.countDown();
+    }
+
+    public void failed(final Throwable throwable, final Object attachment)
+    {
+        failure = throwable;
+        done.countDown();
+    }
+
+    public boolean cancel(final boolean mayInterruptIfRunning)
+    {
+        return false;
+    }
+
+    public boolean isCancelled()
+    {
+        return false;
+    }
+
+    public boolean isDone()
+    {
+        return done.getCount() == 0;
+    }
+
+    public V get()
+          throws InterruptedException, ExecutionException
+    {
+        done.await();
+
+        return getResult();
+    }
+
+    public V get(final long timeout, final TimeUnit unit)
+          throws InterruptedException, ExecutionException, TimeoutException
+    {
+        if (! done.await(timeout, unit))
+        {
+            throw new TimeoutException();
+        }
+
+        return getResult();
+    }
+
+    private V getResult()
+                 throws ExecutionException
+    {
+        if (failure != null)
+        {
+            throw new ExecutionException(failure);
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+/**
+ * Parses field values directly from the bytes of a record, without creating {@link Value} or
+ * <code>String</code> objects. Like the <code>Value</code> subclasses, the parser treats the
+ * field as ending at the first null character.
+ *
+ * @see Util#isEmptyNumber(byte[], int, int)
+ */
+final class RawValueParser
+{
+    /*
+     * Numbers with at most this many digits fit exactly in the 53 bit mantissa of a double.
+     */
+    private static final int MAX_EXACT_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN =
+        { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15 };
+    private static final int LENGTH_DATE = 8;
+
+    /*
+     * The number of days from 1 March of the year 0 to 1 January 1970.
+     */
+    private static final long DAYS_0000_TO_1970 = 719468;
+
+    private RawValueParser()
+    {
+        /*
+         * Disallow instantiation.
+         */
+    }
+
+    /**
+     * Parses the number stored in <code>length</code> bytes of <code>buffer</code> starting at
+     * <code>offset</code> as a double. The result is the same as that of
+     * <code>Double.parseDouble</code> on the trimmed string. Numbers with more than 15 digits or in
+     * an unusual notation are handed to <code>Double.parseDouble</code>.
+     *
+     * @throws NumberFormatException if the field does not contain a valid number
+     */
+    static double parseDouble(final byte[] buffer, final int offset, final int length)
+    {
+        final int end = offset + Util.getStringLength(buffer, offset, length);
+        int i = skipSpaces(buffer, offset, end);
+        boolean negative = false;
+
+        if (i < end && (buffer[i] == '-' || buffer[i] == '+'))
+        {
+            negative = buffer[i] == '-';
+            ++i;
+        }
+
+        long mantissa = 0;
+        int nrDigits = 0;
+        int scale = 0;
+        boolean decimalPointSeen = false;
+
+        for (; i < end && (buffer[i] & 0xff) > ' '; ++i)
+        {
+            final byte b = buffer[i];
+
+            if (b >= '0' && b <= '9')
+            {
+                if (++nrDigits > MAX_EXACT_DIGITS)
+                {
+                    return parseDoubleSlow(buffer, offset, end);
+                }
+
+                mantissa = mantissa * 10 + (b - '0');
+
+                if (decimalPointSeen)
+                {
+                    ++scale;
+                }
+            }
+            else if (b == '.' && ! decimalPointSeen)
+            {
+                decimalPointSeen = true;
+            }
+            else
+            {
+                return parseDoubleSlow(buffer, offset, end);
+            }
+        }
+
+        if (nrDigits == 0 || skipSpaces(buffer, i, end) != end)
+        {
+            return parseDoubleSlow(buffer, offset, end);
+        }
+
+        /*
+         * Both operands are exact, so the division is correctly rounded, like Double.parseDouble.
+         */
+        final double value = mantissa / POWERS_OF_TEN[scale];
+
+        return negative ? -value : value;
+    }
+
+    private static double parseDoubleSlow(final byte[] buffer, final int offset, final int end)
+    {
+        return Double.parseDouble(new String(buffer, offset, end - offset).trim());
+    }
+
+    /**
+     * Parses the date stored as <code>YYYYMMDD</code> at <code>offset</code> in
+     * <code>buffer</code> into the integer <code>YYYYMMDD</code>. Returns -1 if the date is empty or
+     * does not consist of digits only.
+     */
+    static int parseDateDigits(final byte[] buffer, final int offset)
+    {
+        int result = 0;
+
+        for (int i = offset; i < offset + LENGTH_DATE; ++i)
+        {
+            final byte b = buffer[i];
+
+            if (b < '0' || b > '9')
+            {
+                return -1;
+            }
+
+            result = result * 10 + (b - '0');
+        }
+
+        return result;
+    }
+
+    /**
+     * Converts a date as the integer <code>YYYYMMDD</code> into the number of days since 1 January
+     * 1970 in the proleptic Gregorian calendar.
+     */
+    static long toEpochDay(final int dateDigits)
+    {
+        final int month = dateDigits / 100 % 100;
+        final int day = dateDigits % 100;
+
+        /*
+         * Count years from March, so that the leap day is the last day of the year.
+         */
+        final long year = dateDigits / 10000 - (month <= 2 ? 1 : 0);
+        final long era = (year >= 0 ? year : year - 399) / 400;
+        final long yearOfEra = year - era * 400;
+        final long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        final long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+
+        return era * 146097 + dayOfEra - DAYS_0000_TO_1970;
+    }
+
+    /**
+     * Converts a number of days since 1 January 1970 into the integer <code>YYYYMMDD</code>. This
+     * is the inverse of {@link #toEpochDay(int)}.
+     */
+    static int toDateDigits(final long epochDay)
+    {
+        final long days = epochDay + DAYS_0000_TO_1970;
+        final long era = (days >= 0 ? days : days - 146096) / 146097;
+        final long dayOfEra = days - era * 146097;
+        final long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        final long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        final long monthFromMarch = (5 * dayOfYear + 2) / 153;
+        final long day = dayOfYear - (153 * monthFromMarch + 2) / 5 + 1;
+        final long month = monthFromMarch < 10 ? monthFromMarch + 3 : monthFromMarch - 9;
+        final long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        return (int) (year * 10000 + month * 100 + day);
+    }
+
+    /**
+     * Returns whether the value of a field of type <code>type</code> stored in <code>length</code>
+     * bytes of <code>buffer</code> starting at <code>offset</code> is empty. Empty numbers, dates,
+     * logicals and memos are <code>null</code> as typed values.
+     */
+    static boolean isNull(final Type type, final byte[] buffer, final int offset, final int length)
+    {
+        switch (type)
+        {
+            case CHARACTER:
+                return false;
+
+            case LOGICAL:
+                return length == 0 || buffer[offset] == ' ';
+
+            case NUMBER:
+            case FLOAT:
+                return Util.isEmptyNumber(buffer, offset, length);
+
+            case DATE:
+                return Util.isBlank(buffer,
+                                    offset,
+                                    Math.min(length, Util.NR_OF_DIGITS_IN_YEAR));
+
+            default:
+                return Util.isBlank(buffer, offset, length);
+        }
+    }
+
+    /**
+     * Returns the number stored in <code>length</code> bytes of <code>buffer</code> starting at
+     * <code>offset</code> as an int. See {@link #getLong(byte[], int, int)}.
+     *
+     * @throws NumberFormatException if the field does not contain a valid number or the number does
+     *             not fit in an int
+     */
+    static int getInt(final byte[] buffer, final int offset, final int length)
+    {
+        final long value = getLong(buffer, offset, length);
+
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+        {
+            throw new NumberFormatException("Number does not fit in an int: " + value);
+        }
+
+        return (int) value;
+    }
+
+    /**
+     * Returns the number stored in <code>length</code> bytes of <code>buffer</code> starting at
+     * <code>offset</code> as a long. Digits after the decimal point are discarded, like
+     * <code>Number.longValue</code> does. An empty number is returned as 0.
+     *
+     * @throws NumberFormatException if the field does not contain a valid number or the number does
+     *             not fit in a long
+     */
+    static long getLong(final byte[] buffer, final int offset, final int length)
+    {
+        final int end = offset + Util.getStringLength(buffer, offset, length);
+        int i = skipSpaces(buffer, offset, end);
+        boolean signSeen = false;
+        boolean negative = false;
+
+        if (i < end && (buffer[i] == '-' || buffer[i] == '+'))
+        {
+            signSeen = true;
+            negative = buffer[i] == '-';
+            ++i;
+        }
+
+        long result = 0;
+        int nrDigits = 0;
+
+        for (; i < end && buffer[i] >= '0' && buffer[i] <= '9'; ++i)
+        {
+            final int digit = buffer[i] - '0';
+
+            if (result > (Long.MAX_VALUE - digit) / 10)
+            {
+                throw new NumberFormatException("Number does not fit in a long: "
+                                                + new String(buffer, offset, end - offset).trim());
+            }
+
+            result = result * 10 + digit;
+            ++nrDigits;
+        }
+
+        if (i < end && buffer[i] == '.')
+        {
+            for (++i; i < end && buffer[i] >= '0' && buffer[i] <= '9'; ++i)
+            {
+                ++nrDigits;
+            }
+        }
+
+        if (skipSpaces(buffer, i, end) != end || (nrDigits == 0 && signSeen))
+        {
+            throw new NumberFormatException("Not a number: " + new String(buffer, offset, end - offset).trim());
+        }
+
+        return negative ? -result : result;
+    }
+
+    /**
+     * Returns the number stored in <code>length</code> bytes of <code>buffer</code> starting at
+     * <code>offset</code> as a double. An empty number is returned as 0.
+     *
+     * @throws NumberFormatException if the field does not contain a valid number
+     *
+     * @see #parseDouble(byte[], int, int)
+     */
+    static double getDouble(final byte[] buffer, final int offset, final int length)
+    {
+        if (Util.isEmptyNumber(buffer, offset, length))
+        {
+            return 0;
+        }
+
+        return parseDouble(buffer, offset, length);
+    }
+
+    /**
+     * Returns the logical stored at <code>offset</code> in <code>buffer</code> as a boolean. Only
+     * <code>Y</code> and <code>T</code>, in either case, are <code>true</code>; an empty logical is
+     * <code>false</code>.
+     */
+    static boolean getBoolean(final byte[] buffer, final int offset, final int length)
+    {
+        if (length == 0)
+        {
+            return false;
+        }
+
+        final byte b = buffer[offset];
+
+        return b == 'Y' || b == 'y' || b == 'T' || b == 't';
+    }
+
+    /**
+     * Returns the date stored as <code>YYYYMMDD</code> at <code>offset</code> in
+     * <code>buffer</code> as the number of days since 1 January 1970. An empty date is returned as
+     * 0.
+     *
+     * @throws NumberFormatException if the field contains something else than a date
+     */
+    static long getEpochDay(final byte[] buffer, final int offset, final int length)
+    {
+        final int dateDigits = length < LENGTH_DATE ? -1 : parseDateDigits(buffer, offset);
+
+        if (dateDigits != -1)
+        {
+            return toEpochDay(dateDigits);
+        }
+
+        if (Util.isBlank(buffer, offset, Math.min(length, LENGTH_DATE)))
+        {
+            return 0;
+        }
+
+        throw new NumberFormatException("Not a date: " + new String(buffer, offset, Math.min(length, LENGTH_DATE)));
+    }
+
+    private static int skipSpaces(final byte[] buffer, final int offset, final int end)
+    {
+        int i = offset;
+
+        while (i < end && (buffer[i] & 0xff) <= ' ')
+        {
+            ++i;
+        }
+
+        return i;
+    }
+}
@@ -16,6 +16,12 @@
  */
 package nl.knaw.dans.common.dbflib;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Calendar;
+import java.util.Collection;
 import java.util.Date;
 import java.util.Map;
 
@@ -135,7 +141,9 @@ public class Record
 
     /**
      * Returns the raw field value. The raw field value is the bytes as stored in the DBF file. If
-     * the value is empty <code>null</code> or a series of ASCII spaces may be returned.
+     * the value is empty <code>null</code> or a series of ASCII spaces may be returned. The data of
+     * a memo field may be shared with the memo cache of the table, so the returned array must not
+     * be modified.
      *
      * @param field the field for which to get the raw value
      *
@@ -156,9 +164,42 @@ public class Record
         return v.getRawValue(field);
     }
 
+    /*
+     * Stores the raw value of the field directly in the destination, if the value supports that, and
+     * returns whether it did.
+     */
+    boolean putRawValue(final Field field, final byte[] destination, final int offset)
+                 throws DbfLibException
+    {
+        final Value v = valueMap.get(field.getName());
+
+        return v != null && v.putRawValue(field, destination, offset);
+    }
+
+    /*
+     * Returns the value objects of the fields that have a value.
+     */
+    Collection<Value> getValues()
+    {
+        return valueMap.values();
+    }
+
+    /*
+     * Returns the value object of a field, or null if the record has no value for it.
+     */
+    Value getValue(final String fieldName)
+    {
+        return valueMap.get(fieldName);
+    }
+
     /**
      * Returns the value as a Java object. The type of Java object returned depends on the field
      * type in the xBase database. See {@link Type} for the mapping between the two.
+     * <p>
+     * For a record read from a table, the memo of a MEMO, GENERAL, BINARY or PICTURE field is read
+     * from the memo file on the first call. The table must then still be open, and its memos must
+     * not have been moved by {@link Table#compactMemo()} or overwritten through memo space reuse;
+     * otherwise an <code>IllegalStateException</code> is thrown.
      *
      * @param fieldName the field for which to get the value
      *
@@ -269,6 +310,347 @@ public class Record
         return (Date) getTypedValue(fieldName);
     }
 
+    /**
+     * Returns whether the specified field is empty, i.e. whether {@link #getTypedValue(String)}
+     * returns <code>null</code>. For values read from a table the raw bytes are inspected, without
+     * decoding the value.
+     *
+     * @param fieldName the name of the field
+     * @return <code>true</code> if the value is empty
+     */
+    public boolean isNull(final String fieldName)
+    {
+        final Value v = valueMap.get(fieldName);
+
+        if (v == null)
+        {
+            return true;
+        }
+
+        if (v.isOriginal())
+        {
+            final Type type = v.getOriginalField().getType();
+
+            if (type == Type.NUMBER || type == Type.FLOAT || type == Type.DATE || type == Type.LOGICAL)
+            {
+                final byte[] raw = v.getOriginalRawValue();
+
+                return RawValueParser.isNull(type, raw, 0, raw.length);
+            }
+        }
+
+        return v.getTypedValue() == null;
+    }
+
+    /**
+     * Returns the value of a NUMBER or FLOAT field as an <code>int</code>. For values read from a
+     * table the number is parsed directly from the raw bytes, without creating a {@link Number}.
+     * Digits after the decimal point are discarded. An empty number is returned as 0; use
+     * {@link #isNull(String)} to tell it apart from a zero.
+     *
+     * @param fieldName the name of the field with numerical data
+     * @return the value as an <code>int</code>
+     *
+     * @throws NumberFormatException if the field does not contain a number that fits in an
+     *             <code>int</code>
+     * @throws IllegalArgumentException if the field is not a NUMBER or FLOAT field
+     */
+    public int getInt(final String fieldName)
+    {
+        final Value v = getNumericValue(fieldName, "int");
+
+        if (v == null)
+        {
+            return 0;
+        }
+
+        if (v.isOriginal())
+        {
+            final byte[] raw = v.getOriginalRawValue();
+
+            return RawValueParser.getInt(raw, 0, raw.length);
+        }
+
+        final Number number = (Number) v.getTypedValue();
+
+        return number == null ? 0 : number.intValue();
+    }
+
+    /**
+     * Returns the value of a NUMBER or FLOAT field as a <code>long</code>. See
+     * {@link #getInt(String)}.
+     *
+     * @param fieldName the name of the field with numerical data
+     * @return the value as a <code>long</code>
+     *
+     * @throws NumberFormatException if the field does not contain a number that fits in a
+     *             <code>long</code>
+     * @throws IllegalArgumentException if the field is not a NUMBER or FLOAT field
+     */
+    public long getLong(final String fieldName)
+    {
+        final Value v = getNumericValue(fieldName, "long");
+
+        if (v == null)
+        {
+            return 0;
+        }
+
+        if (v.isOriginal())
+        {
+            final byte[] raw = v.getOriginalRawValue();
+
+            return RawValueParser.getLong(raw, 0, raw.length);
+        }
+
+        final Number number = (Number) v.getTypedValue();
+
+        return number == null ? 0 : number.longValue();
+    }
+
+    /**
+     * Returns the value of a NUMBER or FLOAT field as a <code>double</code>. An empty number is
+     * returned as 0.
+     *
+     * @param fieldName the name of the field with numerical data
+     * @return the value as a <code>double</code>
+     *
+     * @throws NumberFormatException if the field does not contain a number
+     * @throws IllegalArgumentException if the field is not a NUMBER or FLOAT field
+     */
+    public double getDouble(final String fieldName)
+    {
+        final Value v = getNumericValue(fieldName, "double");
+
+        if (v == null)
+        {
+            return 0;
+        }
+
+        if (v.isOriginal())
+        {
+            final byte[] raw = v.getOriginalRawValue();
+
+            return RawValueParser.getDouble(raw, 0, raw.length);
+        }
+
+        final Number number = (Number) v.getTypedValue();
+
+        return number == null ? 0 : number.doubleValue();
+    }
+
+    /**
+     * Returns the value of a LOGICAL field as a <code>boolean</code>. An empty logical is returned
+     * as <code>false</code>.
+     *
+     * @param fieldName the name of the field with logical data
+     * @return the value as a <code>boolean</code>
+     *
+     * @throws IllegalArgumentException if the field is not a LOGICAL field
+     */
+    public boolean getBoolean(final String fieldName)
+    {
+        final Value v = getValueOfType(fieldName, "boolean", BooleanValue.class, Type.LOGICAL);
+
+        if (v == null)
+        {
+            return false;
+        }
+
+        if (v.isOriginal())
+        {
+            final byte[] raw = v.getOriginalRawValue();
+
+            return RawValueParser.getBoolean(raw, 0, raw.length);
+        }
+
+        return Boolean.TRUE.equals(v.getTypedValue());
+    }
+
+    /**
+     * Returns the value of a DATE field as the number of days since 1 January 1970, without
+     * creating a {@link Date} for values read from a table. An empty date is returned as 0.
+     *
+     * @param fieldName the name of the field with date data
+     * @return the number of days since 1 January 1970
+     *
+     * @throws NumberFormatException if the field does not contain a date
+     * @throws IllegalArgumentException if the field is not a DATE field
+     */
+    public long getEpochDay(final String fieldName)
+    {
+        final Value v = getValueOfType(fieldName, "epoch day", DateValue.class, Type.DATE);
+
+        if (v == null)
+        {
+            return 0;
+        }
+
+        if (v.isOriginal())
+        {
+            final byte[] raw = v.getOriginalRawValue();
+
+            return RawValueParser.getEpochDay(raw, 0, raw.length);
+        }
+
+        final Date date = (Date) v.getTypedValue();
+
+        if (date == null)
+        {
+            return 0;
+        }
+
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTime(date);
+
+        return RawValueParser.toEpochDay(calendar.get(Calendar.YEAR) * 10000
+                                         + (calendar.get(Calendar.MONTH) + 1) * 100
+                                         + calendar.get(Calendar.DAY_OF_MONTH));
+    }
+
+    /*
+     * Returns the value of the field, or null if it has none, after checking that it can be read as
+     * javaType. Values read from a table are checked by the type of their field, other values by
+     * their class.
+     */
+    private Value getNumericValue(final String fieldName, final String javaType)
+    {
+        final Value v = valueMap.get(fieldName);
+
+        if (v != null)
+        {
+            final boolean numeric;
+
+            if (v.isOriginal())
+            {
+                final Type type = v.getOriginalField().getType();
+                numeric = type == Type.NUMBER || type == Type.FLOAT;
+            }
+            else
+            {
+                numeric = v instanceof NumberValue;
+            }
+
+            if (! numeric)
+            {
+                throw typeMismatch(v, fieldName, javaType);
+            }
+        }
+
+        return v;
+    }
+
+    /*
+     * As getNumericValue, for a single field type and the Value class that goes with it.
+     */
+    private Value getValueOfType(final String fieldName, final String javaType,
+                                 final Class<? extends Value> valueClass, final Type type)
+    {
+        final Value v = valueMap.get(fieldName);
+
+        if (v != null && ! (v.isOriginal() ? v.getOriginalField().getType() == type : valueClass.isInstance(v)))
+        {
+            throw typeMismatch(v, fieldName, javaType);
+        }
+
+        return v;
+    }
+
+    private static IllegalArgumentException typeMismatch(final Value v, final String fieldName, final String javaType)
+    {
+        if (v.isOriginal())
+        {
+            return new IllegalArgumentException("Cannot read " + v.getOriginalField().getType() + " field " + fieldName
+                                                + " as " + javaType);
+        }
+
+        return new IllegalArgumentException("Cannot read " + v.getClass().getSimpleName() + " of field " + fieldName
+                                            + " as " + javaType);
+    }
+
+    /**
+     * Returns the raw bytes of a MEMO, GENERAL, BINARY or PICTURE field as a stream. For a record
+     * read from a table whose memo has not been asked for yet, the memo is streamed from the memo
+     * file, so that large memos do not have to be held in memory. The table must then stay open
+     * while the stream is read.
+     *
+     * @param fieldName the name of the field with memo data
+     *
+     * @return an input stream, or <code>null</code> if the field has no value
+     *
+     * @throws IOException if the memo could not be read
+     * @throws CorruptedTableException if the memo file is corrupt
+     * @throws IllegalArgumentException if the value is not memo data
+     */
+    public InputStream getInputStream(final String fieldName)
+                               throws IOException, CorruptedTableException
+    {
+        final Value v = valueMap.get(fieldName);
+
+        if (v == null)
+        {
+            return null;
+        }
+
+        if (v instanceof MemoValue)
+        {
+            return ((MemoValue) v).getInputStream();
+        }
+
+        final Object typed = v.getTypedValue();
+
+        if (typed == null)
+        {
+            return null;
+        }
+
+        if (! (typed instanceof byte[]))
+        {
+            throw new IllegalArgumentException("Field " + fieldName + " does not contain memo data");
+        }
+
+        return new ByteArrayInputStream((byte[]) typed);
+    }
+
+    /**
+     * Returns the raw bytes of a MEMO, GENERAL, BINARY or PICTURE field as a read-only buffer. For
+     * a record read from a table opened with {@link Table#openReadOnly()} whose memo has not been
+     * asked for yet, the buffer is a view of the mapped memo file, so that the memo is not copied.
+     * The buffer must then not be used after the table has been closed.
+     *
+     * @param fieldName the name of the field with memo data
+     *
+     * @return a read-only buffer, or <code>null</code> if the field has no value
+     *
+     * @throws IOException if the memo could not be read
+     * @throws CorruptedTableException if the memo file is corrupt
+     * @throws IllegalArgumentException if the value is not memo data
+     */
+    public ByteBuffer getByteBuffer(final String fieldName)
+                             throws IOException, CorruptedTableException
+    {
+        final Value v = valueMap.get(fieldName);
+
+        if (v instanceof MemoValue)
+        {
+            return ((MemoValue) v).getByteBuffer();
+        }
+
+        final Object typed = v == null ? null : v.getTypedValue();
+
+        if (typed == null)
+        {
+            return null;
+        }
+
+        if (! (typed instanceof byte[]))
+        {
+            throw new IllegalArgumentException("Field " + fieldName + " does not contain memo data");
+        }
+
+        return ByteBuffer.wrap((byte[]) typed).asReadOnlyBuffer();
+    }
+
     /**
      * Returns whether the record is marked deleted in the database.  In the original dBase program
      * this meant that the record was still visible but had a "deleted" flag.
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import java.io.IOException;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Summarizes a field over a range of records, parsing the values directly from the record buffer
+ * of a {@link RecordCursor}. Like {@link RecordScanTask}, the range is split in two halves as long
+ * as it is larger than the minimum range size, and the summaries of the halves are merged. If no
+ * field is given, only the matching records are counted.
+ * <p>
+ * The first exception thrown by any range is kept in <code>failure</code>. Ranges that have not
+ * started yet are then skipped.
+ */
+class RecordAggregateTask
+    extends RecursiveTask<FieldSummary>
+{
+    private static final long serialVersionUID = 1L;
+
+    private final Table table;
+    private final int startIndex;
+    private final int endIndex;
+    private final int minRangeSize;
+    private final RecordFilter.Matcher matcher;
+    private final int fieldIndex;
+    private final AtomicReference<Exception> failure;
+
+    /**
+     * Creates a task that summarizes the field at <code>fieldIndex</code>, or only counts the
+     * records if <code>fieldIndex</code> is -1.
+     */
+    RecordAggregateTask(final Table table, final int startIndex, final int endIndex, final int minRangeSize,
+                        final RecordFilter.Matcher matcher, final int fieldIndex,
+                        final AtomicReference<Exception> failure)
+    {
+        this.table = table;
+        this.startIndex = startIndex;
+        this.endIndex = endIndex;
+        this.minRangeSize = minRangeSize;
+        this.matcher = matcher;
+        this.fieldIndex = fieldIndex;
+        this.failure = failure;
+    }
+
+    @Override
+    protected FieldSummary compute()
+    {
+        if (endIndex - startIndex > minRangeSize && failure.get() == null)
+        {
+            final int middle = startIndex + (endIndex - startIndex) / 2;
+            final RecordAggregateTask first =
+                new RecordAggregateTask(table, startIndex, middle, minRangeSize, matcher, fieldIndex, failure);
+            final RecordAggregateTask second =
+                new RecordAggregateTask(table, middle, endIndex, minRangeSize, matcher, fieldIndex, failure);
+
+            first.fork();
+
+            final FieldSummary summary = second.compute();
+            summary.merge(first.join());
+
+            return summary;
+        }
+
+        final FieldSummary summary = new FieldSummary(fieldIndex == -1 ? null : table.getHeader().getField(fieldIndex));
+
+        if (failure.get() != null)
+        {
+            return summary;
+        }
+
+        try
+        {
+            summarizeRange(summary);
+        }
+        catch (final Exception exception)
+        {
+            failure.compareAndSet(null, exception);
+        }
+
+        return summary;
+    }
+
+    private void summarizeRange(final FieldSummary summary)
+                         throws IOException, CorruptedTableException
+    {
+        final RecordCursor cursor = new RecordCursor(table, startIndex, endIndex, false, matcher);
+
+        if (fieldIndex == -1)
+        {
+            while (cursor.next())
+            {
+                summary.add(0);
+            }
+
+            return;
+        }
+
+        final DbfHeader header = table.getHeader();
+        final Field field = header.getField(fieldIndex);
+        final int fieldOffset = header.getFieldOffset(fieldIndex);
+        final int fieldLength = field.getLength();
+        final Type type = field.getType();
+
+        while (cursor.next())
+        {
+            final byte[] buffer = cursor.getBuffer();
+            final int offset = cursor.getRecordOffset() + fieldOffset;
+
+            /*
+             * Null values are recognized like the other read paths do, so that they are skipped.
+             */
+            if (RawValueParser.isNull(type, buffer, offset, fieldLength))
+            {
+                continue;
+            }
+
+            if (type == Type.DATE)
+            {
+                final int dateDigits = RawValueParser.parseDateDigits(buffer, offset);
+
+                if (dateDigits == -1)
+                {
+                    throw new CorruptedTableException("Invalid date in field " + field.getName() + " of record "
+                                                      + cursor.getRecordIndex());
+                }
+
+                summary.add(RawValueParser.toEpochDay(dateDigits));
+            }
+            else
+            {
+                try
+                {
+                    summary.add(RawValueParser.parseDouble(buffer, offset, fieldLength));
+                }
+                catch (final NumberFormatException numberFormatException)
+                {
+                    throw new CorruptedTableException("Invalid number in field " + field.getName() + " of record "
+                                                      + cursor.getRecordIndex());
+                }
+            }
+        }
+    }
+}
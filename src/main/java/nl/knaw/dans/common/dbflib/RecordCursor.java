@@ -0,0 +1,677 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+/**
+ * A forward-only cursor over the records of a {@link Table}. The cursor reads the table file in
+ * blocks of records into a buffer that is reused for the whole scan. The current record is a view on
+ * this buffer: no {@link Record} or {@link Value} objects are created while moving the cursor, and
+ * field values are only decoded when one of the accessor methods is called.
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * RecordCursor cursor = table.recordCursor();
+ *
+ * while (cursor.next())
+ * {
+ *     if (! cursor.isNull("SOMENUM"))
+ *     {
+ *         total += cursor.getNumberValue("SOMENUM").doubleValue();
+ *     }
+ * }
+ * </pre>
+ *
+ * The values returned by the accessors are only valid for the current record. A cursor must not be
+ * shared between threads, but several threads may each scan the same table with their own cursor.
+ *
+ * @see Table#recordCursor(boolean)
+ */
+public class RecordCursor
+{
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final Table table;
+    private final DbfHeader header;
+    private final boolean includeDeleted;
+    private final int endIndex;
+    private final RecordFilter.Matcher matcher;
+    private final int bufferSize;
+    private byte[] block = null;
+    private int blockStart = 0;
+    private int blockRecordCount = 0;
+    private int scanIndex;
+    private int recordIndex = -1;
+    private int recordOffset = -1;
+
+    /**
+     * Creates a cursor over the records with indexes from <code>startIndex</code> (inclusive) to
+     * <code>endIndex</code> (exclusive). If <code>matcher</code> is not <code>null</code>, the
+     * records it does not match are skipped.
+     */
+    RecordCursor(final Table table, final int startIndex, final int endIndex, final boolean includeDeleted,
+                 final RecordFilter.Matcher matcher)
+    {
+        this(table, startIndex, endIndex, includeDeleted, matcher, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * As {@link #RecordCursor(Table, int, int, boolean, RecordFilter.Matcher)}, reading blocks of
+     * at most <code>bufferSize</code> bytes.
+     */
+    RecordCursor(final Table table, final int startIndex, final int endIndex, final boolean includeDeleted,
+                 final RecordFilter.Matcher matcher, final int bufferSize)
+    {
+        this.table = table;
+        this.header = table.getHeader();
+        this.includeDeleted = includeDeleted;
+        this.scanIndex = startIndex;
+        this.endIndex = endIndex;
+        this.matcher = matcher;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Moves the cursor to the next record. The first call moves the cursor to the first record. If
+     * the cursor was created with a {@link RecordFilter}, records that do not match are skipped
+     * without being decoded.
+     *
+     * @return <code>true</code> if there was a next record, <code>false</code> if the end of the
+     *         table was reached
+     *
+     * @throws IOException if the table file could not be read
+     */
+    public boolean next()
+                 throws IOException
+    {
+        table.checkOpen();
+
+        final int recordLength = header.getRecordLength();
+        final int end = Math.min(endIndex,
+                                 header.getRecordCount());
+
+        while (scanIndex < end)
+        {
+            if (scanIndex >= blockStart + blockRecordCount && ! readBlock(scanIndex, end))
+            {
+                break;
+            }
+
+            final int offset = (scanIndex - blockStart) * recordLength;
+
+            if (Table.isEndOfFile(block, offset))
+            {
+                break;
+            }
+
+            if ((includeDeleted || ! Table.isMarkedDeleted(block, offset))
+                    && (matcher == null || matcher.matches(block, offset)))
+            {
+                recordIndex = scanIndex++;
+                recordOffset = offset;
+
+                return true;
+            }
+
+            ++scanIndex;
+        }
+
+        recordIndex = -1;
+        recordOffset = -1;
+
+        return false;
+    }
+
+    private boolean readBlock(final int startIndex, final int end)
+                       throws IOException
+    {
+        final int recordLength = header.getRecordLength();
+
+        if (block == null)
+        {
+            final int capacity = Math.max(1,
+                                          Math.min(bufferSize / recordLength, end - startIndex));
+            block = new byte[capacity * recordLength];
+        }
+
+        final int nRecords = Math.min(block.length / recordLength, end - startIndex);
+        final int bytesRead = table.readRecords(startIndex, block, nRecords);
+
+        blockStart = startIndex;
+        blockRecordCount = bytesRead <= 0 ? 0 : bytesRead / recordLength;
+
+        return blockRecordCount > 0;
+    }
+
+    /**
+     * Returns the zero-based index of the current record in the table.
+     *
+     * @return the record index
+     */
+    public int getRecordIndex()
+    {
+        checkCurrent();
+
+        return recordIndex;
+    }
+
+    /**
+     * Returns whether the current record is flagged as "deleted".
+     *
+     * @return deleted status
+     */
+    public boolean isMarkedDeleted()
+    {
+        checkCurrent();
+
+        return Table.isMarkedDeleted(block, recordOffset);
+    }
+
+    /**
+     * Returns the zero-based position of the field with the specified name in the list returned by
+     * {@link Table#getFields()}. Looking up the index once and using the index based accessors
+     * avoids a field name lookup for every record.
+     *
+     * @param fieldName the name of the field
+     * @return the index of the field
+     *
+     * @throws IllegalArgumentException if the table has no field with this name
+     */
+    public int getFieldIndex(final String fieldName)
+    {
+        final int index = header.getFieldIndex(fieldName);
+
+        if (index == -1)
+        {
+            throw new IllegalArgumentException("No such field: " + fieldName);
+        }
+
+        return index;
+    }
+
+    /**
+     * Returns whether the value of the field is empty. Empty numbers, dates, logicals and memos
+     * are returned as <code>null</code> by the typed accessors.
+     *
+     * @param fieldIndex the index of the field
+     * @return <code>true</code> if the value is empty
+     */
+    public boolean isNull(final int fieldIndex)
+    {
+        checkCurrent();
+
+        final Field field = header.getField(fieldIndex);
+
+        return RawValueParser.isNull(field.getType(),
+                                     block,
+                                     recordOffset + header.getFieldOffset(fieldIndex),
+                                     field.getLength());
+    }
+
+    /**
+     * As {@link #isNull(int)}, but looks up the field by name.
+     */
+    public boolean isNull(final String fieldName)
+    {
+        return isNull(getFieldIndex(fieldName));
+    }
+
+    /**
+     * Returns a copy of the raw field value, as stored in the DBF file. For memo fields this is the
+     * memo pointer.
+     *
+     * @param fieldIndex the index of the field
+     * @return a byte array
+     */
+    public byte[] getRawValue(final int fieldIndex)
+    {
+        checkCurrent();
+
+        return Util.copyStringBytes(block,
+                                    recordOffset + header.getFieldOffset(fieldIndex),
+                                    header.getField(fieldIndex).getLength());
+    }
+
+    /**
+     * As {@link #getRawValue(int)}, but looks up the field by name.
+     */
+    public byte[] getRawValue(final String fieldName)
+    {
+        return getRawValue(getFieldIndex(fieldName));
+    }
+
+    /**
+     * Returns the value as a Java object. See {@link Record#getTypedValue(String)}. For memo fields
+     * the memo is read from the memo file.
+     *
+     * @param fieldIndex the index of the field
+     * @return a Java object
+     *
+     * @throws IOException if a memo could not be read
+     * @throws CorruptedTableException if the memo file is corrupt
+     */
+    public Object getTypedValue(final int fieldIndex)
+                         throws IOException, CorruptedTableException
+    {
+        final Value value = table.createValue(header.getField(fieldIndex),
+                                              getRawValue(fieldIndex));
+
+        return value == null ? null : value.getTypedValue();
+    }
+
+    /**
+     * As {@link #getTypedValue(int)}, but looks up the field by name.
+     */
+    public Object getTypedValue(final String fieldName)
+                         throws IOException, CorruptedTableException
+    {
+        return getTypedValue(getFieldIndex(fieldName));
+    }
+
+    /**
+     * Returns the value of a CHARACTER or MEMO field as a <code>java.lang.String</code>.
+     *
+     * @param fieldIndex the index of the field
+     * @return a {@link String} object
+     *
+     * @throws IOException if a memo could not be read
+     * @throws CorruptedTableException if the memo file is corrupt
+     */
+    public String getStringValue(final int fieldIndex)
+                          throws IOException, CorruptedTableException
+    {
+        return (String) getTypedValue(fieldIndex);
+    }
+
+    /**
+     * As {@link #getStringValue(int)}, but looks up the field by name.
+     */
+    public String getStringValue(final String fieldName)
+                          throws IOException, CorruptedTableException
+    {
+        return getStringValue(getFieldIndex(fieldName));
+    }
+
+    /**
+     * Returns the raw bytes of a MEMO, GENERAL, BINARY or PICTURE field as a stream. The memo is
+     * read from the memo file while the stream is read; the table must stay open until then.
+     *
+     * @param fieldIndex the index of the field
+     * @return an input stream, or <code>null</code> if the field is empty
+     *
+     * @throws IOException if the memo could not be read
+     * @throws CorruptedTableException if the memo file is corrupt
+     * @throws IllegalArgumentException if the field is not a memo field
+     */
+    public InputStream getInputStream(final int fieldIndex)
+                               throws IOException, CorruptedTableException
+    {
+        final Field field = header.getField(fieldIndex);
+        final Type type = field.getType();
+
+        if (type != Type.MEMO && type != Type.GENERAL && type != Type.BINARY && type != Type.PICTURE)
+        {
+            throw new IllegalArgumentException("Field " + field.getName() + " is not a memo field");
+        }
+
+        if (isNull(fieldIndex))
+        {
+            return null;
+        }
+
+        return table.getMemoInputStream(Integer.parseInt(new String(getRawValue(fieldIndex)).trim()),
+                                        table.getMemoGeneration());
+    }
+
+    /**
+     * As {@link #getInputStream(int)}, but looks up the field by name.
+     */
+    public InputStream getInputStream(final String fieldName)
+                               throws IOException, CorruptedTableException
+    {
+        return getInputStream(getFieldIndex(fieldName));
+    }
+
+    /**
+     * Returns the raw bytes of a MEMO, GENERAL, BINARY or PICTURE field as a read-only buffer. If
+     * the table was opened with {@link Table#openReadOnly()}, the buffer is a view of the mapped memo
+     * file and nothing is copied; it must not be used after the table has been closed.
+     *
+     * @param fieldIndex the index of the field
+     * @return a read-only buffer, or <code>null</code> if the field is empty
+     *
+     * @throws IOException if the memo could not be read
+     * @throws CorruptedTableException if the memo file is corrupt
+     * @throws IllegalArgumentException if the field is not a memo field
+     */
+    public ByteBuffer getByteBuffer(final int fieldIndex)
+                             throws IOException, CorruptedTableException
+    {
+        final Field field = header.getField(fieldIndex);
+        final Type type = field.getType();
+
+        if (type != Type.MEMO && type != Type.GENERAL && type != Type.BINARY && type != Type.PICTURE)
+        {
+            throw new IllegalArgumentException("Field " + field.getName() + " is not a memo field");
+        }
+
+        if (isNull(fieldIndex))
+        {
+            return null;
+        }
+
+        return table.getMemoBuffer(Integer.parseInt(new String(getRawValue(fieldIndex)).trim()),
+                                   table.getMemoGeneration());
+    }
+
+    /**
+     * As {@link #getByteBuffer(int)}, but looks up the field by name.
+     */
+    public ByteBuffer getByteBuffer(final String fieldName)
+                             throws IOException, CorruptedTableException
+    {
+        return getByteBuffer(getFieldIndex(fieldName));
+    }
+
+    /**
+     * Returns the value of a NUMBER or FLOAT field. See {@link Record#getNumberValue(String)}.
+     *
+     * @param fieldIndex the index of the field
+     * @return a {@link Number} object
+     */
+    public Number getNumberValue(final int fieldIndex)
+    {
+        return (Number) new NumberValue(header.getField(fieldIndex),
+                                        getRawValue(fieldIndex)).getTypedValue();
+    }
+
+    /**
+     * As {@link #getNumberValue(int)}, but looks up the field by name.
+     */
+    public Number getNumberValue(final String fieldName)
+    {
+        return getNumberValue(getFieldIndex(fieldName));
+    }
+
+    /**
+     * Returns the value of a LOGICAL field.
+     *
+     * @param fieldIndex the index of the field
+     * @return a {@link Boolean} object
+     */
+    public Boolean getBooleanValue(final int fieldIndex)
+    {
+        return (Boolean) new BooleanValue(header.getField(fieldIndex),
+                                          getRawValue(fieldIndex)).getTypedValue();
+    }
+
+    /**
+     * As {@link #getBooleanValue(int)}, but looks up the field by name.
+     */
+    public Boolean getBooleanValue(final String fieldName)
+    {
+        return getBooleanValue(getFieldIndex(fieldName));
+    }
+
+    /**
+     * Returns the value of a DATE field.
+     *
+     * @param fieldIndex the index of the field
+     * @return a {@link Date} object
+     */
+    public Date getDateValue(final int fieldIndex)
+    {
+        return (Date) new DateValue(header.getField(fieldIndex),
+                                    getRawValue(fieldIndex)).getTypedValue();
+    }
+
+    /**
+     * As {@link #getDateValue(int)}, but looks up the field by name.
+     */
+    public Date getDateValue(final String fieldName)
+    {
+        return getDateValue(getFieldIndex(fieldName));
+    }
+
+    /**
+     * Returns the value of a NUMBER or FLOAT field as an <code>int</code>. The value is parsed
+     * directly from the record buffer, without creating any objects. Digits after the decimal point
+     * are discarded. An empty number is returned as 0; use {@link #isNull(int)} to tell it apart
+     * from a zero.
+     *
+     * @param fieldIndex the index of the field
+     * @return the value as an <code>int</code>
+     *
+     * @throws NumberFormatException if the field does not contain a number that fits in an
+     *             <code>int</code>
+     * @throws IllegalArgumentException if the field is not a NUMBER or FLOAT field
+     */
+    public int getInt(final int fieldIndex)
+    {
+        checkCurrent();
+        checkNumeric(fieldIndex, "int");
+
+        return RawValueParser.getInt(block,
+                                     recordOffset + header.getFieldOffset(fieldIndex),
+                                     header.getField(fieldIndex).getLength());
+    }
+
+    /**
+     * As {@link #getInt(int)}, but looks up the field by name.
+     */
+    public int getInt(final String fieldName)
+    {
+        return getInt(getFieldIndex(fieldName));
+    }
+
+    /**
+     * Returns the value of a NUMBER or FLOAT field as a <code>long</code>. See {@link #getInt(int)}.
+     *
+     * @param fieldIndex the index of the field
+     * @return the value as a <code>long</code>
+     *
+     * @throws NumberFormatException if the field does not contain a number that fits in a
+     *             <code>long</code>
+     * @throws IllegalArgumentException if the field is not a NUMBER or FLOAT field
+     */
+    public long getLong(final int fieldIndex)
+    {
+        checkCurrent();
+        checkNumeric(fieldIndex, "long");
+
+        return RawValueParser.getLong(block,
+                                      recordOffset + header.getFieldOffset(fieldIndex),
+                                      header.getField(fieldIndex).getLength());
+    }
+
+    /**
+     * As {@link #getLong(int)}, but looks up the field by name.
+     */
+    public long getLong(final String fieldName)
+    {
+        return getLong(getFieldIndex(fieldName));
+    }
+
+    /**
+     * Returns the value of a NUMBER or FLOAT field as a <code>double</code>, parsed directly from
+     * the record buffer. An empty number is returned as 0.
+     *
+     * @param fieldIndex the index of the field
+     * @return the value as a <code>double</code>
+     *
+     * @throws NumberFormatException if the field does not contain a number
+     * @throws IllegalArgumentException if the field is not a NUMBER or FLOAT field
+     */
+    public double getDouble(final int fieldIndex)
+    {
+        checkCurrent();
+        checkNumeric(fieldIndex, "double");
+
+        return RawValueParser.getDouble(block,
+                                        recordOffset + header.getFieldOffset(fieldIndex),
+                                        header.getField(fieldIndex).getLength());
+    }
+
+    /**
+     * As {@link #getDouble(int)}, but looks up the field by name.
+     */
+    public double getDouble(final String fieldName)
+    {
+        return getDouble(getFieldIndex(fieldName));
+    }
+
+    /**
+     * Returns the value of a LOGICAL field as a <code>boolean</code>. An empty logical is returned
+     * as <code>false</code>.
+     *
+     * @param fieldIndex the index of the field
+     * @return the value as a <code>boolean</code>
+     *
+     * @throws IllegalArgumentException if the field is not a LOGICAL field
+     */
+    public boolean getBoolean(final int fieldIndex)
+    {
+        checkCurrent();
+        checkType(fieldIndex, "boolean", Type.LOGICAL);
+
+        return RawValueParser.getBoolean(block,
+                                         recordOffset + header.getFieldOffset(fieldIndex),
+                                         header.getField(fieldIndex).getLength());
+    }
+
+    /**
+     * As {@link #getBoolean(int)}, but looks up the field by name.
+     */
+    public boolean getBoolean(final String fieldName)
+    {
+        return getBoolean(getFieldIndex(fieldName));
+    }
+
+    /**
+     * Returns the value of a DATE field as the number of days since 1 January 1970, without
+     * creating a {@link Date}. An empty date is returned as 0.
+     *
+     * @param fieldIndex the index of the field
+     * @return the number of days since 1 January 1970
+     *
+     * @throws NumberFormatException if the field does not contain a date
+     * @throws IllegalArgumentException if the field is not a DATE field
+     */
+    public long getEpochDay(final int fieldIndex)
+    {
+        checkCurrent();
+        checkType(fieldIndex, "epoch day", Type.DATE);
+
+        return RawValueParser.getEpochDay(block,
+                                          recordOffset + header.getFieldOffset(fieldIndex),
+                                          header.getField(fieldIndex).getLength());
+    }
+
+    /**
+     * As {@link #getEpochDay(int)}, but looks up the field by name.
+     */
+    public long getEpochDay(final String fieldName)
+    {
+        return getEpochDay(getFieldIndex(fieldName));
+    }
+
+    /**
+     * Decodes the current record into a new {@link Record} object.
+     *
+     * @return a <code>Record</code> object
+     *
+     * @throws IOException if a memo could not be read
+     * @throws CorruptedTableException if the memo file is corrupt
+     */
+    public Record getRecord()
+                     throws IOException, CorruptedTableException
+    {
+        return getRecord(null);
+    }
+
+    /**
+     * Decodes the specified fields of the current record into a new {@link Record} object. See
+     * {@link Table#recordIterator(boolean, java.util.List)}.
+     */
+    Record getRecord(final int[] fieldIndexes)
+              throws IOException, CorruptedTableException
+    {
+        checkCurrent();
+
+        return table.getRecord(block, recordOffset, fieldIndexes);
+    }
+
+    /**
+     * Returns the buffer that holds the current record. See {@link #getRecordOffset()}.
+     */
+    byte[] getBuffer()
+    {
+        checkCurrent();
+
+        return block;
+    }
+
+    /**
+     * Returns the offset of the current record, starting with its deletion flag, in the buffer
+     * returned by {@link #getBuffer()}.
+     */
+    int getRecordOffset()
+    {
+        checkCurrent();
+
+        return recordOffset;
+    }
+
+    private void checkCurrent()
+    {
+        if (recordOffset == -1)
+        {
+            throw new IllegalStateException("Cursor is not positioned on a record");
+        }
+    }
+
+    private void checkNumeric(final int fieldIndex, final String javaType)
+    {
+        final Type type = header.getField(fieldIndex).getType();
+
+        if (type != Type.NUMBER && type != Type.FLOAT)
+        {
+            throw typeMismatch(fieldIndex, javaType);
+        }
+    }
+
+    private void checkType(final int fieldIndex, final String javaType, final Type type)
+    {
+        if (header.getField(fieldIndex).getType() != type)
+        {
+            throw typeMismatch(fieldIndex, javaType);
+        }
+    }
+
+    private IllegalArgumentException typeMismatch(final int fieldIndex, final String javaType)
+    {
+        final Field field = header.getField(fieldIndex);
+
+        return new IllegalArgumentException("Cannot read " + field.getType() + " field " + field.getName() + " as "
+                                            + javaType);
+    }
+}
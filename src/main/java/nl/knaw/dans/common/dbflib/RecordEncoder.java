@@ -0,0 +1,120 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import java.util.Arrays;
+
+/**
+ * Lays out records in the fixed-length format of a table. The offset and length of every field are
+ * taken from the header once, so that a record can be encoded into a byte array field by field
+ * without walking the field list or allocating padding. The encoder also owns a buffer of one
+ * record length, which the table reuses for every record it writes, so that each record is written
+ * to the file with a single call.
+ */
+final class RecordEncoder
+{
+    private static final byte PADDING_EMPTY = (byte) ' ';
+    private static final byte PADDING_VALUE = (byte) 0x00;
+
+    private final int recordLength;
+    private final int[] fieldOffsets;
+    private final int[] fieldLengths;
+    private final byte[] buffer;
+
+    RecordEncoder(final DbfHeader header)
+    {
+        final int fieldCount = header.getFieldCount();
+        recordLength = header.getRecordLength();
+        fieldOffsets = new int[fieldCount];
+        fieldLengths = new int[fieldCount];
+
+        for (int i = 0; i < fieldCount; ++i)
+        {
+            fieldOffsets[i] = header.getFieldOffset(i);
+            fieldLengths[i] = header.getField(i).getLength();
+        }
+
+        buffer = new byte[recordLength];
+    }
+
+    int getRecordLength()
+    {
+        return recordLength;
+    }
+
+    /**
+     * Returns the buffer of one record length owned by this encoder. Its contents are only valid
+     * until the next record is encoded into it.
+     */
+    byte[] getBuffer()
+    {
+        return buffer;
+    }
+
+    /**
+     * Stores the deletion flag of the record that starts at <code>recordOffset</code>.
+     */
+    void putMarker(final byte[] destination, final int recordOffset, final byte marker)
+    {
+        destination[recordOffset] = marker;
+    }
+
+    /**
+     * Returns the position in <code>destination</code> of the field with index
+     * <code>fieldIndex</code> in the record that starts at <code>recordOffset</code>.
+     */
+    int getFieldPosition(final int recordOffset, final int fieldIndex)
+    {
+        return recordOffset + fieldOffsets[fieldIndex];
+    }
+
+    /**
+     * Stores the raw value of the field with index <code>fieldIndex</code> in the record that starts
+     * at <code>recordOffset</code>.
+     *
+     * @see #putValue(byte[], byte[], int, int)
+     */
+    void putField(final byte[] destination, final int recordOffset, final int fieldIndex, final byte[] raw)
+    {
+        putValue(raw,
+                 destination,
+                 recordOffset + fieldOffsets[fieldIndex],
+                 fieldLengths[fieldIndex]);
+    }
+
+    /**
+     * Stores <code>raw</code> in the <code>length</code> bytes of <code>destination</code> starting
+     * at <code>position</code>. A <code>null</code> value is stored as spaces, which is how empty
+     * fields are written; a shorter value is padded with null characters and a longer value is
+     * truncated.
+     */
+    static void putValue(final byte[] raw, final byte[] destination, final int position, final int length)
+    {
+        final int end = position + length;
+
+        if (raw == null)
+        {
+            Arrays.fill(destination, position, end, PADDING_EMPTY);
+
+            return;
+        }
+
+        final int n = Math.min(raw.length, length);
+        System.arraycopy(raw, 0, destination, position, n);
+        Arrays.fill(destination, position + n, end, PADDING_VALUE);
+    }
+}
@@ -0,0 +1,571 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+
+/**
+ * A condition on the field values of a record. Filters are evaluated on the bytes of the record as
+ * stored in the table file, before any {@link Record} or {@link Value} objects are created, so that
+ * only the records that match are decoded.
+ * <p>
+ * Filters are created with the static factory methods of this class and can be combined with
+ * {@link #and(RecordFilter...)}, {@link #or(RecordFilter...)} and {@link #not(RecordFilter)}. Empty
+ * field values never match a comparison. The following comparisons are supported:
+ *
+ * <table border="1" cellpadding="4">
+ * <tr>
+ * <td>&nbsp;</td>
+ * <td><b>CHARACTER</b></td>
+ * <td><b>NUMBER, FLOAT</b></td>
+ * <td><b>DATE</b></td>
+ * <td><b>LOGICAL</b></td>
+ * </tr>
+ * <tr>
+ * <td><b>equalTo</b></td>
+ * <td>with a <code>String</code>, trailing spaces are ignored</td>
+ * <td>with a <code>Number</code>, compared as <code>double</code></td>
+ * <td>with a <code>Date</code>, the time is ignored</td>
+ * <td>with a <code>Boolean</code></td>
+ * </tr>
+ * <tr>
+ * <td><b>lessThan</b>, <b>greaterThan</b>, etc.</td>
+ * <td>not supported</td>
+ * <td>with a <code>Number</code></td>
+ * <td>with a <code>Date</code></td>
+ * <td>not supported</td>
+ * </tr>
+ * <tr>
+ * <td><b>startsWith</b></td>
+ * <td>with a <code>String</code></td>
+ * <td>not supported</td>
+ * <td>not supported</td>
+ * <td>not supported</td>
+ * </tr>
+ * </table>
+ * Unsupported combinations cause an {@link IllegalArgumentException} when the filter is used on a
+ * table.
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * Iterator&lt;Record&gt; iterator =
+ *     table.recordIterator(false, null,
+ *                          RecordFilter.and(RecordFilter.startsWith("NAME", "GOLF"),
+ *                                           RecordFilter.greaterThan("YEAR", 1990)));
+ * </pre>
+ *
+ * @see Table#recordIterator(boolean, java.util.List, RecordFilter)
+ * @see Table#recordCursor(boolean, RecordFilter)
+ */
+public abstract class RecordFilter
+{
+    /**
+     * A filter bound to the record layout of a specific table.
+     */
+    abstract static class Matcher
+    {
+        /**
+         * Returns whether the record that starts at <code>offset</code> in <code>buffer</code>
+         * matches.
+         */
+        abstract boolean matches(byte[] buffer, int offset);
+    }
+
+    private enum Operator
+    {
+        EQUAL, LESS, LESS_OR_EQUAL, GREATER, GREATER_OR_EQUAL;
+
+        boolean accept(final int comparison)
+        {
+            switch (this)
+            {
+                case EQUAL:
+                    return comparison == 0;
+
+                case LESS:
+                    return comparison < 0;
+
+                case LESS_OR_EQUAL:
+                    return comparison <= 0;
+
+                case GREATER:
+                    return comparison > 0;
+
+                default:
+                    return comparison >= 0;
+            }
+        }
+    }
+
+    RecordFilter()
+    {
+        /*
+         * Only the subclasses in this class are allowed.
+         */
+    }
+
+    /**
+     * Binds this filter to the record layout of <code>table</code>.
+     *
+     * @throws IllegalArgumentException if a field does not exist or the comparison is not
+     *             supported for its type
+     */
+    abstract Matcher bind(Table table);
+
+    /**
+     * Returns a filter that matches if the field is equal to <code>value</code>.
+     *
+     * @param fieldName the name of the field
+     * @param value a <code>String</code>, <code>Number</code>, <code>Date</code> or
+     *            <code>Boolean</code>, depending on the field type
+     * @return a filter
+     */
+    public static RecordFilter equalTo(final String fieldName, final Object value)
+    {
+        return new Comparison(fieldName, Operator.EQUAL, value);
+    }
+
+    /**
+     * Returns a filter that matches if the NUMBER, FLOAT or DATE field is less than
+     * <code>value</code>.
+     *
+     * @param fieldName the name of the field
+     * @param value a <code>Number</code> or <code>Date</code>
+     * @return a filter
+     */
+    public static RecordFilter lessThan(final String fieldName, final Object value)
+    {
+        return new Comparison(fieldName, Operator.LESS, value);
+    }
+
+    /**
+     * Returns a filter that matches if the NUMBER, FLOAT or DATE field is less than or equal to
+     * <code>value</code>.
+     *
+     * @param fieldName the name of the field
+     * @param value a <code>Number</code> or <code>Date</code>
+     * @return a filter
+     */
+    public static RecordFilter lessThanOrEqualTo(final String fieldName, final Object value)
+    {
+        return new Comparison(fieldName, Operator.LESS_OR_EQUAL, value);
+    }
+
+    /**
+     * Returns a filter that matches if the NUMBER, FLOAT or DATE field is greater than
+     * <code>value</code>.
+     *
+     * @param fieldName the name of the field
+     * @param value a <code>Number</code> or <code>Date</code>
+     * @return a filter
+     */
+    public static RecordFilter greaterThan(final String fieldName, final Object value)
+    {
+        return new Comparison(fieldName, Operator.GREATER, value);
+    }
+
+    /**
+     * Returns a filter that matches if the NUMBER, FLOAT or DATE field is greater than or equal to
+     * <code>value</code>.
+     *
+     * @param fieldName the name of the field
+     * @param value a <code>Number</code> or <code>Date</code>
+     * @return a filter
+     */
+    public static RecordFilter greaterThanOrEqualTo(final String fieldName, final Object value)
+    {
+        return new Comparison(fieldName, Operator.GREATER_OR_EQUAL, value);
+    }
+
+    /**
+     * Returns a filter that matches if the NUMBER, FLOAT or DATE field lies between
+     * <code>low</code> and <code>high</code>, both inclusive.
+     *
+     * @param fieldName the name of the field
+     * @param low the lower bound
+     * @param high the upper bound
+     * @return a filter
+     */
+    public static RecordFilter between(final String fieldName, final Object low, final Object high)
+    {
+        return and(greaterThanOrEqualTo(fieldName, low),
+                   lessThanOrEqualTo(fieldName, high));
+    }
+
+    /**
+     * Returns a filter that matches if the CHARACTER field starts with <code>prefix</code>.
+     *
+     * @param fieldName the name of the field
+     * @param prefix the prefix
+     * @return a filter
+     */
+    public static RecordFilter startsWith(final String fieldName, final String prefix)
+    {
+        return new StartsWith(fieldName, prefix);
+    }
+
+    /**
+     * Returns a filter that matches if the LOGICAL field is true.
+     *
+     * @param fieldName the name of the field
+     * @return a filter
+     */
+    public static RecordFilter isTrue(final String fieldName)
+    {
+        return equalTo(fieldName, Boolean.TRUE);
+    }
+
+    /**
+     * Returns a filter that matches if the LOGICAL field is false.
+     *
+     * @param fieldName the name of the field
+     * @return a filter
+     */
+    public static RecordFilter isFalse(final String fieldName)
+    {
+        return equalTo(fieldName, Boolean.FALSE);
+    }
+
+    /**
+     * Returns a filter that matches if all of <code>filters</code> match.
+     *
+     * @param filters the filters to combine
+     * @return a filter
+     */
+    public static RecordFilter and(final RecordFilter... filters)
+    {
+        return new Junction(true, filters);
+    }
+
+    /**
+     * Returns a filter that matches if any of <code>filters</code> matches.
+     *
+     * @param filters the filters to combine
+     * @return a filter
+     */
+    public static RecordFilter or(final RecordFilter... filters)
+    {
+        return new Junction(false, filters);
+    }
+
+    /**
+     * Returns a filter that matches if <code>filter</code> does not match.
+     *
+     * @param filter the filter to negate
+     * @return a filter
+     */
+    public static RecordFilter not(final RecordFilter filter)
+    {
+        return new RecordFilter()
+            {
+                @Override
+                Matcher bind(final Table table)
+                {
+                    final Matcher matcher = filter.bind(table);
+
+                    return new Matcher()
+                        {
+                            @Override
+                            boolean matches(final byte[] buffer, final int offset)
+                            {
+                                return ! matcher.matches(buffer, offset);
+                            }
+                        };
+                }
+            };
+    }
+
+    private static int getFieldIndex(final Table table, final String fieldName)
+    {
+        final int index = table.getHeader().getFieldIndex(fieldName);
+
+        if (index == -1)
+        {
+            throw new IllegalArgumentException("No such field: " + fieldName);
+        }
+
+        return index;
+    }
+
+    /*
+     * Returns the date as the integer YYYYMMDD, as it is stored in a DATE field.
+     */
+    private static int toDateDigits(final Date date)
+    {
+        final Calendar cal = Calendar.getInstance();
+        cal.setTime(date);
+
+        return cal.get(Calendar.YEAR) * 10000 + (cal.get(Calendar.MONTH) + 1) * 100 + cal.get(Calendar.DAY_OF_MONTH);
+    }
+
+    /*
+     * Returns the length of the string in the field without the trailing spaces.
+     */
+    private static int getTrimmedLength(final byte[] buffer, final int offset, final int length)
+    {
+        int stringLength = Util.getStringLength(buffer, offset, length);
+
+        while (stringLength > 0 && buffer[offset + stringLength - 1] == ' ')
+        {
+            --stringLength;
+        }
+
+        return stringLength;
+    }
+
+    private static boolean regionMatches(final byte[] buffer, final int offset, final byte[] bytes)
+    {
+        for (int i = 0; i < bytes.length; ++i)
+        {
+            if (buffer[offset + i] != bytes[i])
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static class Comparison
+        extends RecordFilter
+    {
+        private final String fieldName;
+        private final Operator operator;
+        private final Object value;
+
+        Comparison(final String fieldName, final Operator operator, final Object value)
+        {
+            if (value == null)
+            {
+                throw new IllegalArgumentException("Value to compare with must not be null");
+            }
+
+            this.fieldName = fieldName;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        @Override
+        Matcher bind(final Table table)
+        {
+            final DbfHeader header = table.getHeader();
+            final int fieldIndex = getFieldIndex(table, fieldName);
+            final Field field = header.getField(fieldIndex);
+            final int fieldOffset = header.getFieldOffset(fieldIndex);
+            final int fieldLength = field.getLength();
+
+            switch (field.getType())
+            {
+                case NUMBER:
+                case FLOAT:
+
+                    final double number = ((Number) checkValueType(field, Number.class)).doubleValue();
+
+                    return new Matcher()
+                        {
+                            @Override
+                            boolean matches(final byte[] buffer, final int offset)
+                            {
+                                final int start = offset + fieldOffset;
+
+                                if (Util.isEmptyNumber(buffer, start, fieldLength))
+                                {
+                                    return false;
+                                }
+
+                                final double d = RawValueParser.parseDouble(buffer, start, fieldLength);
+
+                                return operator.accept(d < number ? -1 : (d == number ? 0 : 1));
+                            }
+                        };
+
+                case DATE:
+
+                    final int date = toDateDigits((Date) checkValueType(field, Date.class));
+
+                    return new Matcher()
+                        {
+                            @Override
+                            boolean matches(final byte[] buffer, final int offset)
+                            {
+                                final int d = RawValueParser.parseDateDigits(buffer, offset + fieldOffset);
+
+                                return d != -1 && operator.accept(d < date ? -1 : (d == date ? 0 : 1));
+                            }
+                        };
+
+                case CHARACTER:
+
+                    checkEquality(field);
+
+                    final byte[] bytes =
+                        Util.getStringBytes(((String) checkValueType(field, String.class)).replaceAll(" +$", ""),
+                                            table.getCharsetName());
+
+                    return new Matcher()
+                        {
+                            @Override
+                            boolean matches(final byte[] buffer, final int offset)
+                            {
+                                final int start = offset + fieldOffset;
+
+                                return getTrimmedLength(buffer, start, fieldLength) == bytes.length
+                                       && regionMatches(buffer, start, bytes);
+                            }
+                        };
+
+                case LOGICAL:
+
+                    checkEquality(field);
+
+                    final boolean expected = (Boolean) checkValueType(field, Boolean.class);
+
+                    return new Matcher()
+                        {
+                            @Override
+                            boolean matches(final byte[] buffer, final int offset)
+                            {
+                                final byte b = buffer[offset + fieldOffset];
+
+                                if (b == 'Y' || b == 'y' || b == 'T' || b == 't')
+                                {
+                                    return expected;
+                                }
+
+                                return b != ' ' && ! expected;
+                            }
+                        };
+
+                default:
+                    throw new IllegalArgumentException("Cannot filter on " + field.getType() + " field "
+                                                       + field.getName());
+            }
+        }
+
+        private Object checkValueType(final Field field, final Class<?> valueClass)
+        {
+            if (! valueClass.isInstance(value))
+            {
+                throw new IllegalArgumentException("Cannot compare " + field.getType() + " field "
+                                                   + field.getName() + " with " + value.getClass().getName());
+            }
+
+            return value;
+        }
+
+        private void checkEquality(final Field field)
+        {
+            if (operator != Operator.EQUAL)
+            {
+                throw new IllegalArgumentException("Only equality is supported for " + field.getType()
+                                                   + " field " + field.getName());
+            }
+        }
+    }
+
+    private static class StartsWith
+        extends RecordFilter
+    {
+        private final String fieldName;
+        private final String prefix;
+
+        StartsWith(final String fieldName, final String prefix)
+        {
+            if (prefix == null)
+            {
+                throw new IllegalArgumentException("Prefix must not be null");
+            }
+
+            this.fieldName = fieldName;
+            this.prefix = prefix;
+        }
+
+        @Override
+        Matcher bind(final Table table)
+        {
+            final DbfHeader header = table.getHeader();
+            final int fieldIndex = getFieldIndex(table, fieldName);
+            final Field field = header.getField(fieldIndex);
+
+            if (field.getType() != Type.CHARACTER)
+            {
+                throw new IllegalArgumentException("Prefix match is only supported for CHARACTER fields");
+            }
+
+            final int fieldOffset = header.getFieldOffset(fieldIndex);
+            final int fieldLength = field.getLength();
+            final byte[] bytes = Util.getStringBytes(prefix,
+                                                     table.getCharsetName());
+
+            return new Matcher()
+                {
+                    @Override
+                    boolean matches(final byte[] buffer, final int offset)
+                    {
+                        final int start = offset + fieldOffset;
+
+                        return Util.getStringLength(buffer, start, fieldLength) >= bytes.length
+                               && regionMatches(buffer, start, bytes);
+                    }
+                };
+        }
+    }
+
+    private static class Junction
+        extends RecordFilter
+    {
+        private final boolean conjunction;
+        private final RecordFilter[] filters;
+
+        Junction(final boolean conjunction, final RecordFilter[] filters)
+        {
+            this.conjunction = conjunction;
+            this.filters = Arrays.copyOf(filters, filters.length);
+        }
+
+        @Override
+        Matcher bind(final Table table)
+        {
+            final Matcher[] matchers = new Matcher[filters.length];
+
+            for (int i = 0; i < filters.length; ++i)
+            {
+                matchers[i] = filters[i].bind(table);
+            }
+
+            return new Matcher()
+                {
+                    @Override
+                    boolean matches(final byte[] buffer, final int offset)
+                    {
+                        for (final Matcher matcher : matchers)
+                        {
+                            if (matcher.matches(buffer, offset) != conjunction)
+                            {
+                                return ! conjunction;
+                            }
+                        }
+
+                        return conjunction;
+                    }
+                };
+        }
+    }
+}
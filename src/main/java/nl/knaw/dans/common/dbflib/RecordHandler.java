@@ -0,0 +1,38 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import java.io.IOException;
+
+/**
+ * Receives the records visited by {@link Table#scan(boolean, RecordFilter, RecordHandler)} and
+ * {@link Table#parallelScan(boolean, RecordFilter, RecordHandler)}. A handler used for a parallel
+ * scan is called from several threads at the same time and must be thread-safe.
+ */
+public interface RecordHandler
+{
+    /**
+     * Handles one record.
+     *
+     * @param record the record
+     *
+     * @throws IOException if the handler fails with an I/O error. This ends the scan.
+     * @throws DbfLibException if the handler fails. This ends the scan.
+     */
+    void handle(Record record)
+         throws IOException, DbfLibException;
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import java.io.IOException;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Scans a range of records of a table, splitting it in two halves as long as it is larger than the
+ * minimum range size. Each range is read by its own {@link RecordCursor}, so that the ranges can be
+ * read and decoded by different threads at the same time.
+ * <p>
+ * The first exception thrown by any range is kept in <code>failure</code>. Ranges that have not
+ * started yet are then skipped.
+ */
+class RecordScanTask
+    extends RecursiveAction
+{
+    private static final long serialVersionUID = 1L;
+
+    private final Table table;
+    private final int startIndex;
+    private final int endIndex;
+    private final int minRangeSize;
+    private final boolean includeDeleted;
+    private final RecordFilter.Matcher matcher;
+    private final RecordHandler handler;
+    private final AtomicReference<Exception> failure;
+
+    RecordScanTask(final Table table, final int startIndex, final int endIndex, final int minRangeSize,
+                   final boolean includeDeleted, final RecordFilter.Matcher matcher, final RecordHandler handler,
+                   final AtomicReference<Exception> failure)
+    {
+        this.table = table;
+        this.startIndex = startIndex;
+        this.endIndex = endIndex;
+        this.minRangeSize = minRangeSize;
+        this.includeDeleted = includeDeleted;
+        this.matcher = matcher;
+        this.handler = handler;
+        this.failure = failure;
+    }
+
+    @Override
+    protected void compute()
+    {
+        if (failure.get() != null)
+        {
+            return;
+        }
+
+        if (endIndex - startIndex > minRangeSize)
+        {
+            final int middle = startIndex + (endIndex - startIndex) / 2;
+
+            invokeAll(new RecordScanTask(table, startIndex, middle, minRangeSize, includeDeleted, matcher, handler,
+                                         failure),
+                      new RecordScanTask(table, middle, endIndex, minRangeSize, includeDeleted, matcher, handler,
+                                         failure));
+
+            return;
+        }
+
+        try
+        {
+            scanRange();
+        }
+        catch (final Exception exception)
+        {
+            failure.compareAndSet(null, exception);
+        }
+    }
+
+    private void scanRange()
+                    throws IOException, DbfLibException
+    {
+        final RecordCursor cursor = new RecordCursor(table, startIndex, endIndex, includeDeleted, matcher);
+
+        while (cursor.next() && failure.get() == null)
+        {
+            handler.handle(cursor.getRecord());
+        }
+    }
+}
@@ -16,25 +16,53 @@
  */
 package nl.knaw.dans.common.dbflib;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInput;
-import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Represents a single table in a xBase database. A table is represented by a single
  * <code>.DBF</code> file. Some tables have an associated .DBT file to store memo field data.
+ * <p>
+ * An open table may be read by several threads at the same time: records and memos are read at
+ * absolute positions in the files, into buffers that belong to the call or the cursor. Adding,
+ * updating and deleting records, packing and closing the table must not overlap with any other
+ * operation on the table.
+ * <p>
+ * The memos of records read from a table are read from the memo file when their values are first
+ * asked for, not when the record is read. Memo values of a {@link Record} can therefore only be
+ * read while the table is open; after {@link #close()} they throw an
+ * <code>IllegalStateException</code>. The same happens once {@link #compactMemo()} has moved the
+ * memos, or blocks freed with memo space reuse have been given to other memos, because the memo
+ * pointers of records read before then may point to other memos. Read the memos first, for
+ * instance with {@link #prefetchMemos(Collection)}, to keep using such records.
  *
  * @author Jan van Mansum
  * @author Vesa Åkerman
@@ -45,50 +73,79 @@ public class Table
     private static final int MARKER_EOF = 0x1A;
     private static final int MARKER_RECORD_VALID = 0x20;
 
+    /*
+     * A parallel scan splits the table in ranges of at least this many records, and in about this
+     * many ranges per worker thread, so that threads that finish early can take over work.
+     */
+    private static final int MIN_SCAN_RANGE_SIZE = 1024;
+    private static final int SCAN_RANGES_PER_THREAD = 4;
+
+    /*
+     * Adapts a RecordCursor to the Iterator interface. The cursor is advanced one record ahead to
+     * answer hasNext().
+     */
     private class RecordIterator
         implements Iterator<Record>
     {
-        private final boolean includeDeleted;
+        private final RecordCursor cursor;
+        private final int[] fieldIndexes;
+        private boolean advanced = false;
+        private boolean hasNext = false;
         private int recordCounter = -1;
         private boolean currentElementDeleted = false;
 
-        RecordIterator(final boolean includeDeleted)
+        /*
+         * With memo prefetching, records are read in batches of prefetchSize records.
+         */
+        private final int prefetchSize;
+        private final List<Record> batch = new ArrayList<Record>();
+        private final int[] batchRecordIndexes;
+        private int batchPosition = 0;
+
+        RecordIterator(final boolean includeDeleted, final int[] fieldIndexes, final RecordFilter filter)
         {
-            this.includeDeleted = includeDeleted;
+            this(includeDeleted, fieldIndexes, filter, 0);
         }
 
-        public boolean hasNext()
+        RecordIterator(final boolean includeDeleted, final int[] fieldIndexes, final RecordFilter filter,
+                       final int prefetchSize)
         {
-            try
-            {
-                return recordCounter + 1 < header.getRecordCount()
-                       && (includeDeleted || ! followingRecordsAreAllDeleted());
-            }
-            catch (final IOException e)
-            {
-                throw new RuntimeException(e);
-            }
+            cursor = new RecordCursor(Table.this,
+                                      0,
+                                      Integer.MAX_VALUE,
+                                      includeDeleted,
+                                      filter == null ? null : filter.bind(Table.this));
+            this.fieldIndexes = fieldIndexes;
+            this.prefetchSize = prefetchSize;
+            batchRecordIndexes = new int[prefetchSize];
         }
 
-        private boolean followingRecordsAreAllDeleted()
-                                               throws IOException
+        public boolean hasNext()
         {
-            int index = recordCounter + 1;
-            byte b;
-
-            do
+            if (prefetchSize > 0)
             {
-                jumpToRecordAt(index++);
-                b = raFile.readByte();
+                if (batchPosition == batch.size())
+                {
+                    readBatch();
+                }
+
+                return batchPosition < batch.size();
+            }
 
-                if (b == MARKER_RECORD_VALID)
+            if (! advanced)
+            {
+                try
+                {
+                    hasNext = cursor.next();
+                    advanced = true;
+                }
+                catch (final IOException e)
                 {
-                    return false;
+                    throw new RuntimeException(e);
                 }
             }
-             while (index < header.getRecordCount() && b == MARKER_RECORD_DELETED);
 
-            return true;
+            return hasNext;
         }
 
         public Record next()
@@ -98,18 +155,20 @@ public class Table
                 throw new NoSuchElementException();
             }
 
-            checkOpen();
+            if (prefetchSize > 0)
+            {
+                recordCounter = batchRecordIndexes[batchPosition];
+                currentElementDeleted = false;
+
+                return batch.get(batchPosition++);
+            }
 
             try
             {
-                Record record;
-
-                do
-                {
-                    record = getRecordAt(++recordCounter);
-                }
-                 while (! includeDeleted && record.isMarkedDeleted());
+                final Record record = cursor.getRecord(fieldIndexes);
 
+                recordCounter = cursor.getRecordIndex();
+                advanced = false;
                 currentElementDeleted = false;
 
                 return record;
@@ -124,9 +183,34 @@ public class Table
             }
         }
 
+        private void readBatch()
+        {
+            batch.clear();
+            batchPosition = 0;
+
+            try
+            {
+                while (batch.size() < prefetchSize && cursor.next())
+                {
+                    batchRecordIndexes[batch.size()] = cursor.getRecordIndex();
+                    batch.add(cursor.getRecord(fieldIndexes));
+                }
+
+                prefetchMemos(batch);
+            }
+            catch (final IOException ioException)
+            {
+                throw new RuntimeException(ioException.getMessage(), ioException);
+            }
+            catch (final CorruptedTableException corruptedTableException)
+            {
+                throw new RuntimeException(corruptedTableException.getMessage(), corruptedTableException);
+            }
+        }
+
         public void remove()
         {
-            if (recordCounter == 0 || recordCounter >= header.getRecordCount())
+            if (recordCounter < 0 || recordCounter >= header.getRecordCount())
             {
                 throw new NoSuchElementException();
             }
@@ -151,8 +235,28 @@ public class Table
     private final File tableFile;
     private final DbfHeader header = new DbfHeader();
     private final String charsetName;
-    private Memo memo = null;
+    private volatile Memo memo = null;
+
+    /*
+     * The generations of memo files opened and closed before the current one, so that the memo
+     * generation of the table never goes back.
+     */
+    private volatile int closedMemoGenerations = 0;
+    private final MemoCache memoCache = new MemoCache();
     private RandomAccessFile raFile = null;
+    private MappedByteBuffer mappedFile = null;
+    private boolean readOnly = false;
+    private boolean memoSpaceReuse = true;
+    private boolean memoDeduplication = false;
+    private AsynchronousFileChannel asyncChannel = null;
+    private volatile Executor asyncMemoExecutor = null;
+    private RecordEncoder recordEncoder = null;
+
+    /*
+     * The appenders that hold records not written to the table yet. They are written when the table
+     * is flushed or closed.
+     */
+    private final Set<TableAppender> pendingAppenders = new LinkedHashSet<TableAppender>();
 
     /**
      * Creates a new <code>Table</code> object. A {@link File} object representing the
@@ -276,12 +380,12 @@ public class Table
         if (tableFile.exists())
         {
             raFile = new RandomAccessFile(tableFile, "rw");
-            header.readAll(raFile);
+            header.readFrom(raFile);
         }
         else if (ifNonExistent.isCreate())
         {
             raFile = new RandomAccessFile(tableFile, "rw");
-            header.writeAll(raFile);
+            header.writeTo(raFile);
         }
         else if (ifNonExistent.isError())
         {
@@ -290,9 +394,116 @@ public class Table
     }
 
     /**
-     * Closes this table for reading and writing.
+     * Opens the table for reading only. The <code>.DBF</code> file is opened in read-only mode and
+     * mapped into memory, so that records are served from the operating system's page cache rather
+     * than through a system call per record. The memo file, if any, is mapped in the same way when
+     * it is opened. Because the file is not opened for writing, this also
+     * works for tables on read-only file systems. All operations that modify the table throw an
+     * {@link IllegalStateException}.
+     * <p>
+     * The table must not be modified by other processes while it is opened in this mode. Table files
+     * and memo files larger than 2GB cannot be mapped and are read through the file instead.
+     *
+     * @throws IOException if the table file does not exist or could not be opened
+     * @throws CorruptedTableException if the header of the table file was corrupt
+     */
+    public void openReadOnly()
+                      throws IOException, CorruptedTableException
+    {
+        if (! tableFile.exists())
+        {
+            throw new FileNotFoundException("Input file " + tableFile + " not found");
+        }
+
+        raFile = new RandomAccessFile(tableFile, "r");
+        readOnly = true;
+
+        try
+        {
+            header.readFrom(raFile);
+
+            final long fileLength = raFile.length();
+
+            if (fileLength <= Integer.MAX_VALUE)
+            {
+                mappedFile = raFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, fileLength);
+            }
+        }
+        catch (final IOException ioException)
+        {
+            close();
+
+            throw ioException;
+        }
+        catch (final CorruptedTableException corruptedTableException)
+        {
+            close();
+
+            throw corruptedTableException;
+        }
+    }
+
+    /**
+     * Returns whether this table was opened for reading only.
+     *
+     * @return <code>true</code> if the table was opened with {@link #openReadOnly()}
+     */
+    public boolean isReadOnly()
+    {
+        return readOnly;
+    }
+
+    /**
+     * Writes all buffered changes to the table's files, including the records buffered in
+     * {@link TableAppender}s of this table. New memos are collected in a write buffer,
+     * which is written to the memo file when it is full or when one of its memos is read, and the
+     * header of the memo file is only updated when the table is flushed or closed. Call this method
+     * to make sure the memo file is complete while the table stays open.
+     *
+     * @throws IOException if the buffered records or the memo file could not be written
+     * @throws IllegalStateException if the table was changed while an appender held records
+     */
+    public void flush()
+               throws IOException
+    {
+        checkOpen();
+        writePendingAppenders();
+
+        if (memo != null)
+        {
+            memo.flush();
+        }
+    }
+
+    /*
+     * Writes the records held by the appenders of this table to the table file.
+     */
+    private void writePendingAppenders()
+                                throws IOException
+    {
+        for (final TableAppender appender : new ArrayList<TableAppender>(pendingAppenders))
+        {
+            appender.writeBufferedRecords();
+        }
+    }
+
+    void addPendingAppender(final TableAppender appender)
+    {
+        pendingAppenders.add(appender);
+    }
+
+    void removePendingAppender(final TableAppender appender)
+    {
+        pendingAppenders.remove(appender);
+    }
+
+    /**
+     * Closes this table for reading and writing. Records buffered in {@link TableAppender}s of this
+     * table are written first; the table is closed even if they cannot be written.
      *
-     * @throws java.io.IOException if the table file or an associated file cannot be closed
+     * @throws java.io.IOException if the buffered records could not be written, or the table file
+     *             or an associated file cannot be closed
+     * @throws IllegalStateException if the table was changed while an appender held records
      */
     public void close()
                throws IOException
@@ -301,14 +512,63 @@ public class Table
         {
             if (raFile != null)
             {
-                raFile.close();
+                try
+                {
+                    writePendingAppenders();
+                }
+                finally
+                {
+                    raFile.close();
+                }
             }
         }
         finally
         {
+            pendingAppenders.clear();
             raFile = null;
-            ensureMemoClosed();
+            mappedFile = null;
+            recordEncoder = null;
+            readOnly = false;
+
+            try
+            {
+                closeAsyncChannel();
+            }
+            finally
+            {
+                ensureMemoClosed();
+            }
+        }
+    }
+
+    private synchronized void closeAsyncChannel()
+                                         throws IOException
+    {
+        if (asyncChannel != null)
+        {
+            try
+            {
+                asyncChannel.close();
+            }
+            finally
+            {
+                asyncChannel = null;
+            }
+        }
+    }
+
+    /*
+     * The asynchronous channel is only opened when the first asynchronous read is started.
+     */
+    private synchronized AsynchronousFileChannel getAsyncChannel()
+                                                          throws IOException
+    {
+        if (asyncChannel == null)
+        {
+            asyncChannel = AsynchronousFileChannel.open(tableFile.toPath(), StandardOpenOption.READ);
         }
+
+        return asyncChannel;
     }
 
     /**
@@ -368,7 +628,8 @@ public class Table
 
     /**
      * Returns a {@link Record} iterator. Note that, to use the iterator the table must be opened.
-     * This iterator skips the records flagged as "deleted".
+     * This iterator skips the records flagged as "deleted". The memo values of the records can only
+     * be read while the table is open, see {@link Table}.
      *
      * @return a <code>Record</code> iterator
      *
@@ -384,146 +645,1083 @@ public class Table
      * Returns a {@link Record} iterator. Note that, to use the iterator the table must be opened.
      * If <code>includeDeleted</code> is <code>true</code>, records flagged as "deleted" are
      * included in the iteration.
+     * <p>
+     * The iterator reads the table sequentially in blocks of several records. Changes made to
+     * records that have already been read ahead are therefore not visible through the iterator.
+     * Memos are read when their values are asked for, so only while the table is open, see
+     * {@link Table}.
      *
      * @param includeDeleted if <code>true</code> deleted records are returned, otherwise not
      * @return a <code>Record</code> iterator
      */
     public Iterator<Record> recordIterator(final boolean includeDeleted)
     {
-        return new RecordIterator(includeDeleted);
+        return new RecordIterator(includeDeleted, null, null);
     }
 
     /**
-     * Constructs and adds a record. The fields values for the record must be provided as parameters
-     * in the same order that the fields are provided in the field list.
+     * Returns a {@link Record} iterator that decodes only the specified fields. The values of the
+     * other fields are not read: they are <code>null</code> in the returned records and their memos
+     * are not read from the memo file. Records read this way should therefore not be used to update
+     * the table.
      *
-     * @throws IOException if the record could not be written to the database file
-     * @throws CorruptedTableException if the table was corrupt
-     * @throws ValueTooLargeException if a field value exceeds the length of its corresponding field
-     * @throws RecordTooLargeException if more field values are provided than there are field in
-     *             this table
+     * @param includeDeleted if <code>true</code> deleted records are returned, otherwise not
+     * @param fieldNames the names of the fields to decode, or <code>null</code> for all fields
+     * @return a <code>Record</code> iterator
+     *
+     * @throws IllegalArgumentException if one of the field names does not exist in this table
      */
-    public void addRecord(final Object... fieldValues)
-                   throws IOException, DbfLibException
+    public Iterator<Record> recordIterator(final boolean includeDeleted, final List<String> fieldNames)
     {
-        if (fieldValues.length > header.getFields().size())
-        {
-            throw new RecordTooLargeException("Trying to add " + fieldValues.length + " fields while there are only "
-                                              + header.getFields().size() + " defined in the table file");
-        }
-
-        final Map<String, Value> map = new HashMap<String, Value>();
-        final Iterator<Field> fieldIterator = header.getFields().iterator();
-
-        for (final Object fieldValue : fieldValues)
-        {
-            final Field field = fieldIterator.next();
-
-            map.put(field.getName(),
-                    createValueObject(fieldValue));
-        }
-
-        addRecord(new Record(map));
+        return recordIterator(includeDeleted, fieldNames, null);
     }
 
-    private Value createValueObject(final Object value)
+    /**
+     * Returns a {@link Record} iterator over the records that match <code>filter</code>, decoding
+     * only the specified fields. The filter is evaluated on the bytes of each record as stored in the
+     * table file; records that do not match are skipped without being decoded.
+     *
+     * @param includeDeleted if <code>true</code> deleted records are returned, otherwise not
+     * @param fieldNames the names of the fields to decode, or <code>null</code> for all fields
+     * @param filter the filter, or <code>null</code> for all records
+     * @return a <code>Record</code> iterator
+     *
+     * @throws IllegalArgumentException if a field name does not exist in this table, or the filter
+     *             cannot be applied to the fields of this table
+     *
+     * @see RecordFilter
+     */
+    public Iterator<Record> recordIterator(final boolean includeDeleted, final List<String> fieldNames,
+                                           final RecordFilter filter)
     {
-        if (value instanceof Number)
-        {
-            return new NumberValue((Number) value);
-        }
-        else if (value instanceof String)
-        {
-            return new StringValue((String) value, charsetName);
-        }
-        else if (value instanceof Boolean)
-        {
-            return new BooleanValue((Boolean) value);
-        }
-        else if (value instanceof Date)
-        {
-            return new DateValue((Date) value);
-        }
-        else if (value instanceof byte[])
-        {
-            return new ByteArrayValue((byte[]) value);
-        }
-
-        return null;
+        return new RecordIterator(includeDeleted,
+                                  getFieldIndexes(fieldNames),
+                                  filter);
     }
 
     /**
-     * Adds a record to this table.
+     * Returns a {@link Record} iterator like {@link #recordIterator(boolean, List, RecordFilter)},
+     * that reads the memos of the records ahead of time. The iterator reads
+     * <code>memoPrefetchSize</code> records at a time, sorts the memos of those records by their
+     * position in the memo file and reads them in one ascending sweep, reading memos that lie close
+     * together with a single read. This turns the random reads of memos in record order into
+     * sequential reads.
      *
-     * @param record the record to add.
+     * @param includeDeleted if <code>true</code> deleted records are returned, otherwise not
+     * @param fieldNames the names of the fields to decode, or <code>null</code> for all fields
+     * @param filter the filter, or <code>null</code> for all records
+     * @param memoPrefetchSize the number of records to read the memos of at a time
+     * @return a <code>Record</code> iterator
      *
-     * @throws IOException if the record could not be written to the database file
-     * @throws CorruptedTableException if the table was corrupt
-     * @throws ValueTooLargeException if a field value exceeds the length of its corresponding field
+     * @throws IllegalArgumentException if a field name does not exist in this table, the filter
+     *             cannot be applied to the fields of this table, or the prefetch size is not positive
      *
-     * @see Record
+     * @see #prefetchMemos(Collection)
      */
-    public void addRecord(final Record record)
-                   throws IOException, DbfLibException
+    public Iterator<Record> recordIterator(final boolean includeDeleted, final List<String> fieldNames,
+                                           final RecordFilter filter, final int memoPrefetchSize)
     {
-        updateRecordAt(header.getRecordCount(),
-                       record);
-        raFile.writeByte(MARKER_EOF);
-        writeRecordCount(header.getRecordCount() + 1);
+        if (memoPrefetchSize <= 0)
+        {
+            throw new IllegalArgumentException("Memo prefetch size must be positive");
+        }
+
+        return new RecordIterator(includeDeleted,
+                                  getFieldIndexes(fieldNames),
+                                  filter,
+                                  memoPrefetchSize);
     }
 
-    public void updateRecordAt(final int index, final Record record)
-                        throws IOException, DbfLibException
+    /**
+     * Reads the memos of <code>records</code> that were read from this table and whose memos have
+     * not been read yet. The memos are read in the order in which they are stored in the memo file,
+     * and memos that lie close together are read with a single read. Afterwards, asking for the
+     * value of a memo field of one of the records does not read the memo file anymore.
+     * <p>
+     * Memos that cannot be read because the memo file is corrupt are skipped; the error is reported
+     * when the value of the field is asked for.
+     *
+     * @param records the records to read the memos of
+     *
+     * @throws IOException if the memo file could not be read
+     * @throws CorruptedTableException if the memo file could not be found
+     */
+    public void prefetchMemos(final Collection<Record> records)
+                       throws IOException, CorruptedTableException
     {
         checkOpen();
-        jumpToRecordAt(index);
-        raFile.writeByte(MARKER_RECORD_VALID);
 
-        for (final Field field : header.getFields())
-        {
-            byte[] raw = record.getRawValue(field);
+        final Map<Integer, List<MemoValue>> memoValues = new TreeMap<Integer, List<MemoValue>>();
 
-            if (raw == null)
-            {
-                raw = Util.repeat((byte) ' ',
-                                  field.getLength());
-            }
-            else if (field.getType() == Type.MEMO || field.getType() == Type.BINARY || field.getType() == Type.GENERAL)
+        for (final Record record : records)
+        {
+            for (final Value value : record.getValues())
             {
-                final int i = writeMemo(raw);
-
-                if (header.getVersion() == Version.DBASE_4 || header.getVersion() == Version.DBASE_5)
-                {
-                    raw = String.format("%0" + field.getLength() + "d", i).getBytes();
-                }
-                else
+                if (value instanceof MemoValue && ((MemoValue) value).getTable() == this
+                        && ! ((MemoValue) value).isRead()
+                        && ((MemoValue) value).getGeneration() == getMemoGeneration())
                 {
-                    raw = String.format("%" + field.getLength() + "d", i).getBytes();
+                    final MemoValue memoValue = (MemoValue) value;
+                    List<MemoValue> valuesOfBlock = memoValues.get(memoValue.getBlockIndex());
+
+                    if (valuesOfBlock == null)
+                    {
+                        valuesOfBlock = new ArrayList<MemoValue>();
+                        memoValues.put(memoValue.getBlockIndex(), valuesOfBlock);
+                    }
+
+                    valuesOfBlock.add(memoValue);
                 }
             }
+        }
+
+        if (memoValues.isEmpty())
+        {
+            return;
+        }
+
+        ensureMemoOpened(IfNonExistent.ERROR);
+
+        final int[] blockIndexes = new int[memoValues.size()];
+        int i = 0;
+
+        for (final int blockIndex : memoValues.keySet())
+        {
+            blockIndexes[i++] = blockIndex;
+        }
 
-            raFile.write(raw);
+        final Map<Integer, byte[]> memos = memo.readMemos(blockIndexes);
+
+        for (final Map.Entry<Integer, List<MemoValue>> entry : memoValues.entrySet())
+        {
+            final byte[] data = memos.get(entry.getKey());
 
-            if (raw.length < field.getLength())
+            if (data != null)
             {
-                raFile.write(Util.repeat((byte) 0x00, field.getLength() - raw.length));
+                /*
+                 * Each value gets its own copy, like memos from the cache.
+                 */
+                for (final MemoValue memoValue : entry.getValue())
+                {
+                    memoValue.setMemoBytes(memoValue == entry.getValue().get(0) ? data : data.clone());
+                }
             }
         }
     }
 
     /**
-     * Flags the record at <code>index</code> as "deleted". To physically remove "deleted" records,
-     * a call to {@link #pack()} is necessary.
+     * Returns a {@link RecordCursor} over the records of this table, skipping the records flagged as
+     * "deleted". Note that, to use the cursor the table must be opened.
      *
-     * @param index the index of the record to delete
-     * @throws IOException
+     * @return a <code>RecordCursor</code>
+     *
+     * @see #recordCursor(boolean)
      */
-    public void deleteRecordAt(final int index)
-                        throws IOException
+    public RecordCursor recordCursor()
     {
-        checkOpen();
-        jumpToRecordAt(index);
-        raFile.writeByte(MARKER_RECORD_DELETED);
+        return recordCursor(false);
+    }
+
+    /**
+     * Returns a {@link RecordCursor} over the records of this table. Unlike the {@link Record}
+     * objects returned by {@link #recordIterator(boolean)}, the cursor does not allocate any objects
+     * per record. Field values are decoded only when they are asked for.
+     *
+     * @param includeDeleted if <code>true</code> deleted records are visited, otherwise not
+     * @return a <code>RecordCursor</code>
+     */
+    public RecordCursor recordCursor(final boolean includeDeleted)
+    {
+        return recordCursor(includeDeleted, null);
+    }
+
+    /**
+     * Returns a {@link RecordCursor} over the records of this table that match <code>filter</code>.
+     * The filter is evaluated on the bytes of each record as stored in the table file.
+     *
+     * @param includeDeleted if <code>true</code> deleted records are visited, otherwise not
+     * @param filter the filter, or <code>null</code> for all records
+     * @return a <code>RecordCursor</code>
+     *
+     * @throws IllegalArgumentException if the filter cannot be applied to the fields of this table
+     *
+     * @see RecordFilter
+     */
+    public RecordCursor recordCursor(final boolean includeDeleted, final RecordFilter filter)
+    {
+        checkOpen();
+
+        return new RecordCursor(this,
+                                0,
+                                Integer.MAX_VALUE,
+                                includeDeleted,
+                                filter == null ? null : filter.bind(this));
+    }
+
+    /**
+     * Passes the records of this table that match <code>filter</code> to <code>handler</code>, in
+     * the order in which they are stored in the table file.
+     *
+     * @param includeDeleted if <code>true</code> deleted records are visited, otherwise not
+     * @param filter the filter, or <code>null</code> for all records
+     * @param handler the handler
+     *
+     * @throws IOException if the table file could not be read, or the handler failed
+     * @throws DbfLibException if a memo could not be read, or the handler failed
+     *
+     * @see #parallelScan(boolean, RecordFilter, RecordHandler)
+     */
+    public void scan(final boolean includeDeleted, final RecordFilter filter, final RecordHandler handler)
+              throws IOException, DbfLibException
+    {
+        final RecordCursor cursor = recordCursor(includeDeleted, filter);
+
+        while (cursor.next())
+        {
+            handler.handle(cursor.getRecord());
+        }
+    }
+
+    /**
+     * As {@link #parallelScan(boolean, RecordFilter, RecordHandler, ForkJoinPool)}, using a
+     * <code>ForkJoinPool</code> with one thread per available processor that is shared by all
+     * tables.
+     */
+    public void parallelScan(final boolean includeDeleted, final RecordFilter filter, final RecordHandler handler)
+                      throws IOException, DbfLibException
+    {
+        parallelScan(includeDeleted, filter, handler, getDefaultPool());
+    }
+
+    /**
+     * Passes the records of this table that match <code>filter</code> to <code>handler</code>,
+     * using the threads of <code>pool</code>. The table is split into contiguous ranges of records,
+     * and each range is read from the file and decoded independently of the others. The order in
+     * which the handler receives the records is therefore undefined, and the handler must be
+     * thread-safe.
+     * <p>
+     * The table must not be modified during the scan. If the handler throws an exception, the
+     * remaining ranges are skipped and the first exception is rethrown by this method.
+     *
+     * @param includeDeleted if <code>true</code> deleted records are visited, otherwise not
+     * @param filter the filter, or <code>null</code> for all records
+     * @param handler the handler
+     * @param pool the pool to run the scan in
+     *
+     * @throws IOException if the table file could not be read, or the handler failed
+     * @throws DbfLibException if a memo could not be read, or the handler failed
+     */
+    public void parallelScan(final boolean includeDeleted, final RecordFilter filter, final RecordHandler handler,
+                             final ForkJoinPool pool)
+                      throws IOException, DbfLibException
+    {
+        checkOpen();
+
+        final RecordFilter.Matcher matcher = filter == null ? null : filter.bind(this);
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+        pool.invoke(new RecordScanTask(this,
+                                       0,
+                                       header.getRecordCount(),
+                                       getScanRangeSize(pool),
+                                       includeDeleted,
+                                       matcher,
+                                       handler,
+                                       failure));
+        rethrow(failure.get());
+    }
+
+    /**
+     * As {@link #countRecords(RecordFilter, ForkJoinPool)}, using a <code>ForkJoinPool</code> with
+     * one thread per available processor that is shared by all tables.
+     */
+    public int countRecords(final RecordFilter filter)
+                     throws IOException
+    {
+        return countRecords(filter, getDefaultPool());
+    }
+
+    /**
+     * Counts the records that are not flagged as "deleted" and match <code>filter</code>. The
+     * records are not decoded: only the deletion flag and the bytes of the filtered fields are
+     * inspected. Ranges of records are counted in parallel by the threads of <code>pool</code>.
+     *
+     * @param filter the filter, or <code>null</code> to count all records that are not deleted
+     * @param pool the pool to run the count in
+     * @return the number of records
+     *
+     * @throws IOException if the table file could not be read
+     */
+    public int countRecords(final RecordFilter filter, final ForkJoinPool pool)
+                     throws IOException
+    {
+        try
+        {
+            return (int) aggregate(-1, filter, pool).getCount();
+        }
+        catch (final CorruptedTableException corruptedTableException)
+        {
+            assert false : "Counting records does not parse field values";
+
+            throw new RuntimeException(corruptedTableException.getMessage(), corruptedTableException);
+        }
+    }
+
+    /**
+     * As {@link #summarize(String, RecordFilter, ForkJoinPool)}, using a <code>ForkJoinPool</code>
+     * with one thread per available processor that is shared by all tables.
+     */
+    public FieldSummary summarize(final String fieldName, final RecordFilter filter)
+                           throws IOException, CorruptedTableException
+    {
+        return summarize(fieldName, filter, getDefaultPool());
+    }
+
+    /**
+     * Computes the number, sum, minimum and maximum of the non-empty values of a NUMBER, FLOAT or
+     * DATE field, over the records that are not flagged as "deleted" and match
+     * <code>filter</code>. The values are parsed directly from the bytes in the table file, without
+     * creating {@link Record} or {@link Value} objects. Ranges of records are summarized in parallel
+     * by the threads of <code>pool</code>.
+     *
+     * @param fieldName the name of the field
+     * @param filter the filter, or <code>null</code> for all records that are not deleted
+     * @param pool the pool to run the computation in
+     * @return the summary
+     *
+     * @throws IOException if the table file could not be read
+     * @throws CorruptedTableException if a value is not a valid number or date
+     * @throws IllegalArgumentException if the field does not exist or is not a NUMBER, FLOAT or
+     *             DATE field
+     */
+    public FieldSummary summarize(final String fieldName, final RecordFilter filter, final ForkJoinPool pool)
+                           throws IOException, CorruptedTableException
+    {
+        final int fieldIndex = getFieldIndexes(Collections.singletonList(fieldName))[0];
+        final Type type = header.getField(fieldIndex).getType();
+
+        if (type != Type.NUMBER && type != Type.FLOAT && type != Type.DATE)
+        {
+            throw new IllegalArgumentException("Cannot summarize " + type + " field " + fieldName);
+        }
+
+        return aggregate(fieldIndex, filter, pool);
+    }
+
+    private FieldSummary aggregate(final int fieldIndex, final RecordFilter filter, final ForkJoinPool pool)
+                            throws IOException, CorruptedTableException
+    {
+        checkOpen();
+
+        final RecordFilter.Matcher matcher = filter == null ? null : filter.bind(this);
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        final FieldSummary summary =
+            pool.invoke(new RecordAggregateTask(this,
+                                                0,
+                                                header.getRecordCount(),
+                                                getScanRangeSize(pool),
+                                                matcher,
+                                                fieldIndex,
+                                                failure));
+
+        try
+        {
+            rethrow(failure.get());
+        }
+        catch (final CorruptedTableException corruptedTableException)
+        {
+            throw corruptedTableException;
+        }
+        catch (final DbfLibException dbfLibException)
+        {
+            assert false : "Only CorruptedTableException expected";
+
+            throw new RuntimeException(dbfLibException.getMessage(), dbfLibException);
+        }
+
+        return summary;
+    }
+
+    /*
+     * The pool is only created when it is first used. Its threads are daemon threads that end when
+     * they have been idle for a while, so it need not be shut down. ForkJoinPool.commonPool() would
+     * do, but it is not available in Java 7.
+     */
+    private static final class DefaultPool
+    {
+        static final ForkJoinPool INSTANCE = new ForkJoinPool();
+    }
+
+    private static ForkJoinPool getDefaultPool()
+    {
+        return DefaultPool.INSTANCE;
+    }
+
+    private int getScanRangeSize(final ForkJoinPool pool)
+    {
+        return Math.max(MIN_SCAN_RANGE_SIZE,
+                        header.getRecordCount() / (pool.getParallelism() * SCAN_RANGES_PER_THREAD));
+    }
+
+    /*
+     * Rethrows an exception caught by a worker thread of a parallel scan.
+     */
+    private static void rethrow(final Exception exception)
+                         throws IOException, DbfLibException
+    {
+        if (exception instanceof IOException)
+        {
+            throw (IOException) exception;
+        }
+        else if (exception instanceof DbfLibException)
+        {
+            throw (DbfLibException) exception;
+        }
+        else if (exception instanceof RuntimeException)
+        {
+            throw (RuntimeException) exception;
+        }
+        else if (exception != null)
+        {
+            throw new RuntimeException(exception.getMessage(), exception);
+        }
+    }
+
+    /**
+     * Constructs and adds a record. The fields values for the record must be provided as parameters
+     * in the same order that the fields are provided in the field list.
+     *
+     * @throws IOException if the record could not be written to the database file
+     * @throws CorruptedTableException if the table was corrupt
+     * @throws ValueTooLargeException if a field value exceeds the length of its corresponding field
+     * @throws RecordTooLargeException if more field values are provided than there are field in
+     *             this table
+     */
+    public void addRecord(final Object... fieldValues)
+                   throws IOException, DbfLibException
+    {
+        if (fieldValues.length > header.getFields().size())
+        {
+            throw new RecordTooLargeException("Trying to add " + fieldValues.length + " fields while there are only "
+                                              + header.getFields().size() + " defined in the table file");
+        }
+
+        final Map<String, Value> map = new HashMap<String, Value>();
+        final Iterator<Field> fieldIterator = header.getFields().iterator();
+
+        for (final Object fieldValue : fieldValues)
+        {
+            final Field field = fieldIterator.next();
+
+            map.put(field.getName(),
+                    createValueObject(fieldValue));
+        }
+
+        addRecord(new Record(map));
+    }
+
+    private Value createValueObject(final Object value)
+    {
+        if (value instanceof Number)
+        {
+            return new NumberValue((Number) value);
+        }
+        else if (value instanceof String)
+        {
+            return new StringValue((String) value, charsetName);
+        }
+        else if (value instanceof Boolean)
+        {
+            return new BooleanValue((Boolean) value);
+        }
+        else if (value instanceof Date)
+        {
+            return new DateValue((Date) value);
+        }
+        else if (value instanceof byte[])
+        {
+            return new ByteArrayValue((byte[]) value);
+        }
+
+        return null;
+    }
+
+    /**
+     * Adds a record to this table.
+     *
+     * @param record the record to add.
+     *
+     * @throws IOException if the record could not be written to the database file
+     * @throws CorruptedTableException if the table was corrupt
+     * @throws ValueTooLargeException if a field value exceeds the length of its corresponding field
+     *
+     * @see Record
+     */
+    public void addRecord(final Record record)
+                   throws IOException, DbfLibException
+    {
+        checkWritable();
+
+        final byte[] buffer = getRecordEncoder().getBuffer();
+        encodeRecord(record, null, false, buffer, 0);
+        appendRecords(buffer, 1);
+    }
+
+    /**
+     * Writes <code>record</code> at <code>index</code>, overwriting the record that is there.
+     * <p>
+     * Memos are only written to the memo file if they changed. A memo that was read from the record
+     * at <code>index</code> keeps pointing to the same blocks, as does a memo whose contents are
+     * equal to those of the memo it replaces. A memo read from a record at another index is copied.
+     * If memo space reuse is enabled, the blocks of replaced memos are freed and reused for new
+     * memos.
+     *
+     * @param index the index of the record to overwrite
+     * @param record the new record
+     *
+     * @throws IOException if the record could not be written to the database file
+     * @throws DbfLibException if the table was corrupt or a value did not fit its field
+     *
+     * @see #setMemoSpaceReuse(boolean)
+     */
+    public void updateRecordAt(final int index, final Record record)
+                        throws IOException, DbfLibException
+    {
+        updateRecordAt(index, record, false);
+    }
+
+    private void updateRecordAt(final int index, final Record record, final boolean moveMemos)
+                         throws IOException, DbfLibException
+    {
+        checkWritable();
+
+        final byte[] buffer = getRecordEncoder().getBuffer();
+        encodeRecord(record,
+                     readMemoPointers(index),
+                     moveMemos,
+                     buffer,
+                     0);
+        jumpToRecordAt(index);
+        raFile.write(buffer);
+    }
+
+    /**
+     * Lays out <code>record</code> as a valid record in <code>destination</code>, starting at
+     * <code>offset</code>. Memo values are written to the memo file, replacing the memos that the
+     * overwritten record points to. A memo read from this table is copied, unless it is the memo it
+     * replaces or <code>moveMemos</code> is set.
+     *
+     * @param record the record to encode
+     * @param oldMemoPointers the memo pointers of the overwritten record, or <code>null</code> if a
+     *            new record is encoded
+     * @param moveMemos whether the record is moved from another index of this table, so that it
+     *            keeps pointing to its memos and the replaced memos are not freed
+     * @param destination the buffer to encode the record in
+     * @param offset the offset of the record in the buffer
+     */
+    void encodeRecord(final Record record, final int[] oldMemoPointers, final boolean moveMemos,
+                      final byte[] destination, final int offset)
+               throws IOException, DbfLibException
+    {
+        if (memoDeduplication)
+        {
+            ensureMemoIndexed();
+        }
+
+        final RecordEncoder encoder = getRecordEncoder();
+        encoder.putMarker(destination, offset, (byte) MARKER_RECORD_VALID);
+
+        final int fieldCount = header.getFieldCount();
+
+        for (int fieldIndex = 0; fieldIndex < fieldCount; ++fieldIndex)
+        {
+            final Field field = header.getField(fieldIndex);
+            final byte[] raw;
+
+            if (isMemoType(field.getType()))
+            {
+                final int oldPointer = oldMemoPointers == null ? -1 : oldMemoPointers[fieldIndex];
+                final int pointer =
+                    writeMemoValue(record.getValue(field.getName()),
+                                   field,
+                                   oldPointer,
+                                   moveMemos,
+                                   ! moveMemos && memoSpaceReuse && ! memoDeduplication);
+
+                raw = formatMemoPointer(field, pointer);
+            }
+            else if (record.putRawValue(field,
+                                        destination,
+                                        encoder.getFieldPosition(offset, fieldIndex)))
+            {
+                continue;
+            }
+            else
+            {
+                raw = record.getRawValue(field);
+            }
+
+            encoder.putField(destination, offset, fieldIndex, raw);
+        }
+    }
+
+    /*
+     * The encoder depends on the layout of the fields, which is only known once the table is opened
+     * or created, so it is created on first use.
+     */
+    private RecordEncoder getRecordEncoder()
+    {
+        if (recordEncoder == null)
+        {
+            recordEncoder = new RecordEncoder(header);
+        }
+
+        return recordEncoder;
+    }
+
+    /**
+     * Appends <code>nrRecords</code> encoded records from <code>buffer</code> to the table, followed
+     * by the end of file marker, and updates the record count once. The records and the end of file
+     * marker are written with a single gathering write.
+     */
+    void appendRecords(final byte[] buffer, final int nrRecords)
+                throws IOException
+    {
+        checkWritable();
+
+        final int recordCount = header.getRecordCount();
+        jumpToRecordAt(recordCount);
+        writeFully(ByteBuffer.wrap(buffer, 0, nrRecords * header.getRecordLength()),
+                   ByteBuffer.wrap(new byte[] { MARKER_EOF }));
+        writeRecordCount(recordCount + nrRecords);
+    }
+
+    /*
+     * Writes the buffers at the current position of the table file. The channel shares its position
+     * with the file, so this continues where the last seek left off.
+     */
+    private void writeFully(final ByteBuffer... buffers)
+                     throws IOException
+    {
+        final FileChannel channel = raFile.getChannel();
+        final ByteBuffer last = buffers[buffers.length - 1];
+
+        while (last.hasRemaining())
+        {
+            channel.write(buffers);
+        }
+    }
+
+    /**
+     * Adds <code>records</code> to this table. The records are encoded into a buffer and written in
+     * large chunks, and the record count in the header and the end of file marker are only written
+     * once per chunk, instead of once per record as with {@link #addRecord(Record)}. If one of the
+     * records cannot be added, the records before it are added.
+     *
+     * @param records the records to add
+     *
+     * @throws IOException if the records could not be written to the database file
+     * @throws DbfLibException if the table was corrupt or a value did not fit its field
+     *
+     * @see #appender()
+     */
+    public void addRecords(final Iterable<Record> records)
+                    throws IOException, DbfLibException
+    {
+        final TableAppender appender = appender();
+
+        try
+        {
+            for (final Record record : records)
+            {
+                appender.add(record);
+            }
+        }
+        finally
+        {
+            appender.close();
+        }
+    }
+
+    /**
+     * Returns a {@link TableAppender} that adds records to this table in large chunks, with a buffer
+     * of the default size.
+     *
+     * @return a <code>TableAppender</code>
+     *
+     * @see #appender(int)
+     */
+    public TableAppender appender()
+    {
+        return appender(TableAppender.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Returns a {@link TableAppender} that adds records to this table in large chunks. The appender
+     * holds up to <code>bufferSize</code> bytes of encoded records, and at least one record, before
+     * it writes them to the table.
+     *
+     * @param bufferSize the size of the buffer in bytes
+     * @return a <code>TableAppender</code>
+     */
+    public TableAppender appender(final int bufferSize)
+    {
+        checkWritable();
+
+        return new TableAppender(this, bufferSize);
+    }
+
+    /**
+     * Flags the record at <code>index</code> as "deleted". To physically remove "deleted" records,
+     * a call to {@link #pack()} is necessary.
+     *
+     * @param index the index of the record to delete
+     * @throws IOException
+     */
+    public void deleteRecordAt(final int index)
+                        throws IOException
+    {
+        checkWritable();
+        jumpToRecordAt(index);
+        raFile.writeByte(MARKER_RECORD_DELETED);
+    }
+
+    private static boolean isMemoType(final Type type)
+    {
+        return type == Type.MEMO || type == Type.BINARY || type == Type.GENERAL || type == Type.PICTURE;
+    }
+
+    private boolean hasMemoFields()
+    {
+        for (final Field field : header.getFields())
+        {
+            if (isMemoType(field.getType()))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /*
+     * Builds the memo index from the memos of the records that are not deleted, if it was not built
+     * since the memo file was opened.
+     */
+    private void ensureMemoIndexed()
+                            throws IOException, CorruptedTableException
+    {
+        if (memo != null && memo.isIndexEnabled())
+        {
+            return;
+        }
+
+        ensureMemoOpened(IfNonExistent.CREATE);
+        memo.enableIndex();
+
+        final List<Field> fields = header.getFields();
+        final Set<Integer> indexedPointers = new HashSet<Integer>();
+        final RecordCursor cursor = new RecordCursor(this, 0, header.getRecordCount(), false, null);
+
+        while (cursor.next())
+        {
+            final byte[] buffer = cursor.getBuffer();
+            int offset = cursor.getRecordOffset() + 1;
+
+            for (final Field field : fields)
+            {
+                if (isMemoType(field.getType()))
+                {
+                    final int pointer = parseMemoPointer(buffer, offset, field);
+
+                    if (pointer != -1 && indexedPointers.add(pointer))
+                    {
+                        try
+                        {
+                            memo.addToIndex(pointer,
+                                            memo.readMemo(pointer));
+                        }
+                        catch (final CorruptedTableException ex)
+                        {
+                            /*
+                             * Not a valid memo, so it cannot be shared.
+                             */
+                        }
+                    }
+                }
+
+                offset += field.getLength();
+            }
+        }
+    }
+
+    /*
+     * Returns the memo pointers of the record at index, -1 for each field that is not a memo field
+     * or holds no valid pointer. Returns null if there is no such record or the table has no memo
+     * fields.
+     */
+    private int[] readMemoPointers(final int index)
+                            throws IOException
+    {
+        if (index >= header.getRecordCount() || ! hasMemoFields())
+        {
+            return null;
+        }
+
+        final byte[] buffer = new byte[header.getRecordLength()];
+
+        if (readRecords(index, buffer, 1) != buffer.length)
+        {
+            return null;
+        }
+
+        final List<Field> fields = header.getFields();
+        final int[] pointers = new int[fields.size()];
+        int offset = 1;
+
+        for (int i = 0; i < pointers.length; ++i)
+        {
+            final Field field = fields.get(i);
+            pointers[i] = -1;
+
+            if (isMemoType(field.getType()))
+            {
+                pointers[i] = parseMemoPointer(buffer, offset, field);
+            }
+
+            offset += field.getLength();
+        }
+
+        return pointers;
+    }
+
+    /*
+     * Returns the memo pointer stored in field at offset in buffer, or -1 if the field holds no valid
+     * pointer.
+     */
+    private static int parseMemoPointer(final byte[] buffer, final int offset, final Field field)
+    {
+        final String pointer =
+            new String(buffer, offset, Util.getStringLength(buffer, offset, field.getLength())).trim();
+
+        try
+        {
+            return pointer.length() == 0 ? -1 : Integer.parseInt(pointer);
+        }
+        catch (final NumberFormatException ex)
+        {
+            return -1;
+        }
+    }
+
+    /*
+     * Returns the bytes that store pointer in field, or null for -1.
+     */
+    private byte[] formatMemoPointer(final Field field, final int pointer)
+    {
+        if (pointer == -1)
+        {
+            return null;
+        }
+
+        if (header.getVersion() == Version.DBASE_4 || header.getVersion() == Version.DBASE_5)
+        {
+            return String.format("%0" + field.getLength() + "d", pointer).getBytes();
+        }
+
+        return String.format("%" + field.getLength() + "d", pointer).getBytes();
+    }
+
+    /**
+     * Removes the memos that are no longer referred to from the memo file. The memos of the records
+     * that are not deleted are moved to the front of the memo file, the memo pointers in the records
+     * are updated accordingly and the memo file is truncated. The memo pointers of deleted records
+     * are cleared. Memos are copied block by block, without being decoded.
+     * <p>
+     * When {@link #updateRecordAt(int, Record)} replaces a memo with different contents, the old
+     * memo is left behind in the memo file, unless memo space reuse is enabled. Unchanged memos are
+     * kept and {@link #pack()} does not copy them, so only replaced memo contents and the memos of
+     * deleted records are orphaned. Call this method after updating or packing to reclaim that
+     * space. Like <code>pack</code>, this method changes the files in place, so the table may be
+     * corrupted if it is interrupted.
+     * <p>
+     * Memo pointers move, so {@link Record} objects read before compaction must not be used
+     * afterwards: reading a memo value that was not read before throws an
+     * <code>IllegalStateException</code>. Read the records again instead.
+     *
+     * @throws IOException if the table or memo file could not be read or written
+     * @throws DbfLibException if the table or memo file was corrupt
+     */
+    public void compactMemo()
+                     throws IOException, DbfLibException
+    {
+        checkWritable();
+
+        if (! hasMemoFields() || (memo == null && Util.getMemoFile(tableFile, header.getVersion()) == null))
+        {
+            return;
+        }
+
+        ensureMemoOpened(IfNonExistent.ERROR);
+
+        final List<Field> fields = header.getFields();
+        final int recordCount = header.getRecordCount();
+        final int[][] pointers = new int[recordCount][];
+        final List<Integer> blockIndexes = new ArrayList<Integer>();
+        final RecordCursor cursor = new RecordCursor(this, 0, recordCount, true, null);
+
+        for (int index = 0; cursor.next(); ++index)
+        {
+            final byte[] buffer = cursor.getBuffer();
+            final boolean deleted = buffer[cursor.getRecordOffset()] == MARKER_RECORD_DELETED;
+            int offset = cursor.getRecordOffset() + 1;
+
+            pointers[index] = new int[fields.size()];
+
+            for (int i = 0; i < fields.size(); ++i)
+            {
+                final Field field = fields.get(i);
+                pointers[index][i] = -1;
+
+                if (isMemoType(field.getType()))
+                {
+                    pointers[index][i] = parseMemoPointer(buffer, offset, field);
+
+                    if (pointers[index][i] != -1 && ! deleted)
+                    {
+                        blockIndexes.add(pointers[index][i]);
+                    }
+                }
+
+                offset += field.getLength();
+            }
+        }
+
+        final Map<Integer, Integer> newBlockIndexes = memo.compact(blockIndexes);
+
+        for (int index = 0; index < recordCount; ++index)
+        {
+            if (pointers[index] == null)
+            {
+                continue;
+            }
+
+            long position = getRecordPosition(index) + 1;
+
+            for (int i = 0; i < fields.size(); ++i)
+            {
+                final Field field = fields.get(i);
+                final int pointer = pointers[index][i];
+
+                if (isMemoType(field.getType()) && pointer != -1)
+                {
+                    /*
+                     * Memos only referred to by deleted records are gone, so their pointers are cleared.
+                     */
+                    final Integer newPointer = newBlockIndexes.get(pointer);
+
+                    if (newPointer == null || newPointer != pointer)
+                    {
+                        writeMemoPointer(position,
+                                         field,
+                                         newPointer == null ? -1 : newPointer);
+                    }
+                }
+
+                position += field.getLength();
+            }
+        }
+    }
+
+    private void writeMemoPointer(final long position, final Field field, final int pointer)
+                           throws IOException
+    {
+        final byte[] raw = new byte[field.getLength()];
+        RecordEncoder.putValue(formatMemoPointer(field, pointer),
+                               raw,
+                               0,
+                               raw.length);
+        raFile.seek(position);
+        raFile.write(raw);
+    }
+
+    /*
+     * Writes the memo value of a field, replacing the memo at oldPointer, and returns the pointer to
+     * store in the record, or -1 if the field is empty. A memo read from this table is only pointed
+     * to again by the record it was read from, or by the record it is moved to if moveMemo is set;
+     * any other record gets a copy, so that no two records share blocks that may be freed.
+     */
+    private int writeMemoValue(final Value value, final Field field, final int oldPointer, final boolean moveMemo,
+                               final boolean freeReplacedMemo)
+                        throws IOException, DbfLibException
+    {
+        if (value instanceof MemoValue && ((MemoValue) value).getTable() == this
+                && ((MemoValue) value).getGeneration() == getMemoGeneration()
+                && (moveMemo || ((MemoValue) value).getBlockIndex() == oldPointer))
+        {
+            /*
+             * The memo is already in the memo file.
+             */
+            return ((MemoValue) value).getBlockIndex();
+        }
+
+        if (value instanceof InputStreamValue)
+        {
+            final InputStream inputStream = ((InputStreamValue) value).getInputStream(field);
+            ensureMemoOpened(IfNonExistent.CREATE);
+
+            final int pointer = memo.writeMemo(inputStream);
+
+            if (oldPointer != -1 && oldPointer != pointer && freeReplacedMemo)
+            {
+                try
+                {
+                    memo.freeMemo(oldPointer);
+                }
+                catch (final CorruptedTableException ex)
+                {
+                    /*
+                     * The old pointer does not point to a valid memo, so there is nothing to free.
+                     */
+                }
+            }
+
+            return pointer;
+        }
+
+        final byte[] raw = value == null ? null : value.getRawValue(field);
+
+        if (oldPointer == -1)
+        {
+            return raw == null ? -1 : writeMemo(raw);
+        }
+
+        ensureMemoOpened(IfNonExistent.CREATE);
+
+        byte[] oldRaw = null;
+
+        try
+        {
+            oldRaw = memo.readMemo(oldPointer);
+        }
+        catch (final CorruptedTableException ex)
+        {
+            /*
+             * The old pointer does not point to a valid memo, so there is nothing to reuse or free.
+             */
+        }
+
+        if (raw != null && Arrays.equals(raw, oldRaw))
+        {
+            return oldPointer;
+        }
+
+        if (oldRaw != null && freeReplacedMemo)
+        {
+            memo.freeMemo(oldPointer, oldRaw.length);
+        }
+
+        return raw == null ? -1 : writeMemo(raw);
     }
 
     private int writeMemo(final byte[] memoText)
@@ -537,12 +1735,16 @@ public class Table
     private void writeRecordCount(final int recordCount)
                            throws IOException
     {
-        raFile.seek(DbfHeader.OFFSET_RECORD_COUNT);
         header.setRecordCount(recordCount);
-        header.writeRecordCount(raFile);
+        header.updateRecordCount(raFile);
+    }
+
+    boolean isOpen()
+    {
+        return raFile != null;
     }
 
-    private void checkOpen()
+    void checkOpen()
     {
         if (raFile == null)
         {
@@ -550,19 +1752,87 @@ public class Table
         }
     }
 
-    private byte[] readMemo(final String memoIndex)
-                     throws IOException, CorruptedTableException
+    void checkWritable()
+    {
+        checkOpen();
+
+        if (readOnly)
+        {
+            throw new IllegalStateException("Table is opened read-only");
+        }
+    }
+
+    /**
+     * Returns the generation of the memo file of this table. Memo pointers read from the table file
+     * are only valid as long as the generation does not change. See {@link Memo#getGeneration()}.
+     */
+    int getMemoGeneration()
+    {
+        final Memo currentMemo = memo;
+
+        return closedMemoGenerations + (currentMemo == null ? 0 : currentMemo.getGeneration());
+    }
+
+    /*
+     * Fails if the memo blocks may have been given to other memos since the pointer was read.
+     */
+    private void checkMemoGeneration(final int generation)
+    {
+        if (generation != getMemoGeneration())
+        {
+            throw new IllegalStateException("The memo file was compacted or its blocks were reused after the "
+                                            + "record was read. Read the record again.");
+        }
+    }
+
+    /**
+     * Reads the memo that starts at <code>blockIndex</code> in the memo file.
+     *
+     * @throws IllegalStateException if the table is closed or the memo generation changed
+     */
+    byte[] readMemo(final int blockIndex, final int generation)
+             throws IOException, CorruptedTableException
+    {
+        checkOpen();
+        ensureMemoOpened(IfNonExistent.ERROR);
+        checkMemoGeneration(generation);
+
+        return memo.readMemo(blockIndex);
+    }
+
+    /**
+     * Returns a stream over the memo that starts at <code>blockIndex</code> in the memo file.
+     *
+     * @throws IllegalStateException if the table is closed or the memo generation changed
+     */
+    InputStream getMemoInputStream(final int blockIndex, final int generation)
+                            throws IOException, CorruptedTableException
+    {
+        checkOpen();
+        ensureMemoOpened(IfNonExistent.ERROR);
+        checkMemoGeneration(generation);
+
+        return memo.getInputStream(blockIndex);
+    }
+
+    /**
+     * Returns the data of the memo that starts at <code>blockIndex</code> as a read-only buffer.
+     *
+     * @throws IllegalStateException if the table is closed or the memo generation changed
+     */
+    ByteBuffer getMemoBuffer(final int blockIndex, final int generation)
+                      throws IOException, CorruptedTableException
     {
+        checkOpen();
         ensureMemoOpened(IfNonExistent.ERROR);
+        checkMemoGeneration(generation);
 
-        if (memoIndex.trim().isEmpty())
-        {
-            return null;
-        }
-
-        return memo.readMemo(Integer.parseInt(memoIndex.trim()));
+        return memo.getMemoBuffer(blockIndex);
     }
 
+    /*
+     * The memo file is opened on first use, which may happen in several reading threads at once.
+     */
     private void ensureMemoOpened(final IfNonExistent ifNonExistent)
                            throws IOException, CorruptedTableException
     {
@@ -571,12 +1841,20 @@ public class Table
             return;
         }
 
-        openMemo(ifNonExistent);
+        synchronized (this)
+        {
+            if (memo == null)
+            {
+                openMemo(ifNonExistent);
+            }
+        }
     }
 
     private void ensureMemoClosed()
                            throws IOException
     {
+        memoCache.clear();
+
         if (memo != null)
         {
             try
@@ -585,6 +1863,7 @@ public class Table
             }
             finally
             {
+                closedMemoGenerations += memo.getGeneration();
                 memo = null;
             }
         }
@@ -624,29 +1903,17 @@ public class Table
             }
         }
 
-        memo =
+        final Memo newMemo =
             new Memo(memoFile,
-                     header.getVersion());
-        memo.open(ifNonExistent);
+                     header.getVersion(),
+                     memoCache);
+        newMemo.open(ifNonExistent, readOnly);
+        memo = newMemo;
     }
     
     private static final int DEFAULT_BUFFER_SIZE = 1000000;
     private static final int DEFAULT_RECORD_ARRAY_LIST_SIZE = 10000;
-    private byte[] buffer = null;
-    private int startBufferedRecord = 0;
-    private int nBufferedRecord = 0;
-    
-    private void bufferRecords(final int startIndex, final int bufferSize) throws IOException {
-        if (buffer == null || startIndex < startBufferedRecord || startIndex >= startBufferedRecord + nBufferedRecord) {
-            startBufferedRecord = startIndex;
-            nBufferedRecord = Math.max(Math.min(bufferSize / header.getRecordLength(), header.getRecordCount() - startIndex + 1), 1);
-            final int allocatedBufferSize = nBufferedRecord * header.getRecordLength();
-            buffer = new byte[allocatedBufferSize];
-            jumpToRecordAt(startIndex);
-            raFile.read(buffer);
-        }
-    }
-    
+
     /**
      * Get a specified number of records starting at a given index.
      * @param startIndex Index of the first record to be read
@@ -658,28 +1925,47 @@ public class Table
      * @throws CorruptedTableException 
      */
     public List<Record> getRecordsAt(final int startIndex, final int nRecords, final int bufferSize, final boolean includeDeleted) throws IOException, CorruptedTableException {
+        return getRecordsAt(startIndex, nRecords, bufferSize, includeDeleted, null);
+    }
+
+    /**
+     * Get a specified number of records starting at a given index, decoding only the specified
+     * fields. The values of the other fields are not read: they are <code>null</code> in the returned
+     * records and their memos are not read from the memo file. Records read this way should
+     * therefore not be used to update the table.
+     *
+     * @param startIndex Index of the first record to be read
+     * @param nRecords Number of records to be read
+     * @param includeDeleted Include deleted records
+     * @param fieldNames the names of the fields to decode, or <code>null</code> for all fields
+     * @return List of Record objects
+     * @throws IOException
+     * @throws CorruptedTableException
+     * @throws IllegalArgumentException if one of the field names does not exist in this table
+     */
+    public List<Record> getRecordsAt(final int startIndex, final int nRecords, final boolean includeDeleted,
+                                     final List<String> fieldNames)
+                              throws IOException, CorruptedTableException
+    {
+        return getRecordsAt(startIndex, nRecords, DEFAULT_BUFFER_SIZE, includeDeleted, getFieldIndexes(fieldNames));
+    }
+
+    private List<Record> getRecordsAt(final int startIndex, final int nRecords, final int bufferSize,
+                                      final boolean includeDeleted, final int[] fieldIndexes)
+                               throws IOException, CorruptedTableException
+    {
         checkOpen();
-                
-        final ArrayList<Record> records = new ArrayList<Record>(DEFAULT_RECORD_ARRAY_LIST_SIZE);
-        
-        int currentRecord = startIndex;
-        DataInput dataInput = null;
-        while(currentRecord < header.getRecordCount() && currentRecord < startIndex + nRecords) {
-            if(currentRecord < startBufferedRecord || currentRecord >= startBufferedRecord + nBufferedRecord) {
-                bufferRecords(currentRecord, bufferSize);
-                dataInput = null;
-            }
-            if (dataInput == null) {
-                dataInput = new DataInputStream(new ByteArrayInputStream(buffer));
-            }
-            
-            final Record record = getRecord(dataInput);
-            if (includeDeleted || !record.isMarkedDeleted()) {
-                records.add(record);
-            }
-            currentRecord++;
+
+        final int endIndex = (int) Math.min((long) startIndex + nRecords, header.getRecordCount());
+        final ArrayList<Record> records =
+            new ArrayList<Record>(Math.max(0, Math.min(endIndex - startIndex, DEFAULT_RECORD_ARRAY_LIST_SIZE)));
+        final RecordCursor cursor = new RecordCursor(this, startIndex, endIndex, includeDeleted, null, bufferSize);
+
+        while (cursor.next())
+        {
+            records.add(cursor.getRecord(fieldIndexes));
         }
-        
+
         return records;
     }
     
@@ -734,7 +2020,8 @@ public class Table
     }
 
     /**
-     * Get all non deleted records
+     * Get all non deleted records. Memo values are read when they are asked for, so only while the
+     * table is open; see {@link Table}.
      * @return List of Record objects
      * @throws IOException
      * @throws CorruptedTableException 
@@ -749,6 +2036,9 @@ public class Table
      * Returns the record at index. If the index points to a record beyond the last a
      * {@link NoSuchElementException} is thrown. Attention: records marked as deleted <em>are</em>
      * returned.
+     * <p>
+     * Memo values of the record are read from the memo file when they are asked for, which is only
+     * possible while the table is open and its memos have not been moved since. See {@link Table}.
      *
      * @param index the zero-based index of the record
      * @return a Record object
@@ -765,25 +2055,192 @@ public class Table
             throw new NoSuchElementException(String.format("Invalid index: %d", index));
         }
 
-        jumpToRecordAt(index);
-        
-        /* Read one record worth of raw data and construct a
-           ByteArrayInputStream backed by a byte array */
+        /* Read one record worth of raw data */
         byte[] buffer = new byte[header.getRecordLength()];
-        raFile.read(buffer);
-        DataInput dataInput = new DataInputStream(new ByteArrayInputStream(buffer));
+        readRecords(index, buffer, 1);
         
         try {
-            return getRecord(dataInput);
+            return getRecord(buffer, 0);
         } catch (NoSuchElementException ex) {
             throw new NoSuchElementException(String.format("Invalid index: %d", index));
         }
     }
     
-    Record getRecord(DataInput dataInput) throws IOException, CorruptedTableException {
+    /**
+     * Starts reading the record at <code>index</code> and returns immediately. See
+     * {@link #getRecordAtAsync(int, Object, CompletionHandler)}.
+     *
+     * @param index the zero-based index of the record
+     * @return a <code>Future</code> that completes with the record
+     *
+     * @throws IOException if the table file could not be opened for asynchronous reading
+     * @throws NoSuchElementException if the index points to a record beyond the last
+     */
+    public Future<Record> getRecordAtAsync(final int index)
+                                    throws IOException
+    {
+        final PendingResult<Record> result = new PendingResult<Record>();
+        getRecordAtAsync(index, null, result);
+
+        return result;
+    }
+
+    /**
+     * Starts reading the record at <code>index</code> and returns immediately. The record file is
+     * read through an <code>AsynchronousFileChannel</code>. When the read has completed, the
+     * record is decoded on a thread of the channel. If an executor was set with
+     * {@link #setAsyncMemoExecutor(Executor)}, the memos of the record are then read on that
+     * executor and <code>handler</code> is called there; otherwise <code>handler</code> is called on
+     * the thread of the channel and the memos are read when they are first asked for, while the
+     * table is open. As with {@link #getRecordAt(int)}, records marked as deleted <em>are</em>
+     * returned.
+     *
+     * @param index the zero-based index of the record
+     * @param attachment the object to pass to the handler
+     * @param handler the handler that receives the record, or the exception if it could not be
+     *            read
+     *
+     * @throws IOException if the table file could not be opened for asynchronous reading
+     * @throws NoSuchElementException if the index points to a record beyond the last
+     */
+    public <A> void getRecordAtAsync(final int index, final A attachment,
+                                     final CompletionHandler<Record, ? super A> handler)
+                              throws IOException
+    {
+        checkOpen();
+
+        if (index >= header.getRecordCount())
+        {
+            throw new NoSuchElementException(String.format("Invalid index: %d", index));
+        }
+
+        final int recordLength = header.getRecordLength();
+
+        new AsyncRecordRead<Record, A>(getAsyncChannel(), getRecordPosition(index), recordLength, asyncMemoExecutor,
+                                       attachment, handler)
+            {
+                @Override
+                Record decode(final byte[] bytes, final int length)
+                       throws IOException, DbfLibException
+                {
+                    if (length < recordLength)
+                    {
+                        throw new CorruptedTableException("Unexpected end of table file reading record " + index);
+                    }
+
+                    return getRecord(bytes, 0);
+                }
+
+                @Override
+                void readMemos(final Record record)
+                        throws IOException, DbfLibException
+                {
+                    prefetchMemos(Collections.singletonList(record));
+                }
+            }.start();
+    }
+
+    /**
+     * Starts reading <code>nRecords</code> records starting at <code>startIndex</code> and returns
+     * immediately. See {@link #getRecordsAtAsync(int, int, boolean, Object, CompletionHandler)}.
+     *
+     * @param startIndex index of the first record to be read
+     * @param nRecords number of records to be read
+     * @param includeDeleted include deleted records
+     * @return a <code>Future</code> that completes with the list of records
+     *
+     * @throws IOException if the table file could not be opened for asynchronous reading
+     */
+    public Future<List<Record>> getRecordsAtAsync(final int startIndex, final int nRecords,
+                                                  final boolean includeDeleted)
+                                           throws IOException
+    {
+        final PendingResult<List<Record>> result = new PendingResult<List<Record>>();
+        getRecordsAtAsync(startIndex, nRecords, includeDeleted, null, result);
+
+        return result;
+    }
+
+    /**
+     * Starts reading <code>nRecords</code> records starting at <code>startIndex</code> and returns
+     * immediately. The records are read with a single read on an
+     * <code>AsynchronousFileChannel</code>. The records are decoded, and their memos are read, as
+     * with {@link #getRecordAtAsync(int, Object, CompletionHandler)}. The list passed to the handler
+     * contains the same records as
+     * {@link #getRecordsAt(int, int, boolean)} would return.
+     *
+     * @param startIndex index of the first record to be read
+     * @param nRecords number of records to be read
+     * @param includeDeleted include deleted records
+     * @param attachment the object to pass to the handler
+     * @param handler the handler that receives the records, or the exception if they could not be
+     *            read
+     *
+     * @throws IOException if the table file could not be opened for asynchronous reading
+     */
+    public <A> void getRecordsAtAsync(final int startIndex, final int nRecords, final boolean includeDeleted,
+                                      final A attachment, final CompletionHandler<List<Record>, ? super A> handler)
+                               throws IOException
+    {
+        checkOpen();
+
+        final int recordLength = header.getRecordLength();
+        final int endIndex = (int) Math.min((long) startIndex + nRecords, header.getRecordCount());
+        final int length = Math.max(0, endIndex - startIndex) * recordLength;
+
+        new AsyncRecordRead<List<Record>, A>(getAsyncChannel(), getRecordPosition(startIndex), length,
+                                             asyncMemoExecutor, attachment, handler)
+            {
+                @Override
+                List<Record> decode(final byte[] bytes, final int length)
+                             throws IOException, DbfLibException
+                {
+                    final List<Record> records = new ArrayList<Record>(length / recordLength);
+
+                    for (int offset = 0; offset + recordLength <= length; offset += recordLength)
+                    {
+                        if (isEndOfFile(bytes, offset))
+                        {
+                            break;
+                        }
+
+                        if (includeDeleted || ! isMarkedDeleted(bytes, offset))
+                        {
+                            records.add(getRecord(bytes, offset));
+                        }
+                    }
+
+                    return records;
+                }
+
+                @Override
+                void readMemos(final List<Record> records)
+                        throws IOException, DbfLibException
+                {
+                    prefetchMemos(records);
+                }
+            }.start();
+    }
+
+    /**
+     * Decodes the record that starts at <code>offset</code> in <code>buffer</code>.
+     */
+    Record getRecord(final byte[] buffer, final int offset)
+              throws IOException, CorruptedTableException
+    {
+        return getRecord(buffer, offset, null);
+    }
+
+    /**
+     * Decodes the fields with the specified indexes of the record that starts at
+     * <code>offset</code> in <code>buffer</code>. If <code>fieldIndexes</code> is <code>null</code>
+     * all fields are decoded.
+     */
+    Record getRecord(final byte[] buffer, final int offset, final int[] fieldIndexes)
+              throws IOException, CorruptedTableException
+    {
+        final byte firstByteOfRecord = buffer[offset];
 
-        final byte firstByteOfRecord = dataInput.readByte();
-        
         /*
          * This should actually not be possible, as we already checked the index against the record
          * count. Checking anyway to be on the safe side.
@@ -794,61 +2251,114 @@ public class Table
         }
 
         final Map<String, Value> recordValues = new HashMap<String, Value>();
+        final int nFields = fieldIndexes == null ? header.getFieldCount() : fieldIndexes.length;
 
-        for (final Field field : header.getFields())
+        for (int f = 0; f < nFields; ++f)
         {
-            final byte[] rawData = Util.readStringBytes(dataInput,
+            final int i = fieldIndexes == null ? f : fieldIndexes[f];
+            final Field field = header.getField(i);
+            final byte[] rawData = Util.copyStringBytes(buffer,
+                                                        offset + header.getFieldOffset(i),
                                                         field.getLength());
 
-            switch (field.getType())
-            {
-                case NUMBER:
-                case FLOAT:
-                    recordValues.put(field.getName(),
-                                     new NumberValue(field, rawData));
+            recordValues.put(field.getName(),
+                             createValue(field, rawData));
+        }
+
+        return new Record(firstByteOfRecord == MARKER_RECORD_DELETED, recordValues);
+    }
+
+    /**
+     * Translates a list of field names into field indexes. Returns <code>null</code>, meaning all
+     * fields, if <code>fieldNames</code> is <code>null</code>.
+     *
+     * @throws IllegalArgumentException if one of the field names does not exist in this table
+     */
+    int[] getFieldIndexes(final List<String> fieldNames)
+    {
+        if (fieldNames == null)
+        {
+            return null;
+        }
 
-                    break;
+        final int[] fieldIndexes = new int[fieldNames.size()];
 
-                case CHARACTER:
-                    recordValues.put(field.getName(),
-                                     new StringValue(field, rawData, charsetName));
+        for (int i = 0; i < fieldIndexes.length; ++i)
+        {
+            fieldIndexes[i] = header.getFieldIndex(fieldNames.get(i));
 
-                    break;
+            if (fieldIndexes[i] == -1)
+            {
+                throw new IllegalArgumentException("No such field: " + fieldNames.get(i));
+            }
+        }
 
-                case LOGICAL:
-                    recordValues.put(field.getName(),
-                                     new BooleanValue(field, rawData));
+        return fieldIndexes;
+    }
 
-                    break;
+    /**
+     * Creates the value object for the raw field data read from the table file. For memo fields the
+     * raw data is the memo pointer and the memo itself is read.
+     */
+    Value createValue(final Field field, final byte[] rawData)
+               throws IOException, CorruptedTableException
+    {
+        switch (field.getType())
+        {
+            case NUMBER:
+            case FLOAT:
+                return new NumberValue(field, rawData);
 
-                case DATE:
-                    recordValues.put(field.getName(),
-                                     new DateValue(field, rawData));
+            case CHARACTER:
+                return new StringValue(field, rawData, charsetName);
 
-                    break;
+            case LOGICAL:
+                return new BooleanValue(field, rawData);
 
-                case MEMO:
+            case DATE:
+                return new DateValue(field, rawData);
 
-                    final byte[] memoTextBytes = readMemo(new String(rawData));
-                    recordValues.put(field.getName(),
-                                     memoTextBytes == null ? null : new StringValue(field, memoTextBytes, charsetName));
+            case MEMO:
+            case GENERAL:
+            case BINARY:
+            case PICTURE:
 
-                    break;
+                /*
+                 * The memo itself is only read when the value is asked for.
+                 */
+                final String memoIndex = new String(rawData).trim();
 
-                case GENERAL:
-                case BINARY:
-                case PICTURE:
-                    recordValues.put(field.getName(),
-                                     new ByteArrayValue(readMemo(new String(rawData))));
+                if (memoIndex.isEmpty())
+                {
+                    return field.getType() == Type.MEMO ? null : new ByteArrayValue(null);
+                }
 
-                    break;
+                return new MemoValue(this,
+                                     field,
+                                     Integer.parseInt(memoIndex),
+                                     getMemoGeneration());
 
-                default:
-                    throw new RuntimeException("Not all types handled");
-            }
+            default:
+                throw new RuntimeException("Not all types handled");
         }
+    }
+
+    /**
+     * Returns whether the record that starts at <code>offset</code> in <code>buffer</code> is
+     * flagged as "deleted".
+     */
+    static boolean isMarkedDeleted(final byte[] buffer, final int offset)
+    {
+        return buffer[offset] == MARKER_RECORD_DELETED;
+    }
 
-        return new Record(firstByteOfRecord == MARKER_RECORD_DELETED, recordValues);        
+    /**
+     * Returns whether <code>offset</code> in <code>buffer</code> points to the end of file marker
+     * instead of a record.
+     */
+    static boolean isEndOfFile(final byte[] buffer, final int offset)
+    {
+        return buffer[offset] == MARKER_EOF;
     }
 
     /**
@@ -860,14 +2370,22 @@ public class Table
     public void pack()
               throws IOException, DbfLibException
     {
+        checkWritable();
+
         final Iterator<Record> iterator = recordIterator(false);
 
         int i = 0;
 
+        /*
+         * Records move down, so a record may be written over one that is still to be moved. The memos
+         * of the overwritten records must therefore not be freed, and the moved records keep
+         * pointing to their memos.
+         */
         while (iterator.hasNext())
         {
             updateRecordAt(i++,
-                           iterator.next());
+                           iterator.next(),
+                           true);
         }
 
         writeRecordCount(i);
@@ -876,6 +2394,158 @@ public class Table
         raFile.setLength(raFile.getFilePointer());
     }
 
+    /**
+     * Sets whether the memo blocks of replaced memos are reused. If enabled, updating a record
+     * with a new memo value frees the blocks of the memo it replaces, and new memos are written into
+     * freed blocks that are large enough instead of being appended to the memo file. This keeps memo
+     * files from growing when memos are updated often.
+     * <p>
+     * This library never lets two records refer to the same memo, except with memo deduplication:
+     * a record read from this table and written at another index gets a copy of its memos. Blocks
+     * are not freed while memo deduplication is enabled. Disable memo space reuse for a table whose
+     * memo file was written with deduplication, or by another program that lets records share
+     * memos. Freed blocks are only remembered while the table is open. Memo space reuse is enabled
+     * by default.
+     *
+     * @param memoSpaceReuse whether to reuse the blocks of replaced memos
+     */
+    public void setMemoSpaceReuse(final boolean memoSpaceReuse)
+    {
+        this.memoSpaceReuse = memoSpaceReuse;
+    }
+
+    /**
+     * Returns whether the memo blocks of replaced memos are reused.
+     *
+     * @return <code>true</code> if memo space reuse is enabled
+     *
+     * @see #setMemoSpaceReuse(boolean)
+     */
+    public boolean isMemoSpaceReuse()
+    {
+        return memoSpaceReuse;
+    }
+
+    /**
+     * Sets whether memos with the same contents are stored only once. If enabled, the table keeps
+     * an index of the contents of the memos in the memo file, and records whose memo has the same
+     * contents as a memo that is already in the memo file point to that memo instead of to a new
+     * copy. This saves space and writes when many records share the same memo text.
+     * <p>
+     * The index is built in memory from the memos of the records that are not deleted when the
+     * first record is written after enabling deduplication or opening the table, which reads all
+     * memos once. While deduplication is enabled, the blocks of replaced memos are never freed,
+     * because other records may still refer to them. For the same reason, memo space reuse must be
+     * disabled when a table written with deduplication is later written without it. Deduplication
+     * is disabled by default.
+     *
+     * @param memoDeduplication whether to store memos with the same contents only once
+     *
+     * @see #setMemoSpaceReuse(boolean)
+     */
+    public void setMemoDeduplication(final boolean memoDeduplication)
+    {
+        this.memoDeduplication = memoDeduplication;
+
+        if (! memoDeduplication && memo != null)
+        {
+            memo.disableIndex();
+        }
+    }
+
+    /**
+     * Returns whether memos with the same contents are stored only once.
+     *
+     * @return <code>true</code> if memo deduplication is enabled
+     *
+     * @see #setMemoDeduplication(boolean)
+     */
+    public boolean isMemoDeduplication()
+    {
+        return memoDeduplication;
+    }
+
+    /**
+     * Sets the executor on which asynchronous reads read the memos of the records they return. The
+     * memo file is read with blocking reads, which must not hold up the threads of the
+     * <code>AsynchronousFileChannel</code> that completes the reads, so without an executor the
+     * memos are not read until they are first asked for. With an executor, the records are passed
+     * to the handler on a thread of the executor, with their memos read. No executor is set by
+     * default.
+     *
+     * @param executor the executor to read memos on, or <code>null</code> to leave them unread
+     *
+     * @see #getRecordAtAsync(int, Object, CompletionHandler)
+     */
+    public void setAsyncMemoExecutor(final Executor executor)
+    {
+        asyncMemoExecutor = executor;
+    }
+
+    /**
+     * Returns the executor on which asynchronous reads read memos.
+     *
+     * @return the executor, or <code>null</code> if none was set
+     *
+     * @see #setAsyncMemoExecutor(Executor)
+     */
+    public Executor getAsyncMemoExecutor()
+    {
+        return asyncMemoExecutor;
+    }
+
+    /**
+     * Sets the maximum number of bytes of memo data to cache. Memos that are read repeatedly, for
+     * instance texts shared by many records, are then only read from the memo file once, as long as
+     * they stay in the cache. When the cache is full, the least recently used memos are evicted.
+     * Memos larger than the cache are not cached. The cache is emptied when the table is closed.
+     * <p>
+     * The cache is disabled by default, which corresponds to a size of 0.
+     *
+     * @param maxBytes the maximum number of bytes to cache, or 0 to disable the cache
+     */
+    public void setMemoCacheSize(final long maxBytes)
+    {
+        if (maxBytes < 0)
+        {
+            throw new IllegalArgumentException("Memo cache size must not be negative");
+        }
+
+        memoCache.setMaxBytes(maxBytes);
+    }
+
+    /**
+     * Returns the maximum number of bytes of memo data to cache.
+     *
+     * @return the cache size, 0 if the cache is disabled
+     *
+     * @see #setMemoCacheSize(long)
+     */
+    public long getMemoCacheSize()
+    {
+        return memoCache.getMaxBytes();
+    }
+
+    /**
+     * Returns the number of memo reads that were served from the memo cache.
+     *
+     * @return the number of cache hits
+     */
+    public long getMemoCacheHits()
+    {
+        return memoCache.getHits();
+    }
+
+    /**
+     * Returns the number of memo reads that were not found in the memo cache while it was enabled.
+     *
+     * @return the number of cache misses
+     */
+    public long getMemoCacheMisses()
+    {
+        return memoCache.getMisses();
+    }
+
     /**
      * Returns the name of the character set used to read and write from/to this table file.
      *
@@ -900,7 +2570,61 @@ public class Table
     private void jumpToRecordAt(final int index)
                          throws IOException
     {
-        raFile.seek(header.getLength() + (index * header.getRecordLength()));
+        raFile.seek(getRecordPosition(index));
+    }
+
+    private long getRecordPosition(final int index)
+    {
+        return header.getLength() + ((long) index * header.getRecordLength());
+    }
+
+    /**
+     * Reads <code>nRecords</code> records starting at <code>startIndex</code> into
+     * <code>destination</code>. If the table was opened read-only the bytes are copied from the
+     * mapped file, otherwise they are read from the file channel at an absolute position. Neither
+     * way uses the file pointer, so several threads may read records at the same time.
+     *
+     * @return the number of bytes read, or -1 if the start index lies beyond the end of the file
+     */
+    int readRecords(final int startIndex, final byte[] destination, final int nRecords)
+                     throws IOException
+    {
+        final long position = getRecordPosition(startIndex);
+        final int length = Math.min(nRecords * header.getRecordLength(), destination.length);
+
+        if (mappedFile != null)
+        {
+            if (position >= mappedFile.capacity())
+            {
+                return -1;
+            }
+
+            final ByteBuffer view = mappedFile.duplicate();
+            view.position((int) position);
+
+            final int n = Math.min(length, view.remaining());
+            view.get(destination, 0, n);
+
+            return n;
+        }
+
+        final FileChannel channel = raFile.getChannel();
+        final ByteBuffer target = ByteBuffer.wrap(destination, 0, length);
+
+        while (target.hasRemaining())
+        {
+            if (channel.read(target, position + target.position()) == -1)
+            {
+                break;
+            }
+        }
+
+        return target.position() == 0 && position >= channel.size() ? -1 : target.position();
+    }
+
+    DbfHeader getHeader()
+    {
+        return header;
     }
 
     /**
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ * Adds records to a {@link Table} in large chunks. Added records are encoded into a buffer, which
+ * is written to the table file with a single write when it is full or when the appender is flushed
+ * or closed. The record count in the header of the table and the end of file marker are then
+ * written once for all records in the buffer, instead of once per record as with
+ * {@link Table#addRecord(Record)}. The memos of added records are collected in the write buffer
+ * of the memo file, like those of records added one by one.
+ * <p>
+ * Buffered records are not part of the table yet: they are not counted by
+ * {@link Table#getRecordCount()} and cannot be read. The table must not be changed in any other
+ * way while records are buffered. {@link Table#flush()} and {@link Table#close()} write the
+ * records buffered in the appenders of the table. An appender may not be used by several threads
+ * at once.
+ */
+public class TableAppender
+    implements Closeable, Flushable
+{
+    static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+    private final Table table;
+    private final int recordLength;
+    private final byte[] buffer;
+    private final int capacity;
+    private int nrBufferedRecords = 0;
+    private int firstRecordIndex;
+
+    TableAppender(final Table table, final int bufferSize)
+    {
+        this.table = table;
+        recordLength = table.getHeader().getRecordLength();
+        capacity = Math.max(1, bufferSize / recordLength);
+        buffer = new byte[capacity * recordLength];
+    }
+
+    /**
+     * Adds a record to the buffer, and writes the buffer to the table if it is full.
+     *
+     * @param record the record to add
+     *
+     * @throws IOException if the memos of the record or the buffer could not be written
+     * @throws DbfLibException if a value did not fit its field
+     * @throws IllegalStateException if the table was changed while records were buffered
+     */
+    public void add(final Record record)
+             throws IOException, DbfLibException
+    {
+        table.checkWritable();
+
+        if (nrBufferedRecords == 0)
+        {
+            firstRecordIndex = table.getRecordCount();
+        }
+        else
+        {
+            checkRecordCount();
+        }
+
+        table.encodeRecord(record,
+                           null,
+                           false,
+                           buffer,
+                           nrBufferedRecords * recordLength);
+
+        if (nrBufferedRecords == 0)
+        {
+            table.addPendingAppender(this);
+        }
+
+        ++nrBufferedRecords;
+
+        if (nrBufferedRecords == capacity)
+        {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the buffered records to the table, updating the record count of the table, and
+     * flushes the table.
+     *
+     * @throws IOException if the records could not be written
+     * @throws IllegalStateException if the table was changed while records were buffered
+     */
+    public void flush()
+               throws IOException
+    {
+        writeBufferedRecords();
+        table.flush();
+    }
+
+    /*
+     * Writes the buffered records to the table without flushing the table.
+     */
+    void writeBufferedRecords()
+                       throws IOException
+    {
+        if (nrBufferedRecords > 0)
+        {
+            checkRecordCount();
+            table.appendRecords(buffer, nrBufferedRecords);
+            nrBufferedRecords = 0;
+            table.removePendingAppender(this);
+        }
+    }
+
+    /**
+     * Flushes the appender. The appender can still be used afterwards.
+     *
+     * @throws IOException if the records could not be written
+     */
+    public void close()
+               throws IOException
+    {
+        flush();
+    }
+
+    /**
+     * Returns the number of records that have been added but not written to the table yet.
+     *
+     * @return the number of buffered records
+     */
+    public int getBufferedRecordCount()
+    {
+        return nrBufferedRecords;
+    }
+
+    private void checkRecordCount()
+    {
+        if (table.getRecordCount() != firstRecordIndex)
+        {
+            throw new IllegalStateException("Table was changed while records were buffered");
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import java.io.IOException;
+
+/**
+ * Processes the tables visited by {@link Database#scanTables(TableHandler, int)}. The handler is
+ * called for several tables at the same time, from different threads, and must be thread-safe.
+ */
+public interface TableHandler
+{
+    /**
+     * Processes one table. The table is open when this method is called.
+     *
+     * @param table the table
+     *
+     * @throws IOException if the handler fails with an I/O error
+     * @throws DbfLibException if the handler fails
+     */
+    void handle(Table table)
+         throws IOException, DbfLibException;
+}
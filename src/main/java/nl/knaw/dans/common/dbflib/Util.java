@@ -233,6 +233,77 @@ class Util
         return Arrays.copyOf(array, index == 0 ? index + 1 : index);
     }
 
+    /**
+     * Returns the length of the string stored in <code>length</code> bytes of <code>buffer</code>
+     * starting at <code>offset</code>. The string ends at the first null character, if any.
+     */
+    static int getStringLength(final byte[] buffer, final int offset, final int length)
+    {
+        int index = 0;
+
+        while (index != length && buffer[offset + index] != 0)
+        {
+            ++index;
+        }
+
+        return index;
+    }
+
+    /**
+     * As {@link #readStringBytes(DataInput, int)} but copies the bytes from a buffer instead of
+     * reading them.
+     */
+    static byte[] copyStringBytes(final byte[] buffer, final int offset, final int length)
+    {
+        final int stringLength = getStringLength(buffer, offset, length);
+
+        return Arrays.copyOfRange(buffer, offset, offset + (stringLength == 0 ? 1 : stringLength));
+    }
+
+    /**
+     * Returns whether the string stored in <code>length</code> bytes of <code>buffer</code> starting
+     * at <code>offset</code> consists of white space only, like <code>String.trim().isEmpty()</code>
+     * would.
+     */
+    static boolean isBlank(final byte[] buffer, final int offset, final int length)
+    {
+        final int stringLength = getStringLength(buffer, offset, length);
+
+        for (int i = offset; i < offset + stringLength; ++i)
+        {
+            if ((buffer[i] & 0xff) > ' ')
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns whether the number stored in <code>length</code> bytes of <code>buffer</code> starting
+     * at <code>offset</code> is empty, i.e. consists of white space and at most a decimal point.
+     */
+    static boolean isEmptyNumber(final byte[] buffer, final int offset, final int length)
+    {
+        final int stringLength = getStringLength(buffer, offset, length);
+        boolean decimalPointSeen = false;
+
+        for (int i = offset; i < offset + stringLength; ++i)
+        {
+            if (buffer[i] == '.' && ! decimalPointSeen)
+            {
+                decimalPointSeen = true;
+            }
+            else if ((buffer[i] & 0xff) > ' ')
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     /**
      * Creates a Date object with the specfied value and the time fields set to zero. Note that
      * month is zero-based. The <tt>java.util.Calendar</tt> class has constants for all the months.
@@ -75,7 +75,7 @@ public abstract class Value
     {
         if (typed == null)
         {
-            typed = doGetTypedValue(originalRaw);
+            typed = doGetTypedValue(getOriginalRawValue());
         }
 
         return typed;
@@ -96,9 +96,23 @@ public abstract class Value
     final byte[] getRawValue(final Field aField)
                       throws DbfLibException
     {
-        if (originalRaw != null && originalField.equals(aField))
+        if (originalField != null)
         {
-            return originalRaw;
+            if (originalField.equals(aField))
+            {
+                final byte[] raw = getOriginalRawValue();
+
+                if (raw != null)
+                {
+                    return raw;
+                }
+            }
+
+            /*
+             * A value read from the database must be converted before it can be validated against
+             * another field.
+             */
+            getTypedValue();
         }
 
         aField.validateTypedValue(typed);
@@ -106,6 +120,52 @@ public abstract class Value
         return doGetRawValue(aField);
     }
 
+    /**
+     * Stores the raw value for <code>aField</code> directly in the <code>aField.getLength()</code>
+     * bytes of <code>destination</code> starting at <code>offset</code>. Returns <code>false</code>
+     * if this value cannot be stored that way, in which case {@link #getRawValue(Field)} must be
+     * used instead. This implementation always returns <code>false</code>.
+     *
+     * @param aField the field to store the value for
+     * @param destination the buffer to store the raw value in
+     * @param offset the position of the field in the buffer
+     * @return whether the raw value was stored
+     * @throws DbfLibException if the value cannot be stored in the specified field
+     */
+    boolean putRawValue(final Field aField, final byte[] destination, final int offset)
+                 throws DbfLibException
+    {
+        return false;
+    }
+
+    /**
+     * Returns whether this value was read from a table, rather than created from a Java object.
+     */
+    final boolean isOriginal()
+    {
+        return originalField != null;
+    }
+
+    /**
+     * Returns the field this value was read from, or <code>null</code> if it was created from a
+     * Java object.
+     */
+    final Field getOriginalField()
+    {
+        return originalField;
+    }
+
+    /**
+     * Returns the raw value this value was read with, or <code>null</code> if it was constructed
+     * from a Java object. Subclasses that read their raw value on first use override this method.
+     *
+     * @return the original raw value
+     */
+    byte[] getOriginalRawValue()
+    {
+        return originalRaw;
+    }
+
     /**
      * Converts the raw bytes to a Java object. The class of Java object to create is determined by
      * the subclass of <tt>Value</tt>.
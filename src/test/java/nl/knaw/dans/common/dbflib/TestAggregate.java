@@ -0,0 +1,260 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Tests counting records and summarizing fields without decoding the records.
+ */
+public class TestAggregate
+{
+    private static final int NR_OF_RECORDS = 5000;
+
+    private Table table;
+
+    @Before
+    public void setUp()
+               throws Exception
+    {
+        final File outputDir = UnitTestUtil.recreateDirectory("target/test-output/aggregate");
+        final List<Field> fields = new ArrayList<Field>();
+        fields.add(new Field("ID", Type.NUMBER, 6));
+        fields.add(new Field("AMOUNT", Type.FLOAT, 10, 2));
+        fields.add(new Field("DAY", Type.DATE, 8));
+
+        table = new Table(new File(outputDir, "AGGR.DBF"), Version.DBASE_4, fields);
+        table.open(IfNonExistent.CREATE);
+
+        for (int i = 0; i < NR_OF_RECORDS; ++i)
+        {
+            /*
+             * Every tenth record has no amount and no date.
+             */
+            if (i % 10 == 9)
+            {
+                table.addRecord(i, null, null);
+            }
+            else
+            {
+                table.addRecord(i, (i % 301) * 1.25 - 100, date(1990, 1, 1 + i % 900));
+            }
+        }
+
+        for (int i = 0; i < NR_OF_RECORDS; i += 13)
+        {
+            table.deleteRecordAt(i);
+        }
+    }
+
+    @After
+    public void tearDown()
+                  throws Exception
+    {
+        table.close();
+    }
+
+    @Test
+    public void countRecords()
+                      throws Exception
+    {
+        assertEquals(NR_OF_RECORDS - (NR_OF_RECORDS + 12) / 13,
+                     table.countRecords(null));
+        assertEquals(count(1000, 1999),
+                     table.countRecords(RecordFilter.between("ID", 1000, 1999)));
+    }
+
+    @Test
+    public void summarizeNumber()
+                         throws Exception
+    {
+        final FieldSummary summary = table.summarize("AMOUNT", null);
+
+        long count = 0;
+        double sum = 0;
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        final Iterator<Record> iterator = table.recordIterator();
+
+        while (iterator.hasNext())
+        {
+            final Number amount = iterator.next().getNumberValue("AMOUNT");
+
+            if (amount != null)
+            {
+                ++count;
+                sum += amount.doubleValue();
+                min = Math.min(min,
+                               amount.doubleValue());
+                max = Math.max(max,
+                               amount.doubleValue());
+            }
+        }
+
+        assertEquals(count,
+                     summary.getCount());
+        assertEquals(sum,
+                     summary.getSum(),
+                     1e-6);
+        assertEquals(min,
+                     summary.getMin(),
+                     0);
+        assertEquals(max,
+                     summary.getMax(),
+                     0);
+        assertNull(summary.getMinDate());
+    }
+
+    @Test
+    public void summarizeDate()
+                       throws Exception
+    {
+        final FieldSummary summary = table.summarize("DAY",
+                                                     RecordFilter.lessThan("ID", 100));
+
+        /*
+         * Ten of these records have no date, but record 39 is deleted as well.
+         */
+        assertEquals(count(0, 99) - 9,
+                     summary.getCount());
+        assertEquals(date(1990, 1, 2),
+                     summary.getMinDate());
+        assertEquals(date(1990, 1, 99),
+                     summary.getMaxDate());
+        assertEquals(RawValueParser.toEpochDay(19900102),
+                     (long) summary.getMin());
+    }
+
+    @Test
+    public void dateWithBlankYearIsNull()
+                                 throws Exception
+    {
+        /*
+         * Record 9 has no date. A blank year makes a date null, whatever follows it.
+         */
+        final DbfHeader header = table.getHeader();
+        final RandomAccessFile raf = new RandomAccessFile(new File("target/test-output/aggregate/AGGR.DBF"), "rw");
+
+        try
+        {
+            raf.seek(header.getLength() + 9L * header.getRecordLength() + 1 + 6 + 10);
+            raf.writeBytes("    0101");
+        }
+        finally
+        {
+            raf.close();
+        }
+
+        assertNull(table.getRecordAt(9).getDateValue("DAY"));
+        assertEquals(count(0, 99) - 9,
+                     table.summarize("DAY",
+                                     RecordFilter.lessThan("ID", 100)).getCount());
+    }
+
+    @Test
+    public void emptySummary()
+                      throws Exception
+    {
+        final FieldSummary summary = table.summarize("ID",
+                                                     RecordFilter.greaterThan("ID", NR_OF_RECORDS));
+
+        assertEquals(0,
+                     summary.getCount());
+        assertTrue(Double.isNaN(summary.getMax()));
+    }
+
+    @Test
+    public void epochDays()
+    {
+        assertEquals(0,
+                     RawValueParser.toEpochDay(19700101));
+        assertEquals(11017,
+                     RawValueParser.toEpochDay(20000301));
+        assertEquals(-719162,
+                     RawValueParser.toEpochDay(10101));
+
+        for (long day = -719162; day < 2932897; day += 997)
+        {
+            assertEquals(day,
+                         RawValueParser.toEpochDay(RawValueParser.toDateDigits(day)));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void summarizeCharacterNotSupported()
+                                        throws Exception
+    {
+        final List<Field> fields = new ArrayList<Field>();
+        fields.add(new Field("NAME", Type.CHARACTER, 10));
+
+        final Table other =
+            new Table(new File(UnitTestUtil.recreateDirectory("target/test-output/aggregate2"), "CHAR.DBF"),
+                      Version.DBASE_3,
+                      fields);
+        other.open(IfNonExistent.CREATE);
+
+        try
+        {
+            other.summarize("NAME", null);
+        }
+        finally
+        {
+            other.close();
+        }
+    }
+
+    /*
+     * Counts the records in the range that are not deleted.
+     */
+    private static int count(final int from, final int to)
+    {
+        int count = 0;
+
+        for (int i = from; i <= to; ++i)
+        {
+            if (i % 13 != 0)
+            {
+                ++count;
+            }
+        }
+
+        return count;
+    }
+
+    private static Date date(final int year, final int month, final int day)
+    {
+        final Calendar cal = Calendar.getInstance();
+        cal.clear();
+        cal.set(year, month - 1, day);
+
+        return cal.getTime();
+    }
+}
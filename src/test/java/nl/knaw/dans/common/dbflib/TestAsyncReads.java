@@ -0,0 +1,220 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.channels.CompletionHandler;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests reading records asynchronously.
+ */
+public class TestAsyncReads
+{
+    private Table table;
+
+    @Before
+    public void setUp()
+               throws Exception
+    {
+        final File outputDir = UnitTestUtil.recreateDirectory("target/test-output/async");
+        UnitTestUtil.copyFile(new File("src/test/resources/dbase3plus/cars_del/cars.dbf"),
+                              outputDir,
+                              "cars.dbf");
+        UnitTestUtil.copyFile(new File("src/test/resources/dbase3plus/cars_del/cars.dbt"),
+                              outputDir,
+                              "cars.dbt");
+        table = new Table(new File(outputDir, "cars.dbf"));
+        table.open();
+    }
+
+    @After
+    public void tearDown()
+                  throws Exception
+    {
+        table.close();
+    }
+
+    @Test
+    public void singleRecordMatchesSynchronousRead()
+                                            throws Exception
+    {
+        for (int i = 0; i < table.getRecordCount(); ++i)
+        {
+            assertRecordEquals(table.getRecordAt(i),
+                               table.getRecordAtAsync(i).get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void recordsWithHandler()
+                            throws Exception
+    {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<List<Record>> result = new AtomicReference<List<Record>>();
+        final String attachment = "attachment";
+
+        table.getRecordsAtAsync(0,
+                                table.getRecordCount(),
+                                false,
+                                attachment,
+                                new CompletionHandler<List<Record>, String>()
+            {
+                public void completed(final List<Record> records, final String a)
+                {
+                    assertEquals(attachment, a);
+                    result.set(records);
+                    done.countDown();
+                }
+
+                public void failed(final Throwable throwable, final String a)
+                {
+                    done.countDown();
+                }
+            });
+
+        done.await(5, TimeUnit.SECONDS);
+
+        final List<Record> expected = table.getRecordsAt(0,
+                                                         table.getRecordCount(),
+                                                         false);
+        assertEquals(expected.size(),
+                     result.get().size());
+
+        for (int i = 0; i < expected.size(); ++i)
+        {
+            assertRecordEquals(expected.get(i),
+                               result.get().get(i));
+        }
+    }
+
+    @Test
+    public void rangeBeyondEnd()
+                        throws Exception
+    {
+        assertEquals(0,
+                     table.getRecordsAtAsync(table.getRecordCount(), 10, true).get().size());
+        assertEquals(table.getRecordCount(),
+                     table.getRecordsAtAsync(0, Integer.MAX_VALUE, true).get().size());
+    }
+
+    @Test
+    public void memosAreReadOnMemoExecutor()
+                                    throws Exception
+    {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        table.setAsyncMemoExecutor(executor);
+
+        try
+        {
+            final Record record = table.getRecordAtAsync(0).get(5, TimeUnit.SECONDS);
+            final List<Record> records =
+                table.getRecordsAtAsync(0, table.getRecordCount(), true).get(5, TimeUnit.SECONDS);
+
+            int nrMemoValues = countMemos(record, true);
+
+            for (final Record r : records)
+            {
+                nrMemoValues += countMemos(r, true);
+            }
+
+            assertTrue(nrMemoValues > 0);
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void memosAreLazyWithoutMemoExecutor()
+                                         throws Exception
+    {
+        final List<Record> records = table.getRecordsAtAsync(0, table.getRecordCount(), true).get(5, TimeUnit.SECONDS);
+        int nrMemoValues = 0;
+
+        for (final Record r : records)
+        {
+            nrMemoValues += countMemos(r, false);
+        }
+
+        assertTrue(nrMemoValues > 0);
+
+        for (int i = 0; i < records.size(); ++i)
+        {
+            assertRecordEquals(table.getRecordAt(i),
+                               records.get(i));
+        }
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void invalidIndex()
+                      throws Exception
+    {
+        table.getRecordAtAsync(table.getRecordCount());
+    }
+
+    private int countMemos(final Record record, final boolean read)
+    {
+        int nrMemoValues = 0;
+
+        for (final Value value : record.getValues())
+        {
+            if (value instanceof MemoValue)
+            {
+                assertEquals(read,
+                             ((MemoValue) value).isRead());
+                ++nrMemoValues;
+            }
+        }
+
+        return nrMemoValues;
+    }
+
+    private void assertRecordEquals(final Record expected, final Record actual)
+    {
+        if (expected == null)
+        {
+            assertNull(actual);
+
+            return;
+        }
+
+        assertEquals(expected.isMarkedDeleted(),
+                     actual.isMarkedDeleted());
+
+        for (final Field field : table.getFields())
+        {
+            assertEquals(expected.getTypedValue(field.getName()),
+                         actual.getTypedValue(field.getName()));
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tests reading one open table from several threads at the same time.
+ */
+@RunWith(Parameterized.class)
+public class TestConcurrentReads
+{
+    private static final int NR_OF_RECORDS = 1000;
+    private static final int NR_OF_THREADS = 8;
+
+    private final Version version;
+    private Table table;
+
+    public TestConcurrentReads(final Version version)
+    {
+        this.version = version;
+    }
+
+    @Parameters
+    public static Collection<Object[]> data()
+    {
+        final Object[][] data = new Object[][] { { Version.DBASE_3 }, { Version.DBASE_4 }, { Version.FOXPRO_26 } };
+
+        return Arrays.asList(data);
+    }
+
+    @After
+    public void tearDown()
+                  throws Exception
+    {
+        table.close();
+    }
+
+    @Test
+    public void readersDoNotInterfere()
+                               throws Exception
+    {
+        final File tableFile = new File("target/test-output/concurrent/" + version + "/CONC.DBF");
+        final Table writer = UnitTestUtil.createMemoTable(tableFile, version);
+
+        for (int i = 0; i < NR_OF_RECORDS; ++i)
+        {
+            writer.addRecord(i, note(i));
+        }
+
+        writer.close();
+
+        table = new Table(tableFile);
+        table.open();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(NR_OF_THREADS);
+        final List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+
+        try
+        {
+            for (int t = 0; t < NR_OF_THREADS; ++t)
+            {
+                final long seed = t;
+
+                results.add(executor.submit(new Callable<Integer>()
+                        {
+                            public Integer call()
+                                         throws Exception
+                            {
+                                return read(new Random(seed));
+                            }
+                        }));
+            }
+
+            for (final Future<Integer> result : results)
+            {
+                assertEquals(Integer.valueOf(NR_OF_RECORDS + 200 + 200 * 10),
+                             result.get());
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    /*
+     * Mixes a full cursor scan with random single and batch reads, checking every record read.
+     */
+    private int read(final Random random)
+              throws Exception
+    {
+        int checked = 0;
+        final RecordCursor cursor = table.recordCursor();
+
+        while (cursor.next())
+        {
+            assertEquals(note(cursor.getRecordIndex()),
+                         cursor.getStringValue("NOTE"));
+            ++checked;
+        }
+
+        for (int i = 0; i < 200; ++i)
+        {
+            final int index = random.nextInt(NR_OF_RECORDS);
+            check(index,
+                  table.getRecordAt(index));
+            ++checked;
+
+            final int start = random.nextInt(NR_OF_RECORDS - 10);
+            int expected = start;
+
+            for (final Record record : table.getRecordsAt(start, 10, 256, false))
+            {
+                check(expected++, record);
+                ++checked;
+            }
+        }
+
+        return checked;
+    }
+
+    private static void check(final int index, final Record record)
+    {
+        assertEquals(index,
+                     record.getNumberValue("ID").intValue());
+        assertEquals(note(index),
+                     record.getStringValue("NOTE"));
+    }
+
+    private static String note(final int index)
+    {
+        final StringBuilder sb = new StringBuilder("Note " + index);
+
+        for (int i = 0; i < index % 700; ++i)
+        {
+            sb.append((char) ('a' + i % 26));
+        }
+
+        return sb.toString();
+    }
+}
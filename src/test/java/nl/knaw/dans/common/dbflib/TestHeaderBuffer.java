@@ -0,0 +1,134 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests reading and writing table headers through an in-memory buffer.
+ */
+public class TestHeaderBuffer
+{
+    private File outputDir;
+
+    @Before
+    public void setUp()
+               throws Exception
+    {
+        outputDir = UnitTestUtil.recreateDirectory("target/test-output/headerbuffer");
+    }
+
+    /*
+     * The header of a table with 200 fields does not fit in the first read.
+     */
+    @Test
+    public void wideTable()
+                   throws Exception
+    {
+        final File tableFile = new File(outputDir, "WIDE.DBF");
+        final List<Field> fields = new ArrayList<Field>();
+
+        for (int i = 0; i < 200; ++i)
+        {
+            fields.add(new Field("F" + i, Type.CHARACTER, 5));
+        }
+
+        final Table table = new Table(tableFile, Version.DBASE_3, fields);
+        table.open(IfNonExistent.CREATE);
+
+        final Map<String, Value> values = new HashMap<String, Value>();
+        values.put("F0", new StringValue("first"));
+        values.put("F199", new StringValue("last"));
+        table.addRecord(new Record(values));
+        table.close();
+
+        final Table reopened = new Table(tableFile);
+        reopened.open();
+
+        try
+        {
+            assertEquals(200,
+                         reopened.getFields().size());
+            assertEquals("F199",
+                         reopened.getFields().get(199).getName());
+            assertEquals(32 + 200 * 32 + 1,
+                         reopened.getHeader().getLength());
+            assertEquals(1,
+                         reopened.getRecordCount());
+            assertEquals("first",
+                         reopened.getRecordAt(0).getStringValue("F0"));
+            assertEquals("last",
+                         reopened.getRecordAt(0).getStringValue("F199"));
+        }
+        finally
+        {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void recordCountIsUpdatedInPlace()
+                                     throws Exception
+    {
+        final File tableFile = new File(outputDir, "COUNT.DBF");
+        final List<Field> fields = new ArrayList<Field>();
+        fields.add(new Field("NAME", Type.CHARACTER, 10));
+
+        final Table table = new Table(tableFile, Version.DBASE_3, fields);
+        table.open(IfNonExistent.CREATE);
+
+        for (int i = 0; i < 300; ++i)
+        {
+            table.addRecord("Name " + i);
+        }
+
+        table.close();
+
+        final RandomAccessFile raf = new RandomAccessFile(tableFile, "r");
+
+        try
+        {
+            raf.seek(4);
+            assertEquals(300,
+                         raf.read() | (raf.read() << 8) | (raf.read() << 16) | (raf.read() << 24));
+            assertEquals(0x0D,
+                         readAt(raf, 32 + 32));
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    private static int readAt(final RandomAccessFile raf, final long position)
+                       throws Exception
+    {
+        raf.seek(position);
+
+        return raf.read();
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests writing memos from input streams.
+ */
+public class TestInputStreamValue
+{
+    private static final int BLOCK_LENGTH = 512;
+
+    private File memoFile;
+    private Table table;
+
+    @After
+    public void tearDown()
+                  throws Exception
+    {
+        table.close();
+    }
+
+    @Test
+    public void largeBinaryValue()
+                          throws Exception
+    {
+        createTable(Version.FOXPRO_26, Type.GENERAL, "FOXPRO.fpt");
+
+        final byte[] data = createData(300000);
+        addRecord(0, new InputStreamValue(new ByteArrayInputStream(data)));
+        addRecord(1, new InputStreamValue(new ByteArrayInputStream(new byte[0])));
+        addRecord(2, new ByteArrayValue(new byte[] { 1, 2, 3 }));
+
+        assertArrayEquals(data,
+                          readMemo(0));
+        assertArrayEquals(new byte[0],
+                          readMemo(1));
+        assertArrayEquals(new byte[] { 1, 2, 3 },
+                          readMemo(2));
+
+        table.flush();
+        assertEquals(BLOCK_LENGTH + ((data.length + 8) / BLOCK_LENGTH + 1) * BLOCK_LENGTH + 2 * BLOCK_LENGTH,
+                     memoFile.length());
+    }
+
+    @Test
+    public void textValueDbase3()
+                         throws Exception
+    {
+        textValue(Version.DBASE_3, "DBASE3.dbt");
+    }
+
+    @Test
+    public void textValueDbase4()
+                         throws Exception
+    {
+        textValue(Version.DBASE_4, "DBASE4.dbt");
+    }
+
+    private void textValue(final Version version, final String memoFileName)
+                    throws Exception
+    {
+        createTable(version, Type.MEMO, memoFileName);
+
+        final StringBuilder builder = new StringBuilder();
+
+        for (int i = 0; i < 20000; ++i)
+        {
+            builder.append("line ").append(i).append('\n');
+        }
+
+        addRecord(0, new InputStreamValue(new ByteArrayInputStream(builder.toString().getBytes())));
+        addRecord(1, new StringValue("After"));
+
+        assertEquals(builder.toString(),
+                     table.getRecordAt(0).getStringValue("DOC"));
+        assertEquals("After",
+                     table.getRecordAt(1).getStringValue("DOC"));
+    }
+
+    @Test
+    public void replacedValueIsFreed()
+                              throws Exception
+    {
+        createTable(Version.FOXPRO_26, Type.GENERAL, "FOXPRO.fpt");
+        table.setMemoSpaceReuse(true);
+        addRecord(0, new ByteArrayValue(createData(2000)));
+        addRecord(1, new ByteArrayValue(new byte[] { 1 }));
+        table.updateRecordAt(0,
+                             createRecord(0, new InputStreamValue(new ByteArrayInputStream(createData(5000)))));
+        table.flush();
+
+        final long length = memoFile.length();
+        addRecord(2, new ByteArrayValue(createData(1000)));
+        table.flush();
+
+        assertEquals(length,
+                     memoFile.length());
+        assertArrayEquals(createData(5000),
+                          readMemo(0));
+        assertArrayEquals(createData(1000),
+                          readMemo(2));
+    }
+
+    @Test
+    public void duplicateStreamIsRemoved()
+                                  throws Exception
+    {
+        createTable(Version.FOXPRO_26, Type.GENERAL, "FOXPRO.fpt");
+        table.setMemoDeduplication(true);
+        addRecord(0, new ByteArrayValue(createData(3000)));
+        table.flush();
+
+        final long length = memoFile.length();
+        addRecord(1, new InputStreamValue(new ByteArrayInputStream(createData(3000))));
+        table.flush();
+
+        assertEquals(length,
+                     memoFile.length());
+        assertArrayEquals(createData(3000),
+                          readMemo(1));
+    }
+
+    @Test
+    public void failingStreamWritesNothing()
+                                    throws Exception
+    {
+        createTable(Version.FOXPRO_26, Type.GENERAL, "FOXPRO.fpt");
+        addRecord(0, new ByteArrayValue(new byte[] { 1 }));
+        table.flush();
+
+        final long length = memoFile.length();
+        final InputStream failing =
+            new InputStream()
+            {
+                private int count = 0;
+
+                @Override
+                public int read()
+                         throws IOException
+                {
+                    if (++count > 100000)
+                    {
+                        throw new IOException("Read error");
+                    }
+
+                    return count & 0xff;
+                }
+            };
+
+        try
+        {
+            addRecord(1, new InputStreamValue(failing));
+            fail("Read error expected");
+        }
+        catch (final IOException ex)
+        {
+            assertEquals("Read error",
+                         ex.getMessage());
+        }
+
+        assertEquals(length,
+                     memoFile.length());
+    }
+
+    @Test(expected = DataMismatchException.class)
+    public void notForCharacterFields()
+                               throws Exception
+    {
+        createTable(Version.FOXPRO_26, Type.GENERAL, "FOXPRO.fpt");
+
+        final Map<String, Value> values = new HashMap<String, Value>();
+        values.put("NAME", new InputStreamValue(new ByteArrayInputStream(new byte[] { 'a' })));
+        table.addRecord(new Record(values));
+    }
+
+    private void createTable(final Version version, final Type type, final String memoFileName)
+                      throws Exception
+    {
+        final File outputDir = UnitTestUtil.recreateDirectory("target/test-output/inputstreamvalue");
+        final List<Field> fields = new ArrayList<Field>();
+        fields.add(new Field("NAME", Type.CHARACTER, 10));
+        fields.add(new Field("DOC", type, 10));
+
+        final String baseName = memoFileName.substring(0, memoFileName.indexOf('.'));
+        table = new Table(new File(outputDir, baseName + ".dbf"), version, fields);
+        table.open(IfNonExistent.CREATE);
+        memoFile = new File(outputDir, memoFileName);
+    }
+
+    private void addRecord(final int index, final Value value)
+                    throws Exception
+    {
+        table.addRecord(createRecord(index, value));
+    }
+
+    private byte[] readMemo(final int index)
+                     throws Exception
+    {
+        final InputStream in = table.getRecordAt(index).getInputStream("DOC");
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        if (in == null)
+        {
+            return new byte[0];
+        }
+
+        int b;
+
+        while ((b = in.read()) != -1)
+        {
+            out.write(b);
+        }
+
+        return out.toByteArray();
+    }
+
+    private static Record createRecord(final int index, final Value value)
+    {
+        final Map<String, Value> values = new HashMap<String, Value>();
+        values.put("NAME", new StringValue("Doc " + index));
+        values.put("DOC", value);
+
+        return new Record(values);
+    }
+
+    private static byte[] createData(final int length)
+    {
+        final byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+
+        return data;
+    }
+}
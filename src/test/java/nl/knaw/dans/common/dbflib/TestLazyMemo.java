@@ -0,0 +1,110 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Tests that memos are only read from the memo file when their value is asked for.
+ */
+public class TestLazyMemo
+{
+    private static final File CARS = new File("src/test/resources/dbase3plus/cars/cars.dbf");
+
+    @Test(expected = IllegalStateException.class)
+    public void memoNotReadWithRecord()
+                               throws Exception
+    {
+        final Table table = new Table(CARS);
+        table.openReadOnly();
+
+        final Record record = table.getRecordAt(0);
+        table.close();
+
+        record.getTypedValue("DESCR");
+    }
+
+    @Test
+    public void memoReadWhenAskedFor()
+                              throws Exception
+    {
+        final Table table = new Table(CARS);
+        table.openReadOnly();
+
+        try
+        {
+            final Record record = table.getRecordAt(0);
+            final String descr = record.getStringValue("DESCR");
+
+            assertTrue(descr.length() > 0);
+            assertEquals(descr,
+                         record.getStringValue("DESCR"));
+            assertEquals(descr,
+                         new String(record.getRawValue(table.getFields().get(5)),
+                                    table.getCharsetName()));
+        }
+        finally
+        {
+            table.close();
+        }
+    }
+
+    @Test
+    public void lazyMemosCopiedToOtherTable()
+                                     throws Exception
+    {
+        final File outputDir = UnitTestUtil.recreateDirectory("target/test-output/lazymemo");
+        final Table source = new Table(CARS);
+        source.openReadOnly();
+
+        final Table target = new Table(new File(outputDir, "COPY.DBF"), Version.DBASE_3, source.getFields());
+        target.open(IfNonExistent.CREATE);
+
+        try
+        {
+            final Iterator<Record> iterator = source.recordIterator();
+
+            while (iterator.hasNext())
+            {
+                target.addRecord(iterator.next());
+            }
+
+            final List<Record> expected = source.getAllRecords();
+            final List<Record> actual = target.getAllRecords();
+            assertEquals(expected.size(),
+                         actual.size());
+
+            for (int i = 0; i < expected.size(); ++i)
+            {
+                assertEquals(expected.get(i).getTypedValue("DESCR"),
+                             actual.get(i).getTypedValue("DESCR"));
+            }
+        }
+        finally
+        {
+            target.close();
+            source.close();
+        }
+    }
+}
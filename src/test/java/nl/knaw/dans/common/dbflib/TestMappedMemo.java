@@ -0,0 +1,184 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+/**
+ * Tests reading memos from a mapped memo file.
+ */
+public class TestMappedMemo
+{
+    private final File tableFile = new File("target/test-output/mappedmemo/MAPPED.DBF");
+    private Table table;
+
+    @After
+    public void tearDown()
+                  throws Exception
+    {
+        table.close();
+    }
+
+    @Test
+    public void readMappedDbase3()
+                          throws Exception
+    {
+        readMapped(Version.DBASE_3);
+    }
+
+    @Test
+    public void readMappedFoxPro()
+                          throws Exception
+    {
+        readMapped(Version.FOXPRO_26);
+    }
+
+    private void readMapped(final Version version)
+                     throws Exception
+    {
+        createTable(version);
+        table = new Table(tableFile);
+        table.openReadOnly();
+
+        for (int i = 0; i < 20; ++i)
+        {
+            assertEquals(getNote(i),
+                         table.getRecordAt(i).getStringValue("NOTE"));
+        }
+
+        final ByteBuffer buffer = table.getRecordAt(5).getByteBuffer("NOTE");
+        assertTrue(buffer.isReadOnly());
+        assertTrue(buffer.isDirect());
+        assertEquals(getNote(5),
+                     toString(buffer));
+
+        final RecordCursor cursor = table.recordCursor(false, null);
+        int i = 0;
+
+        while (cursor.next() && i < 20)
+        {
+            assertEquals(getNote(i++),
+                         toString(cursor.getByteBuffer("NOTE")));
+        }
+
+        assertNull(cursor.getByteBuffer("NOTE"));
+        assertNull(table.getRecordAt(20).getByteBuffer("NOTE"));
+    }
+
+    @Test
+    public void writableMemoFileIsNotMapped()
+                                     throws Exception
+    {
+        createTable(Version.FOXPRO_26);
+        table = new Table(tableFile);
+        table.open();
+
+        final ByteBuffer buffer = table.getRecordAt(3).getByteBuffer("NOTE");
+        assertTrue(buffer.isReadOnly());
+        assertEquals(getNote(3),
+                     toString(buffer));
+    }
+
+    @Test
+    public void remappedWhenFileGrows()
+                              throws Exception
+    {
+        createTable(Version.DBASE_3);
+        table = new Table(tableFile);
+        table.openReadOnly();
+
+        final File memoFile = Util.getMemoFile(tableFile, Version.DBASE_3);
+        final Memo reader = new Memo(memoFile, Version.DBASE_3, new MemoCache());
+        reader.open(IfNonExistent.ERROR, true);
+
+        final Memo writer = new Memo(memoFile, Version.DBASE_3, new MemoCache());
+        writer.open(IfNonExistent.ERROR, false);
+
+        final int blockIndex = writer.writeMemo("Appended later".getBytes());
+        writer.close();
+
+        assertArrayEquals("Appended later".getBytes(),
+                          reader.readMemo(blockIndex));
+        assertEquals("Appended later",
+                     toString(reader.getMemoBuffer(blockIndex)));
+        reader.close();
+    }
+
+    @Test(expected = CorruptedTableException.class)
+    public void pointerBeyondEndOfFile()
+                                throws Exception
+    {
+        createTable(Version.FOXPRO_26);
+
+        final Memo reader = new Memo(Util.getMemoFile(tableFile, Version.FOXPRO_26),
+                                     Version.FOXPRO_26,
+                                     new MemoCache());
+        reader.open(IfNonExistent.ERROR, true);
+
+        try
+        {
+            reader.readMemo(1000);
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    private void createTable(final Version version)
+                      throws Exception
+    {
+        table = UnitTestUtil.createMemoTable(tableFile, version);
+
+        for (int i = 0; i < 20; ++i)
+        {
+            table.addRecord(i, getNote(i));
+        }
+
+        table.addRecord(20, null);
+        table.close();
+    }
+
+    private static String getNote(final int i)
+    {
+        final StringBuilder builder = new StringBuilder("Note " + i);
+
+        for (int j = 0; j < i * 20; ++j)
+        {
+            builder.append(" more");
+        }
+
+        return builder.toString();
+    }
+
+    private static String toString(final ByteBuffer buffer)
+    {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+
+        return new String(bytes);
+    }
+}
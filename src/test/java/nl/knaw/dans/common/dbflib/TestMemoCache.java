@@ -0,0 +1,176 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests the memo cache.
+ */
+public class TestMemoCache
+{
+    private Table table;
+
+    @Before
+    public void setUp()
+               throws Exception
+    {
+        table = UnitTestUtil.createMemoTable(new File("target/test-output/memocache/CACHE.DBF"), Version.DBASE_3);
+
+        for (int i = 0; i < 10; ++i)
+        {
+            table.addRecord(i, "Note " + i);
+        }
+    }
+
+    @After
+    public void tearDown()
+                  throws Exception
+    {
+        table.close();
+    }
+
+    @Test
+    public void disabledByDefault()
+                           throws Exception
+    {
+        table.getRecordAt(0).getStringValue("NOTE");
+        table.getRecordAt(0).getStringValue("NOTE");
+
+        assertEquals(0,
+                     table.getMemoCacheSize());
+        assertEquals(0,
+                     table.getMemoCacheHits());
+        assertEquals(0,
+                     table.getMemoCacheMisses());
+    }
+
+    @Test
+    public void repeatedReadsAreHits()
+                              throws Exception
+    {
+        table.setMemoCacheSize(1024);
+
+        for (int n = 0; n < 3; ++n)
+        {
+            for (int i = 0; i < 10; ++i)
+            {
+                assertEquals("Note " + i,
+                             table.getRecordAt(i).getStringValue("NOTE"));
+            }
+        }
+
+        assertEquals(10,
+                     table.getMemoCacheMisses());
+        assertEquals(20,
+                     table.getMemoCacheHits());
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted()
+    {
+        final MemoCache cache = new MemoCache();
+        cache.setMaxBytes(10);
+        cache.put(1, new byte[4]);
+        cache.put(2, new byte[4]);
+        cache.get(1);
+        cache.put(3, new byte[4]);
+
+        assertNull(cache.get(2));
+        assertEquals(4,
+                     cache.get(1).length);
+        assertEquals(4,
+                     cache.get(3).length);
+        assertEquals(8,
+                     cache.getCachedBytes());
+
+        cache.put(4, new byte[11]);
+        assertNull(cache.get(4));
+    }
+
+    @Test
+    public void invalidatedByWrite()
+    {
+        final MemoCache cache = new MemoCache();
+        cache.setMaxBytes(100);
+        cache.put(1, new byte[] { 1 });
+        cache.put(5, new byte[] { 5 });
+        cache.invalidate(4, 2);
+
+        assertArrayEquals(new byte[] { 1 },
+                          cache.get(1));
+        assertNull(cache.get(5));
+    }
+
+    @Test
+    public void binaryValuesAreCopiesOfCachedData()
+                                           throws Exception
+    {
+        final List<Field> fields = new ArrayList<Field>();
+        fields.add(new Field("DATA", Type.GENERAL));
+
+        final Table binaryTable =
+            new Table(new File("target/test-output/memocache/BINARY.DBF"), Version.FOXPRO_26, fields);
+        binaryTable.open(IfNonExistent.CREATE);
+
+        try
+        {
+            final Map<String, Value> values = new HashMap<String, Value>();
+            values.put("DATA",
+                       new ByteArrayValue(new byte[] { 1, 2, 3 }));
+            binaryTable.addRecord(new Record(values));
+            binaryTable.setMemoCacheSize(1024);
+
+            ((byte[]) binaryTable.getRecordAt(0).getTypedValue("DATA"))[0] = 9;
+
+            assertArrayEquals(new byte[] { 1, 2, 3 },
+                              (byte[]) binaryTable.getRecordAt(0).getTypedValue("DATA"));
+            assertEquals(1,
+                         binaryTable.getMemoCacheHits());
+        }
+        finally
+        {
+            binaryTable.close();
+        }
+    }
+
+    @Test
+    public void cachedDataIsNotCopied()
+    {
+        final MemoCache cache = new MemoCache();
+        cache.setMaxBytes(100);
+
+        final byte[] data = { 1, 2, 3 };
+        cache.put(1, data);
+
+        assertSame(data,
+                   cache.get(1));
+    }
+}
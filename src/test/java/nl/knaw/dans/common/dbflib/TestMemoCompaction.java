@@ -0,0 +1,277 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests removing unused memos from the memo file.
+ */
+public class TestMemoCompaction
+{
+    private File tableFile;
+    private Table table;
+
+    @After
+    public void tearDown()
+                  throws Exception
+    {
+        table.close();
+    }
+
+    @Test
+    public void compactAfterUpdateDbase3()
+                                  throws Exception
+    {
+        compactAfterUpdate(Version.DBASE_3);
+    }
+
+    @Test
+    public void compactAfterUpdateDbase4()
+                                  throws Exception
+    {
+        compactAfterUpdate(Version.DBASE_4);
+    }
+
+    @Test
+    public void compactAfterUpdateFoxPro()
+                                  throws Exception
+    {
+        compactAfterUpdate(Version.FOXPRO_26);
+    }
+
+    private void compactAfterUpdate(final Version version)
+                             throws Exception
+    {
+        createTable(version);
+        table.setMemoSpaceReuse(false);
+
+        final long length = UnitTestUtil.getMemoFileLength(table, tableFile);
+
+        for (int i = 0; i < 10; i += 2)
+        {
+            table.updateRecordAt(i,
+                                 UnitTestUtil.createMemoRecord(i, getNote(i) + "!"));
+        }
+
+        assertTrue(UnitTestUtil.getMemoFileLength(table, tableFile) > length);
+
+        table.compactMemo();
+
+        assertEquals(length,
+                     UnitTestUtil.getMemoFileLength(table, tableFile));
+
+        for (int i = 0; i < 10; ++i)
+        {
+            assertEquals(i % 2 == 0 ? getNote(i) + "!" : getNote(i),
+                         table.getRecordAt(i).getStringValue("NOTE"));
+        }
+
+        table.addRecord(10, "Added");
+        assertEquals("Added",
+                     table.getRecordAt(10).getStringValue("NOTE"));
+        assertEquals(getNote(9),
+                     table.getRecordAt(9).getStringValue("NOTE"));
+    }
+
+    @Test
+    public void badPointerLeavesMemoFileUnchanged()
+                                           throws Exception
+    {
+        createTable(Version.DBASE_3);
+        table.deleteRecordAt(0);
+        writeNotePointer(9, "    100000");
+
+        final byte[] before = readMemoFile();
+
+        try
+        {
+            table.compactMemo();
+            fail("Pointer beyond the end of the memo file should not be accepted");
+        }
+        catch (final CorruptedTableException ex)
+        {
+            assertArrayEquals(before,
+                              readMemoFile());
+        }
+
+        for (int i = 1; i < 9; ++i)
+        {
+            assertEquals(getNote(i),
+                         table.getRecordAt(i).getStringValue("NOTE"));
+        }
+    }
+
+    @Test
+    public void compactAfterPack()
+                          throws Exception
+    {
+        createTable(Version.DBASE_3);
+
+        final long length = UnitTestUtil.getMemoFileLength(table, tableFile);
+
+        for (int i = 0; i < 10; i += 2)
+        {
+            table.deleteRecordAt(i);
+        }
+
+        table.pack();
+        table.compactMemo();
+
+        assertTrue(UnitTestUtil.getMemoFileLength(table, tableFile) < length);
+
+        for (int i = 0; i < 5; ++i)
+        {
+            assertEquals(getNote(2 * i + 1),
+                         table.getRecordAt(i).getStringValue("NOTE"));
+        }
+    }
+
+    @Test
+    public void pointersOfDeletedRecordsAreCleared()
+                                            throws Exception
+    {
+        createTable(Version.FOXPRO_26);
+        table.deleteRecordAt(3);
+        table.compactMemo();
+
+        final List<Record> records = table.getRecordsAt(3, 1, true, null);
+        assertTrue(records.get(0).isMarkedDeleted());
+        assertNull(records.get(0).getTypedValue("NOTE"));
+        assertEquals(getNote(4),
+                     table.getRecordAt(4).getStringValue("NOTE"));
+    }
+
+    @Test
+    public void emptyMemosAreKeptEmpty()
+                                throws Exception
+    {
+        createTable(Version.DBASE_3);
+        table.updateRecordAt(0,
+                             UnitTestUtil.createMemoRecord(0, null));
+        table.compactMemo();
+
+        assertNull(table.getRecordAt(0).getTypedValue("NOTE"));
+        assertEquals(getNote(1),
+                     table.getRecordAt(1).getStringValue("NOTE"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void recordReadBeforeCompactionFails()
+                                         throws Exception
+    {
+        createTable(Version.DBASE_3);
+
+        final Record record = table.getRecordAt(1);
+        table.deleteRecordAt(0);
+        table.compactMemo();
+        record.getStringValue("NOTE");
+    }
+
+    @Test
+    public void memoReadBeforeCompactionIsKept()
+                                        throws Exception
+    {
+        createTable(Version.DBASE_3);
+
+        final Record record = table.getRecordAt(1);
+        table.prefetchMemos(Collections.singletonList(record));
+        table.deleteRecordAt(0);
+        table.compactMemo();
+
+        assertEquals(getNote(1),
+                     record.getStringValue("NOTE"));
+        assertEquals(getNote(1),
+                     table.getRecordAt(1).getStringValue("NOTE"));
+    }
+
+    private void writeNotePointer(final int index, final String pointer)
+                           throws Exception
+    {
+        final DbfHeader header = table.getHeader();
+        final RandomAccessFile raf = new RandomAccessFile(tableFile, "rw");
+
+        try
+        {
+            raf.seek(header.getLength() + (long) index * header.getRecordLength() + 1 + 6);
+            raf.write(pointer.getBytes());
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    private byte[] readMemoFile()
+                         throws Exception
+    {
+        table.flush();
+
+        final RandomAccessFile raf = new RandomAccessFile(Util.getMemoFile(tableFile, table.getVersion()), "r");
+
+        try
+        {
+            final byte[] bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+
+            return bytes;
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    private void createTable(final Version version)
+                      throws Exception
+    {
+        tableFile = new File("target/test-output/memocompaction/" + version + ".dbf");
+        table = UnitTestUtil.createMemoTable(tableFile, version);
+
+        for (int i = 0; i < 10; ++i)
+        {
+            table.addRecord(i, getNote(i));
+        }
+    }
+
+    /*
+     * Every third memo takes several blocks.
+     */
+    private static String getNote(final int i)
+    {
+        final StringBuilder builder = new StringBuilder("Note " + i);
+
+        for (int j = 0; i % 3 == 0 && j < 200; ++j)
+        {
+            builder.append(" and more");
+        }
+
+        return builder.toString();
+    }
+}
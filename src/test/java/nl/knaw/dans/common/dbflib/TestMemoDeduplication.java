@@ -0,0 +1,152 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+/**
+ * Tests storing memos with the same contents only once.
+ */
+public class TestMemoDeduplication
+{
+    private static final int BLOCK_LENGTH = 512;
+    private static final String[] TEXTS = { "Standard disclaimer", "Template A", "Template B" };
+
+    private final File tableFile = new File("target/test-output/memodeduplication/DEDUP.DBF");
+    private Table table;
+
+    @Before
+    public void setUp()
+               throws Exception
+    {
+        table = UnitTestUtil.createMemoTable(tableFile, Version.DBASE_3);
+    }
+
+    @After
+    public void tearDown()
+                  throws Exception
+    {
+        table.close();
+    }
+
+    @Test
+    public void disabledByDefault()
+                           throws Exception
+    {
+        addRecords(0, 30);
+
+        assertEquals(31 * BLOCK_LENGTH,
+                     UnitTestUtil.getMemoFileLength(table, tableFile));
+    }
+
+    @Test
+    public void identicalMemosAreWrittenOnce()
+                                     throws Exception
+    {
+        table.setMemoDeduplication(true);
+        addRecords(0, 30);
+
+        assertEquals(4 * BLOCK_LENGTH,
+                     UnitTestUtil.getMemoFileLength(table, tableFile));
+        assertRecords(30);
+    }
+
+    @Test
+    public void indexIsRebuiltAfterReopen()
+                                  throws Exception
+    {
+        addRecords(0, 3);
+        table.close();
+
+        table = new Table(tableFile);
+        table.open();
+        table.setMemoDeduplication(true);
+        addRecords(3, 30);
+
+        assertEquals(4 * BLOCK_LENGTH,
+                     UnitTestUtil.getMemoFileLength(table, tableFile));
+        assertRecords(33);
+    }
+
+    @Test
+    public void sharedMemosAreNotFreed()
+                               throws Exception
+    {
+        table.setMemoDeduplication(true);
+        table.setMemoSpaceReuse(true);
+        addRecords(0, 6);
+        table.updateRecordAt(0,
+                             UnitTestUtil.createMemoRecord(0, "Replaced"));
+        table.addRecord(6, "Other text");
+
+        assertEquals("Replaced",
+                     table.getRecordAt(0).getStringValue("NOTE"));
+        assertEquals(TEXTS[0],
+                     table.getRecordAt(3).getStringValue("NOTE"));
+        assertEquals("Other text",
+                     table.getRecordAt(6).getStringValue("NOTE"));
+    }
+
+    @Test
+    public void indexFollowsCompaction()
+                               throws Exception
+    {
+        table.setMemoDeduplication(true);
+        table.addRecord(0, "Removed");
+        addRecords(1, 6);
+        table.deleteRecordAt(0);
+        table.compactMemo();
+
+        assertEquals(4 * BLOCK_LENGTH,
+                     UnitTestUtil.getMemoFileLength(table, tableFile));
+
+        table.addRecord(7, TEXTS[0]);
+        table.addRecord(8, "Removed");
+
+        assertEquals(5 * BLOCK_LENGTH,
+                     UnitTestUtil.getMemoFileLength(table, tableFile));
+        assertEquals(TEXTS[0],
+                     table.getRecordAt(7).getStringValue("NOTE"));
+        assertEquals("Removed",
+                     table.getRecordAt(8).getStringValue("NOTE"));
+    }
+
+    private void addRecords(final int first, final int n)
+                     throws Exception
+    {
+        for (int i = first; i < first + n; ++i)
+        {
+            table.addRecord(i, TEXTS[i % TEXTS.length]);
+        }
+    }
+
+    private void assertRecords(final int n)
+                        throws Exception
+    {
+        for (int i = 0; i < n; ++i)
+        {
+            assertEquals(TEXTS[i % TEXTS.length],
+                         table.getRecordAt(i).getStringValue("NOTE"));
+        }
+    }
+}
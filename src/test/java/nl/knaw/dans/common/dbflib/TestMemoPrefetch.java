@@ -0,0 +1,201 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests reading the memos of several records ahead of time, in the order of the memo file.
+ */
+public class TestMemoPrefetch
+{
+    private static final int NR_RECORDS = 300;
+
+    private Table table;
+
+    @After
+    public void tearDown()
+                  throws Exception
+    {
+        table.close();
+    }
+
+    @Test
+    public void prefetchingIteratorDbase3()
+                                   throws Exception
+    {
+        prefetchingIterator(Version.DBASE_3);
+    }
+
+    @Test
+    public void prefetchingIteratorFoxPro()
+                                   throws Exception
+    {
+        prefetchingIterator(Version.FOXPRO_26);
+    }
+
+    /*
+     * The memos are read before the records are handed out, so they can still be read after the
+     * table has been closed.
+     */
+    private void prefetchingIterator(final Version version)
+                              throws Exception
+    {
+        createTable(version);
+
+        final Iterator<Record> iterator = table.recordIterator(false, null, null, 64);
+        final List<Record> records = new ArrayList<Record>();
+
+        while (iterator.hasNext())
+        {
+            records.add(iterator.next());
+        }
+
+        table.close();
+
+        assertEquals(NR_RECORDS,
+                     records.size());
+
+        for (int i = 0; i < NR_RECORDS; ++i)
+        {
+            assertEquals(getNote(i),
+                         records.get(i).getStringValue("NOTE"));
+        }
+    }
+
+    @Test
+    public void prefetchRecordsRead()
+                             throws Exception
+    {
+        createTable(Version.DBASE_4);
+
+        final List<Record> records = table.getRecordsAt(100, 50, false, null);
+        table.prefetchMemos(records);
+        table.close();
+
+        for (int i = 0; i < 50; ++i)
+        {
+            assertEquals(getNote(100 + i),
+                         records.get(i).getStringValue("NOTE"));
+        }
+    }
+
+    @Test
+    public void sharedMemosAreCopied()
+                              throws Exception
+    {
+        createTable(Version.FOXPRO_26);
+        table.updateRecordAt(1,
+                             table.getRecordAt(0));
+
+        final List<Record> records = table.getRecordsAt(0, 2, false, null);
+        table.prefetchMemos(records);
+
+        assertEquals(getNote(0),
+                     records.get(1).getStringValue("NOTE"));
+        assertTrue(records.get(0).getRawValue(table.getFields().get(1))
+                   != records.get(1).getRawValue(table.getFields().get(1)));
+    }
+
+    @Test
+    public void removeDeletesCurrentRecord()
+                                    throws Exception
+    {
+        createTable(Version.DBASE_3);
+
+        final Iterator<Record> iterator = table.recordIterator(false, null, null, 10);
+
+        for (int i = 0; i < 15; ++i)
+        {
+            iterator.next();
+        }
+
+        iterator.remove();
+
+        final Iterator<Record> all = table.recordIterator(true);
+
+        for (int i = 0; i < NR_RECORDS; ++i)
+        {
+            final Record record = all.next();
+            assertEquals(i == 14,
+                         record.isMarkedDeleted());
+        }
+
+        assertFalse(all.hasNext());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void prefetchSizeMustBePositive()
+                                    throws Exception
+    {
+        createTable(Version.DBASE_3);
+        table.recordIterator(false, null, null, 0);
+    }
+
+    /*
+     * The memos are written in random order, so that reading them in record order jumps around in
+     * the memo file.
+     */
+    private void createTable(final Version version)
+                      throws Exception
+    {
+        table = UnitTestUtil.createMemoTable(new File("target/test-output/memoprefetch/PREFETCH.DBF"), version);
+
+        final List<Integer> order = new ArrayList<Integer>();
+
+        for (int i = 0; i < NR_RECORDS; ++i)
+        {
+            table.addRecord(i, null);
+            order.add(i);
+        }
+
+        Collections.shuffle(order, new Random(1));
+
+        for (final int i : order)
+        {
+            table.updateRecordAt(i,
+                                 UnitTestUtil.createMemoRecord(i, getNote(i)));
+        }
+    }
+
+    /*
+     * Some memos take several blocks.
+     */
+    private static String getNote(final int i)
+    {
+        final StringBuilder builder = new StringBuilder("Note " + i);
+
+        for (int j = 0; j < (i % 7) * 40; ++j)
+        {
+            builder.append(" more");
+        }
+
+        return builder.toString();
+    }
+}
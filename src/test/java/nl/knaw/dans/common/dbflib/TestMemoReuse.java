@@ -0,0 +1,254 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+/**
+ * Tests that unchanged memos are not rewritten and that the blocks of replaced memos are reused.
+ */
+public class TestMemoReuse
+{
+    private final File tableFile = new File("target/test-output/memoreuse/REUSE.DBF");
+    private Table table;
+
+    @Before
+    public void setUp()
+               throws Exception
+    {
+        table = UnitTestUtil.createMemoTable(tableFile, Version.FOXPRO_26);
+
+        for (int i = 0; i < 10; ++i)
+        {
+            table.addRecord(i, "Note " + i);
+        }
+    }
+
+    @After
+    public void tearDown()
+                  throws Exception
+    {
+        table.close();
+    }
+
+    @Test
+    public void unchangedRecordDoesNotGrowMemoFile()
+                                            throws Exception
+    {
+        final long length = UnitTestUtil.getMemoFileLength(table, tableFile);
+
+        for (int i = 0; i < 10; ++i)
+        {
+            table.updateRecordAt(i,
+                                 table.getRecordAt(i));
+        }
+
+        assertEquals(length,
+                     UnitTestUtil.getMemoFileLength(table, tableFile));
+        assertNotes("Note ");
+    }
+
+    @Test
+    public void equalMemoIsNotRewritten()
+                                throws Exception
+    {
+        final long length = UnitTestUtil.getMemoFileLength(table, tableFile);
+
+        table.updateRecordAt(3,
+                             UnitTestUtil.createMemoRecord(3, "Note 3"));
+
+        assertEquals(length,
+                     UnitTestUtil.getMemoFileLength(table, tableFile));
+        assertNotes("Note ");
+    }
+
+    @Test
+    public void replacedMemosGrowFileWithoutReuse()
+                                          throws Exception
+    {
+        table.setMemoSpaceReuse(false);
+
+        final long length = UnitTestUtil.getMemoFileLength(table, tableFile);
+
+        updateNotes("Text ");
+
+        assertTrue(UnitTestUtil.getMemoFileLength(table, tableFile) > length);
+        assertNotes("Text ");
+    }
+
+    @Test
+    public void replacedMemoBlocksAreReused()
+                                    throws Exception
+    {
+        assertTrue(table.isMemoSpaceReuse());
+
+        final long length = UnitTestUtil.getMemoFileLength(table, tableFile);
+
+        for (int n = 0; n < 5; ++n)
+        {
+            updateNotes("Text " + n + " ");
+        }
+
+        assertEquals(length,
+                     UnitTestUtil.getMemoFileLength(table, tableFile));
+        assertNotes("Text 4 ");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void recordReadBeforeBlocksAreReusedFails()
+                                              throws Exception
+    {
+        final Record record = table.getRecordAt(1);
+        /*
+         * The new memo takes the blocks of the memo it replaces.
+         */
+        table.updateRecordAt(1,
+                             UnitTestUtil.createMemoRecord(1, "Text 1"));
+        record.getStringValue("NOTE");
+    }
+
+    @Test
+    public void copiedRecordDoesNotShareMemo()
+                                     throws Exception
+    {
+        table.addRecord(table.getRecordAt(2));
+        table.updateRecordAt(3,
+                             table.getRecordAt(2));
+
+        /*
+         * Updating the copies frees their blocks, which are then given to new memos.
+         */
+        table.updateRecordAt(10,
+                             UnitTestUtil.createMemoRecord(10, "Text 10"));
+        table.updateRecordAt(3,
+                             UnitTestUtil.createMemoRecord(3, "Text 3"));
+        table.addRecord(11, "Note 11");
+        table.addRecord(12, "Note 12");
+
+        assertEquals("Note 2",
+                     table.getRecordAt(2).getStringValue("NOTE"));
+        assertEquals("Text 3",
+                     table.getRecordAt(3).getStringValue("NOTE"));
+        assertEquals("Text 10",
+                     table.getRecordAt(10).getStringValue("NOTE"));
+        assertEquals("Note 12",
+                     table.getRecordAt(12).getStringValue("NOTE"));
+    }
+
+    @Test
+    public void freedBlocksAreCoalesced()
+                                throws Exception
+    {
+        table.updateRecordAt(0,
+                             UnitTestUtil.createMemoRecord(0, null));
+        table.updateRecordAt(1,
+                             UnitTestUtil.createMemoRecord(1, null));
+
+        final long length = UnitTestUtil.getMemoFileLength(table, tableFile);
+
+        /*
+         * Two blocks of 64 bytes are free, one of which goes to the header of the memo.
+         */
+        table.updateRecordAt(0,
+                             UnitTestUtil.createMemoRecord(0, repeat('x', 100)));
+
+        assertEquals(length,
+                     UnitTestUtil.getMemoFileLength(table, tableFile));
+        assertEquals(repeat('x', 100),
+                     table.getRecordAt(0).getStringValue("NOTE"));
+        assertEquals("Note 2",
+                     table.getRecordAt(2).getStringValue("NOTE"));
+    }
+
+    @Test
+    public void packDoesNotRewriteMemos()
+                                throws Exception
+    {
+        final long length = UnitTestUtil.getMemoFileLength(table, tableFile);
+
+        for (int i = 0; i < 10; i += 2)
+        {
+            table.deleteRecordAt(i);
+        }
+
+        table.pack();
+
+        assertEquals(5,
+                     table.getRecordCount());
+        assertEquals(length,
+                     UnitTestUtil.getMemoFileLength(table, tableFile));
+
+        for (int i = 0; i < 5; ++i)
+        {
+            assertEquals("Note " + (2 * i + 1),
+                         table.getRecordAt(i).getStringValue("NOTE"));
+        }
+    }
+
+    @Test
+    public void memosOfReopenedTableAreNotOverwritten()
+                                              throws Exception
+    {
+        table.close();
+        table = new Table(tableFile);
+        table.open();
+        table.addRecord(10, "Note 10");
+
+        assertNotes("Note ");
+        assertEquals("Note 10",
+                     table.getRecordAt(10).getStringValue("NOTE"));
+    }
+
+    private void updateNotes(final String prefix)
+                      throws Exception
+    {
+        for (int i = 0; i < 10; ++i)
+        {
+            table.updateRecordAt(i,
+                                 UnitTestUtil.createMemoRecord(i, prefix + i));
+        }
+    }
+
+    private void assertNotes(final String prefix)
+                      throws Exception
+    {
+        for (int i = 0; i < 10; ++i)
+        {
+            assertEquals(prefix + i,
+                         table.getRecordAt(i).getStringValue("NOTE"));
+        }
+    }
+
+    private static String repeat(final char c, final int n)
+    {
+        final StringBuilder builder = new StringBuilder();
+
+        for (int i = 0; i < n; ++i)
+        {
+            builder.append(c);
+        }
+
+        return builder.toString();
+    }
+}
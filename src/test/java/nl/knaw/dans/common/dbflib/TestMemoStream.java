@@ -0,0 +1,173 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Tests reading memos in bulk and as streams.
+ */
+@RunWith(Parameterized.class)
+public class TestMemoStream
+{
+    private static final int[] MEMO_LENGTHS = { 1, 100, 503, 504, 511, 512, 513, 5000, 200 * 1024 };
+
+    private final Version version;
+    private Table table;
+
+    public TestMemoStream(final Version version)
+    {
+        this.version = version;
+    }
+
+    @Parameters
+    public static Collection<Object[]> data()
+    {
+        final Object[][] data =
+            new Object[][] { { Version.DBASE_3 }, { Version.CLIPPER_5 }, { Version.DBASE_4 }, { Version.FOXPRO_26 } };
+
+        return Arrays.asList(data);
+    }
+
+    @Before
+    public void setUp()
+               throws Exception
+    {
+        table = UnitTestUtil.createMemoTable(new File("target/test-output/memostream/" + version + "/STREAM.DBF"),
+                                             version);
+
+        for (int i = 0; i < MEMO_LENGTHS.length; ++i)
+        {
+            table.addRecord(i, memo(MEMO_LENGTHS[i]));
+        }
+
+        table.addRecord(MEMO_LENGTHS.length, null);
+    }
+
+    @After
+    public void tearDown()
+                  throws Exception
+    {
+        table.close();
+    }
+
+    @Test
+    public void bulkRead()
+                  throws Exception
+    {
+        for (int i = 0; i < MEMO_LENGTHS.length; ++i)
+        {
+            assertEquals(memo(MEMO_LENGTHS[i]),
+                         table.getRecordAt(i).getStringValue("NOTE"));
+        }
+    }
+
+    @Test
+    public void recordStream()
+                      throws Exception
+    {
+        for (int i = 0; i < MEMO_LENGTHS.length; ++i)
+        {
+            assertArrayEquals(memo(MEMO_LENGTHS[i]).getBytes("US-ASCII"),
+                              readAll(table.getRecordAt(i).getInputStream("NOTE")));
+        }
+
+        assertNull(table.getRecordAt(MEMO_LENGTHS.length).getInputStream("NOTE"));
+    }
+
+    @Test
+    public void cursorStream()
+                      throws Exception
+    {
+        final RecordCursor cursor = table.recordCursor();
+
+        while (cursor.next())
+        {
+            final int i = cursor.getRecordIndex();
+
+            if (i < MEMO_LENGTHS.length)
+            {
+                assertArrayEquals(memo(MEMO_LENGTHS[i]).getBytes("US-ASCII"),
+                                  readAll(cursor.getInputStream("NOTE")));
+            }
+            else
+            {
+                assertNull(cursor.getInputStream("NOTE"));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cursorStreamOnNonMemoField()
+                                    throws Exception
+    {
+        final RecordCursor cursor = table.recordCursor();
+        cursor.next();
+        cursor.getInputStream("ID");
+    }
+
+    private static byte[] readAll(final InputStream in)
+                           throws IOException
+    {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+        /*
+         * Mix single byte and bulk reads.
+         */
+        bos.write(in.read());
+
+        final byte[] bytes = new byte[777];
+        int n;
+
+        while ((n = in.read(bytes)) != -1)
+        {
+            bos.write(bytes, 0, n);
+        }
+
+        in.close();
+
+        return bos.toByteArray();
+    }
+
+    private static String memo(final int length)
+    {
+        final StringBuilder sb = new StringBuilder(length);
+
+        for (int i = 0; i < length; ++i)
+        {
+            sb.append((char) ('a' + i % 26));
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+/**
+ * Tests writing memos through the write buffer of the memo file.
+ */
+public class TestMemoWriteBuffer
+{
+    private static final int BLOCK_LENGTH = 512;
+
+    private final File tableFile = new File("target/test-output/memowritebuffer/BUFFER.DBF");
+    private Table table;
+
+    @Before
+    public void setUp()
+               throws Exception
+    {
+        table = UnitTestUtil.createMemoTable(tableFile, Version.FOXPRO_26);
+    }
+
+    @After
+    public void tearDown()
+                  throws Exception
+    {
+        table.close();
+    }
+
+    @Test
+    public void headerIsUpdatedOnFlush()
+                               throws Exception
+    {
+        addRecords(0, 100);
+
+        assertEquals(0,
+                     readNextAvailableBlock());
+
+        table.flush();
+
+        assertEquals(101,
+                     readNextAvailableBlock());
+        assertEquals(101 * BLOCK_LENGTH,
+                     getMemoFile().length());
+    }
+
+    @Test
+    public void memosAreNotWrittenPerRecord()
+                                    throws Exception
+    {
+        addRecords(0, 10);
+
+        assertEquals(BLOCK_LENGTH,
+                     getMemoFile().length());
+
+        final TableAppender appender = table.appender();
+
+        for (int i = 10; i < 20; ++i)
+        {
+            appender.add(UnitTestUtil.createMemoRecord(i, "Note " + i));
+        }
+
+        assertEquals(BLOCK_LENGTH,
+                     getMemoFile().length());
+
+        appender.close();
+
+        assertEquals(21 * BLOCK_LENGTH,
+                     getMemoFile().length());
+    }
+
+    @Test
+    public void bufferIsWrittenWhenBufferedMemoIsRead()
+                                              throws Exception
+    {
+        addRecords(0, 10);
+
+        assertEquals("Note 3",
+                     table.getRecordAt(3).getStringValue("NOTE"));
+        assertEquals(0,
+                     readNextAvailableBlock());
+        assertEquals(11 * BLOCK_LENGTH,
+                     getMemoFile().length());
+    }
+
+    @Test
+    public void memosCanBeReadBeforeFlush()
+                                  throws Exception
+    {
+        addRecords(0, 10);
+
+        for (int i = 0; i < 10; ++i)
+        {
+            assertEquals("Note " + i,
+                         table.getRecordAt(i).getStringValue("NOTE"));
+        }
+
+        addRecords(10, 10);
+
+        assertEquals("Note 19",
+                     table.getRecordAt(19).getStringValue("NOTE"));
+    }
+
+    @Test
+    public void memosLargerThanBuffer()
+                              throws Exception
+    {
+        final StringBuilder builder = new StringBuilder();
+
+        for (int i = 0; i < 20000; ++i)
+        {
+            builder.append("memo ");
+        }
+
+        addRecords(0, 3);
+        table.addRecord(3, builder.toString());
+        addRecords(4, 3);
+
+        assertEquals(builder.toString(),
+                     table.getRecordAt(3).getStringValue("NOTE"));
+        assertEquals("Note 2",
+                     table.getRecordAt(2).getStringValue("NOTE"));
+        assertEquals("Note 6",
+                     table.getRecordAt(6).getStringValue("NOTE"));
+    }
+
+    @Test
+    public void memosAreWrittenOnClose()
+                               throws Exception
+    {
+        addRecords(0, 2000);
+        table.close();
+
+        assertEquals(2001,
+                     readNextAvailableBlock());
+
+        table = new Table(tableFile);
+        table.open();
+        addRecords(2000, 10);
+
+        for (int i = 0; i < 2010; i += 7)
+        {
+            assertEquals("Note " + i,
+                         table.getRecordAt(i).getStringValue("NOTE"));
+        }
+    }
+
+    @Test
+    public void freedBlocksInBufferAreReused()
+                                     throws Exception
+    {
+        table.setMemoSpaceReuse(true);
+        addRecords(0, 10);
+
+        table.updateRecordAt(5,
+                             UnitTestUtil.createMemoRecord(5, "Text 5"));
+        table.flush();
+
+        assertEquals(11 * BLOCK_LENGTH,
+                     getMemoFile().length());
+        assertEquals("Text 5",
+                     table.getRecordAt(5).getStringValue("NOTE"));
+        assertEquals("Note 6",
+                     table.getRecordAt(6).getStringValue("NOTE"));
+    }
+
+    private void addRecords(final int first, final int n)
+                     throws Exception
+    {
+        for (int i = first; i < first + n; ++i)
+        {
+            table.addRecord(i, "Note " + i);
+        }
+    }
+
+    private File getMemoFile()
+    {
+        return Util.getMemoFile(tableFile, Version.FOXPRO_26);
+    }
+
+    private int readNextAvailableBlock()
+                                throws Exception
+    {
+        final RandomAccessFile raf = new RandomAccessFile(getMemoFile(), "r");
+
+        try
+        {
+            return raf.readInt();
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+}
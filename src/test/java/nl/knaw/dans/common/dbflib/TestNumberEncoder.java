@@ -0,0 +1,200 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Tests that numbers are encoded exactly like <code>String.format</code> formats them.
+ */
+public class TestNumberEncoder
+{
+    private static final int NR_RANDOM_VALUES = 5000;
+
+    private final Random random = new Random(20091);
+
+    @Test
+    public void integers()
+                  throws Exception
+    {
+        for (int i = 0; i < NR_RANDOM_VALUES; ++i)
+        {
+            assertEncodedLikeFormat(random.nextInt(), new Field("N", Type.NUMBER, 12), true);
+            assertEncodedLikeFormat(random.nextInt(100000) - 50000, new Field("N", Type.NUMBER, 12, 3), true);
+        }
+    }
+
+    @Test
+    public void longs()
+               throws Exception
+    {
+        for (int i = 0; i < NR_RANDOM_VALUES; ++i)
+        {
+            final long value = random.nextLong() >> random.nextInt(64);
+            assertEncodedLikeFormat(value, new Field("N", Type.NUMBER, 20), true);
+            assertEncodedLikeFormat(value >> 20, new Field("F", Type.FLOAT, 20, 2), false);
+        }
+
+        assertEncodedLikeFormat(Long.MAX_VALUE, new Field("N", Type.NUMBER, 20), true);
+        assertEncodedLikeFormat(Long.MIN_VALUE, new Field("N", Type.NUMBER, 20), false);
+    }
+
+    @Test
+    public void doubles()
+                 throws Exception
+    {
+        int nrEncoded = 0;
+
+        for (int i = 0; i < NR_RANDOM_VALUES; ++i)
+        {
+            final double value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(12) - 4);
+
+            for (int decimalCount = 0; decimalCount <= 6; ++decimalCount)
+            {
+                if (assertEncodedLikeFormat(value, new Field("F", Type.FLOAT, 20, decimalCount), false))
+                {
+                    ++nrEncoded;
+                }
+            }
+        }
+
+        /*
+         * Only values close to halfway between two roundings are left to String.format.
+         */
+        assertTrue(nrEncoded > NR_RANDOM_VALUES * 7 * 95 / 100);
+    }
+
+    @Test
+    public void shortDecimals()
+                       throws Exception
+    {
+        /*
+         * Values with few decimals are the ones that are most often halfway between two roundings.
+         */
+        for (int i = -20000; i <= 20000; ++i)
+        {
+            final double value = i / 1000.0;
+            assertEncodedLikeFormat(value, new Field("N", Type.NUMBER, 12, 2), false);
+            assertEncodedLikeFormat(value, new Field("N", Type.NUMBER, 12, 1), false);
+            assertEncodedLikeFormat(value, new Field("N", Type.NUMBER, 12, 0), false);
+            assertEncodedLikeFormat((float) value, new Field("N", Type.NUMBER, 12, 2), false);
+        }
+    }
+
+    @Test
+    public void bigNumbers()
+                    throws Exception
+    {
+        for (int i = 0; i < NR_RANDOM_VALUES; ++i)
+        {
+            final BigDecimal value = BigDecimal.valueOf(random.nextLong() >> random.nextInt(64), random.nextInt(12) - 2);
+            assertEncodedLikeFormat(value, new Field("N", Type.NUMBER, 20, 4), false);
+            assertEncodedLikeFormat(value, new Field("N", Type.NUMBER, 20, 0), false);
+            assertEncodedLikeFormat(value.unscaledValue(), new Field("N", Type.NUMBER, 20, 2), false);
+        }
+
+        assertEncodedLikeFormat(new BigInteger("123456789012345678901234567890"),
+                                new Field("N", Type.NUMBER, 40),
+                                false);
+    }
+
+    @Test
+    public void signOfValuesRoundedToZero()
+                                   throws Exception
+    {
+        final Field field = new Field("F", Type.FLOAT, 6, 2);
+
+        assertEncodedLikeFormat(-0.001, field, true);
+        assertEncodedLikeFormat(-0.0, field, true);
+        assertEncodedLikeFormat(new BigDecimal("-0.001"), field, true);
+        assertEncodedLikeFormat(-0.4, new Field("N", Type.NUMBER, 6), true);
+    }
+
+    @Test
+    public void valuesThatDoNotFitAreNotEncoded()
+                                         throws Exception
+    {
+        final byte[] destination = new byte[4];
+
+        assertFalse(NumberEncoder.encode(12345, new Field("N", Type.NUMBER, 4), destination, 0));
+        assertFalse(NumberEncoder.encode(9.999, new Field("N", Type.NUMBER, 4, 2), destination, 0));
+        assertFalse(NumberEncoder.encode(Double.NaN, new Field("N", Type.NUMBER, 4, 1), destination, 0));
+        assertTrue(Arrays.equals(new byte[4], destination));
+    }
+
+    /*
+     * Compares the encoding of the number with the formatting that NumberValue did with
+     * String.format, and returns whether the number was encoded.
+     */
+    private static boolean assertEncodedLikeFormat(final Number number, final Field field, final boolean mustEncode)
+    {
+        final int offset = 3;
+        final byte[] destination = new byte[offset + field.getLength() + 3];
+        final boolean encoded = NumberEncoder.encode(number, field, destination, offset);
+
+        if (mustEncode)
+        {
+            assertTrue("Not encoded: " + number, encoded);
+        }
+
+        if (! encoded)
+        {
+            return false;
+        }
+
+        final String expected = format(number, field);
+        assertEquals("Encoding of " + number + " with " + field.getDecimalCount() + " decimals",
+                     expected,
+                     new String(destination, offset, field.getLength()));
+        assertEquals(0, destination[offset - 1]);
+        assertEquals(0, destination[offset + field.getLength()]);
+
+        return true;
+    }
+
+    private static String format(final Number number, final Field field)
+    {
+        Number num = number;
+        final boolean integral =
+            number instanceof Integer || number instanceof Long || number instanceof BigInteger;
+
+        if (field.getDecimalCount() > 0 && integral)
+        {
+            num = number instanceof BigInteger ? new BigDecimal((BigInteger) number) : (Number) number.doubleValue();
+        }
+
+        if (field.getDecimalCount() == 0 && ! integral)
+        {
+            num = Math.round(number.doubleValue());
+        }
+
+        return String.format(Locale.US,
+                             "%" + field.getLength()
+                             + (field.getDecimalCount() == 0 ? "d" : "." + field.getDecimalCount() + "f"),
+                             num);
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Tests scanning a table sequentially and in parallel.
+ */
+public class TestParallelScan
+{
+    private static final int NR_OF_RECORDS = 20000;
+
+    private Table table;
+
+    @Before
+    public void setUp()
+               throws Exception
+    {
+        final File outputDir = UnitTestUtil.recreateDirectory("target/test-output/parallelscan");
+        final List<Field> fields = new ArrayList<Field>();
+        fields.add(new Field("ID", Type.NUMBER, 6));
+        fields.add(new Field("TEXT", Type.CHARACTER, 20));
+
+        table = new Table(new File(outputDir, "SCAN.DBF"), Version.DBASE_3, fields);
+        table.open(IfNonExistent.CREATE);
+
+        for (int i = 0; i < NR_OF_RECORDS; ++i)
+        {
+            table.addRecord(i, "record " + i);
+        }
+
+        for (int i = 0; i < NR_OF_RECORDS; i += 7)
+        {
+            table.deleteRecordAt(i);
+        }
+    }
+
+    @After
+    public void tearDown()
+                  throws Exception
+    {
+        table.close();
+    }
+
+    @Test
+    public void sequentialAndParallelAgree()
+                                    throws Exception
+    {
+        final CollectingHandler sequential = new CollectingHandler();
+        table.scan(false, null, sequential);
+
+        final CollectingHandler parallel = new CollectingHandler();
+        table.parallelScan(false, null, parallel, new ForkJoinPool(4));
+
+        assertEquals(NR_OF_RECORDS - (NR_OF_RECORDS + 6) / 7,
+                     sequential.ids.cardinality());
+        assertEquals(sequential.ids, parallel.ids);
+        assertEquals(sequential.count, parallel.count);
+    }
+
+    @Test
+    public void parallelWithDeletedAndFilter()
+                                      throws Exception
+    {
+        final CollectingHandler all = new CollectingHandler();
+        table.parallelScan(true, null, all);
+        assertEquals(NR_OF_RECORDS, all.count);
+
+        final CollectingHandler filtered = new CollectingHandler();
+        table.parallelScan(false,
+                           RecordFilter.between("ID", 10000, 10013),
+                           filtered);
+        assertEquals(12, filtered.count);
+    }
+
+    @Test
+    public void handlerExceptionIsRethrown()
+                                    throws Exception
+    {
+        final IOException failure = new IOException("handler failed");
+
+        try
+        {
+            table.parallelScan(false,
+                               null,
+                               new RecordHandler()
+                {
+                    public void handle(final Record record)
+                                throws IOException
+                    {
+                        if (record.getNumberValue("ID").intValue() == 15000)
+                        {
+                            throw failure;
+                        }
+                    }
+                });
+            fail("Exception expected");
+        }
+        catch (final IOException e)
+        {
+            assertSame(failure, e);
+        }
+    }
+
+    private static class CollectingHandler
+        implements RecordHandler
+    {
+        final BitSet ids = new BitSet();
+        int count = 0;
+
+        public synchronized void handle(final Record record)
+        {
+            final int id = record.getNumberValue("ID").intValue();
+            assertEquals("record " + id,
+                         record.getStringValue("TEXT").trim());
+            ids.set(id);
+            ++count;
+        }
+    }
+}
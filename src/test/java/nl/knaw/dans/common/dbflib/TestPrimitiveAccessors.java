@@ -0,0 +1,326 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests the accessors that return values as primitives.
+ */
+public class TestPrimitiveAccessors
+{
+    private Table table;
+
+    @Before
+    public void setUp()
+               throws Exception
+    {
+        final File outputDir = UnitTestUtil.recreateDirectory("target/test-output/primitiveaccessors");
+        final List<Field> fields = new ArrayList<Field>();
+        fields.add(new Field("ID", Type.NUMBER, 6));
+        fields.add(new Field("AMOUNT", Type.NUMBER, 10, 2));
+        fields.add(new Field("BIG", Type.NUMBER, 19));
+        fields.add(new Field("FLAG", Type.LOGICAL, 1));
+        fields.add(new Field("DAY", Type.DATE, 8));
+
+        table = new Table(new File(outputDir, "PRIMS.DBF"), Version.DBASE_3, fields);
+        table.open(IfNonExistent.CREATE);
+        table.addRecord(createRecord(42, -1234.56, 1234567890123456789L, true, Util.createDate(2009, 11, 31)));
+        table.addRecord(createRecord(-7, 0.5, -5000000000L, false, Util.createDate(1969, 11, 31)));
+        table.addRecord(new Record(new HashMap<String, Value>()));
+    }
+
+    @After
+    public void tearDown()
+                  throws Exception
+    {
+        table.close();
+    }
+
+    @Test
+    public void cursor()
+                throws Exception
+    {
+        final RecordCursor cursor = table.recordCursor(false);
+
+        assertTrue(cursor.next());
+        assertEquals(42,
+                     cursor.getInt("ID"));
+        assertEquals(42L,
+                     cursor.getLong(0));
+        assertEquals(-1234.56,
+                     cursor.getDouble("AMOUNT"),
+                     0);
+        assertEquals(-1234,
+                     cursor.getInt(1));
+        assertEquals(1234567890123456789L,
+                     cursor.getLong("BIG"));
+        assertTrue(cursor.getBoolean("FLAG"));
+        assertEquals(14609,
+                     cursor.getEpochDay("DAY"));
+        assertFalse(cursor.isNull("AMOUNT"));
+
+        assertTrue(cursor.next());
+        assertEquals(-7,
+                     cursor.getInt(0));
+        assertEquals(0.5,
+                     cursor.getDouble(1),
+                     0);
+        assertEquals(0,
+                     cursor.getLong("AMOUNT"));
+        assertEquals(-5000000000L,
+                     cursor.getLong(2));
+        assertFalse(cursor.getBoolean(3));
+        assertEquals(-1,
+                     cursor.getEpochDay(4));
+
+        assertTrue(cursor.next());
+
+        for (int i = 0; i < 5; ++i)
+        {
+            assertTrue(cursor.isNull(i));
+        }
+
+        assertEquals(0,
+                     cursor.getInt("ID"));
+        assertEquals(0,
+                     cursor.getDouble("AMOUNT"),
+                     0);
+        assertFalse(cursor.getBoolean("FLAG"));
+        assertEquals(0,
+                     cursor.getEpochDay("DAY"));
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void recordReadFromTable()
+                             throws Exception
+    {
+        final Record record = table.getRecordAt(0);
+
+        assertEquals(record.getNumberValue("ID").intValue(),
+                     record.getInt("ID"));
+        assertEquals(record.getNumberValue("AMOUNT").doubleValue(),
+                     record.getDouble("AMOUNT"),
+                     0);
+        assertEquals(record.getNumberValue("BIG").longValue(),
+                     record.getLong("BIG"));
+        assertEquals(record.getBooleanValue("FLAG"),
+                     record.getBoolean("FLAG"));
+        assertEquals(14609,
+                     record.getEpochDay("DAY"));
+        assertFalse(record.isNull("ID"));
+
+        final Record empty = table.getRecordAt(2);
+        assertTrue(empty.isNull("ID"));
+        assertTrue(empty.isNull("DAY"));
+        assertTrue(empty.isNull("FLAG"));
+        assertEquals(0,
+                     empty.getLong("BIG"));
+        assertEquals(0,
+                     empty.getEpochDay("DAY"));
+    }
+
+    @Test
+    public void recordCreatedFromObjects()
+    {
+        final Record record = createRecord(42, -1234.56, 1234567890123456789L, true, Util.createDate(2009, 11, 31));
+
+        assertEquals(42,
+                     record.getInt("ID"));
+        assertEquals(-1234.56,
+                     record.getDouble("AMOUNT"),
+                     0);
+        assertEquals(1234567890123456789L,
+                     record.getLong("BIG"));
+        assertTrue(record.getBoolean("FLAG"));
+        assertEquals(14609,
+                     record.getEpochDay("DAY"));
+        assertTrue(record.isNull("NO_SUCH_FIELD"));
+        assertEquals(0,
+                     record.getInt("NO_SUCH_FIELD"));
+    }
+
+    @Test
+    public void parseLong()
+    {
+        assertEquals(123,
+                     RawValueParser.getLong(" +123.99 ".getBytes(), 0, 9));
+        assertEquals(0,
+                     RawValueParser.getLong("  .  ".getBytes(), 0, 5));
+        assertEquals(0,
+                     RawValueParser.getLong("-.5".getBytes(), 0, 3));
+        assertEquals(Long.MAX_VALUE,
+                     RawValueParser.getLong("9223372036854775807".getBytes(), 0, 19));
+        assertEquals(12,
+                     RawValueParser.getLong(new byte[] { ' ', '1', '2', 0, '9' }, 0, 5));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void longOverflow()
+    {
+        RawValueParser.getLong("9223372036854775808".getBytes(), 0, 19);
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void intOverflow()
+    {
+        RawValueParser.getInt("2147483648".getBytes(), 0, 10);
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void signWithoutDigits()
+    {
+        RawValueParser.getLong("  - ".getBytes(), 0, 4);
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void notANumber()
+    {
+        RawValueParser.getLong("12a".getBytes(), 0, 3);
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void notADate()
+    {
+        RawValueParser.getEpochDay("2009XX01".getBytes(), 0, 8);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cursorIntOfLogical()
+                            throws Exception
+    {
+        final RecordCursor cursor = table.recordCursor(false);
+        cursor.next();
+        cursor.getInt("FLAG");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cursorLongOfDate()
+                          throws Exception
+    {
+        final RecordCursor cursor = table.recordCursor(false);
+        cursor.next();
+        cursor.getLong(4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cursorDoubleOfLogical()
+                               throws Exception
+    {
+        final RecordCursor cursor = table.recordCursor(false);
+        cursor.next();
+        cursor.getDouble("FLAG");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cursorBooleanOfNumber()
+                               throws Exception
+    {
+        final RecordCursor cursor = table.recordCursor(false);
+        cursor.next();
+        cursor.getBoolean("ID");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cursorEpochDayOfNumber()
+                                throws Exception
+    {
+        final RecordCursor cursor = table.recordCursor(false);
+        cursor.next();
+        cursor.getEpochDay(1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void recordIntOfLogical()
+                            throws Exception
+    {
+        table.getRecordAt(0).getInt("FLAG");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void recordLongOfDate()
+                          throws Exception
+    {
+        table.getRecordAt(0).getLong("DAY");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void recordDoubleOfLogical()
+                               throws Exception
+    {
+        table.getRecordAt(0).getDouble("FLAG");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void recordBooleanOfNumber()
+                               throws Exception
+    {
+        table.getRecordAt(0).getBoolean("ID");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void recordEpochDayOfNumber()
+                                throws Exception
+    {
+        table.getRecordAt(0).getEpochDay("AMOUNT");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void createdRecordIntOfBoolean()
+    {
+        createRecord(42, -1234.56, 1234567890123456789L, true, Util.createDate(2009, 11, 31)).getInt("FLAG");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void createdRecordBooleanOfNumber()
+    {
+        createRecord(42, -1234.56, 1234567890123456789L, true, Util.createDate(2009, 11, 31)).getBoolean("ID");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void createdRecordEpochDayOfNumber()
+    {
+        createRecord(42, -1234.56, 1234567890123456789L, true, Util.createDate(2009, 11, 31)).getEpochDay("BIG");
+    }
+
+    private static Record createRecord(final int id, final double amount, final long big, final boolean flag,
+                                       final Date day)
+    {
+        final Map<String, Value> values = new HashMap<String, Value>();
+        values.put("ID", new NumberValue(id));
+        values.put("AMOUNT", new NumberValue(amount));
+        values.put("BIG", new NumberValue(big));
+        values.put("FLAG", new BooleanValue(flag));
+        values.put("DAY", new DateValue(day));
+
+        return new Record(values);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Tests reading a subset of the fields of a table.
+ */
+public class TestProjection
+{
+    private Table table;
+
+    /*
+     * The memo file is deliberately not copied, so that any attempt to read a memo fails.
+     */
+    @Before
+    public void setUp()
+               throws Exception
+    {
+        final File outputDir = UnitTestUtil.recreateDirectory("target/test-output/projection");
+        UnitTestUtil.copyFile(new File("src/test/resources/dbase3plus/cars/cars.dbf"),
+                              outputDir,
+                              "cars.dbf");
+        table = new Table(new File(outputDir, "cars.dbf"));
+        table.open();
+    }
+
+    @After
+    public void tearDown()
+                  throws Exception
+    {
+        table.close();
+    }
+
+    @Test
+    public void iteratorSkipsMemo()
+    {
+        final Iterator<Record> iterator = table.recordIterator(false,
+                                                               Arrays.asList("NAME", "YEAR"));
+        int count = 0;
+
+        while (iterator.hasNext())
+        {
+            final Record record = iterator.next();
+            assertNull(record.getTypedValue("DESCR"));
+            assertNull(record.getTypedValue("SEDAN"));
+            ++count;
+        }
+
+        assertEquals(4, count);
+    }
+
+    @Test
+    public void getRecordsAtSkipsMemo()
+                               throws Exception
+    {
+        final List<Record> records = table.getRecordsAt(0,
+                                                        table.getRecordCount(),
+                                                        false,
+                                                        Arrays.asList("NAME", "CC"));
+        assertEquals(4,
+                     records.size());
+
+        final Table original = new Table(new File("src/test/resources/dbase3plus/cars/cars.dbf"));
+        original.open();
+
+        final Iterator<Record> iterator = original.recordIterator();
+
+        for (final Record record : records)
+        {
+            final Record fullRecord = iterator.next();
+            assertNull(record.getTypedValue("DESCR"));
+            assertNull(record.getTypedValue("YEAR"));
+            assertEquals(fullRecord.getStringValue("NAME"),
+                         record.getStringValue("NAME"));
+            assertEquals(fullRecord.getNumberValue("CC"),
+                         record.getNumberValue("CC"));
+        }
+
+        original.close();
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void memoReadWhenAskedForWithoutProjection()
+                                               throws Exception
+    {
+        final List<Record> records = table.getRecordsAt(0,
+                                                        table.getRecordCount(),
+                                                        false,
+                                                        null);
+        records.get(0).getTypedValue("DESCR");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownField()
+    {
+        table.recordIterator(false,
+                             Arrays.asList("NAME", "NO_SUCH_FIELD"));
+    }
+}
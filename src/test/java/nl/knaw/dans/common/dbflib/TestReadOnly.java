@@ -0,0 +1,144 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Tests reading tables that were opened read-only.
+ */
+public class TestReadOnly
+{
+    @Test
+    public void readSameRecordsAsReadWrite()
+                                    throws Exception
+    {
+        final File inputDir = new File("src/test/resources/dbase3plus/cars_del");
+        final Table readWrite = new Table(new File(inputDir, "cars.dbf"));
+        final Table readOnly = new Table(new File(inputDir, "cars.dbf"));
+
+        try
+        {
+            readWrite.open();
+            readOnly.openReadOnly();
+
+            assertTrue(readOnly.isReadOnly());
+            assertFalse(readWrite.isReadOnly());
+            assertEquals(readWrite.getRecordCount(),
+                         readOnly.getRecordCount());
+
+            for (int i = 0; i < readWrite.getRecordCount(); ++i)
+            {
+                assertSameRecord(readWrite.getRecordAt(i),
+                                 readOnly.getRecordAt(i));
+            }
+
+            final List<Record> expected = readWrite.getAllRecords();
+            final List<Record> actual = readOnly.getAllRecords();
+            assertEquals(expected.size(),
+                         actual.size());
+
+            final Iterator<Record> iterator = readOnly.recordIterator();
+
+            for (final Record record : expected)
+            {
+                assertSameRecord(record,
+                                 iterator.next());
+            }
+
+            assertFalse(iterator.hasNext());
+        }
+        finally
+        {
+            readWrite.close();
+            readOnly.close();
+        }
+
+        assertFalse(readOnly.isReadOnly());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void deleteNotAllowed()
+                          throws Exception
+    {
+        final Table table = new Table(new File("src/test/resources/dbase3plus/cars/cars.dbf"));
+
+        try
+        {
+            table.openReadOnly();
+            table.deleteRecordAt(0);
+        }
+        finally
+        {
+            table.close();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void addNotAllowed()
+                       throws Exception
+    {
+        final Table table = new Table(new File("src/test/resources/dbase3plus/cars/cars.dbf"));
+
+        try
+        {
+            table.openReadOnly();
+            table.addRecord("GOLF");
+        }
+        finally
+        {
+            table.close();
+        }
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void nonExistingFile()
+                         throws Exception
+    {
+        final Table table = new Table(new File("NONEXISTENT.DBF"));
+
+        try
+        {
+            table.openReadOnly();
+        }
+        finally
+        {
+            table.close();
+        }
+    }
+
+    private static void assertSameRecord(final Record expected, final Record actual)
+    {
+        assertEquals(expected.isMarkedDeleted(),
+                     actual.isMarkedDeleted());
+
+        for (final String fieldName : new String[] { "NAME", "YEAR", "PROD_DATE", "SEDAN", "CC", "DESCR" })
+        {
+            assertEquals(expected.getTypedValue(fieldName),
+                         actual.getTypedValue(fieldName));
+        }
+    }
+}
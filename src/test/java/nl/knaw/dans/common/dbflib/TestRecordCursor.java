@@ -0,0 +1,129 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Iterator;
+
+/**
+ * Tests reading records through a {@link RecordCursor}.
+ */
+public class TestRecordCursor
+{
+    private Table table;
+
+    @Before
+    public void setUp()
+               throws Exception
+    {
+        table = new Table(new File("src/test/resources/dbase3plus/cars_del/cars.dbf"));
+        table.open();
+    }
+
+    @After
+    public void tearDown()
+                  throws Exception
+    {
+        table.close();
+    }
+
+    @Test
+    public void sameValuesAsIterator()
+                              throws Exception
+    {
+        assertSameValues(false);
+        assertSameValues(true);
+    }
+
+    private void assertSameValues(final boolean includeDeleted)
+                           throws Exception
+    {
+        final Iterator<Record> iterator = table.recordIterator(includeDeleted);
+        final RecordCursor cursor = table.recordCursor(includeDeleted);
+
+        while (iterator.hasNext())
+        {
+            final Record record = iterator.next();
+            assertTrue(cursor.next());
+            assertEquals(record.isMarkedDeleted(),
+                         cursor.isMarkedDeleted());
+
+            for (final Field field : table.getFields())
+            {
+                final Object expected = record.getTypedValue(field.getName());
+                final int fieldIndex = cursor.getFieldIndex(field.getName());
+
+                assertEquals(expected,
+                             cursor.getTypedValue(field.getName()));
+                assertEquals(expected,
+                             cursor.getTypedValue(fieldIndex));
+                assertEquals(expected == null,
+                             cursor.isNull(fieldIndex));
+            }
+
+            assertEquals(record.getNumberValue("YEAR"),
+                         cursor.getNumberValue("YEAR"));
+            assertEquals(record.getBooleanValue("SEDAN"),
+                         cursor.getBooleanValue("SEDAN"));
+            assertEquals(record.getDateValue("PROD_DATE"),
+                         cursor.getDateValue("PROD_DATE"));
+            assertEquals(record.getStringValue("DESCR"),
+                         cursor.getRecord().getStringValue("DESCR"));
+        }
+
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void recordIndexSkipsDeleted()
+                                 throws Exception
+    {
+        final RecordCursor cursor = table.recordCursor();
+        int count = 0;
+
+        while (cursor.next())
+        {
+            assertFalse(table.getRecordAt(cursor.getRecordIndex()).isMarkedDeleted());
+            ++count;
+        }
+
+        assertEquals(3, count);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void noCurrentRecord()
+    {
+        table.recordCursor().getRecordIndex();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownField()
+                      throws Exception
+    {
+        final RecordCursor cursor = table.recordCursor();
+        cursor.next();
+        cursor.isNull("NO_SUCH_FIELD");
+    }
+}
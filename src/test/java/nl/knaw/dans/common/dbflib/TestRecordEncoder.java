@@ -0,0 +1,89 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests laying out records with the record encoder.
+ */
+public class TestRecordEncoder
+{
+    @Test
+    public void fieldsAreStoredAtTheirOffsets()
+                                       throws Exception
+    {
+        final RecordEncoder encoder = new RecordEncoder(createHeader());
+        final byte[] destination = new byte[2 + encoder.getRecordLength()];
+
+        encoder.putMarker(destination, 2, (byte) 0x20);
+        encoder.putField(destination, 2, 0, "AB".getBytes());
+        encoder.putField(destination, 2, 1, null);
+        encoder.putField(destination, 2, 2, "123456".getBytes());
+
+        assertArrayEquals(new byte[] { 0, 0, 0x20, 'A', 'B', 0, 0, ' ', ' ', ' ', '1', '2', '3', '4' },
+                          destination);
+    }
+
+    @Test
+    public void valuesOverwritePreviousContents()
+                                         throws Exception
+    {
+        final RecordEncoder encoder = new RecordEncoder(createHeader());
+        final byte[] buffer = encoder.getBuffer();
+
+        encoder.putField(buffer, 0, 0, "ABCD".getBytes());
+        encoder.putField(buffer, 0, 0, "X".getBytes());
+        encoder.putField(buffer, 0, 1, "YYY".getBytes());
+        encoder.putField(buffer, 0, 1, null);
+
+        assertArrayEquals(new byte[] { 0, 'X', 0, 0, 0, ' ', ' ', ' ', 0, 0, 0, 0 },
+                          buffer);
+        assertSame(buffer,
+                   encoder.getBuffer());
+    }
+
+    @Test
+    public void recordLength()
+                      throws Exception
+    {
+        assertEquals(12,
+                     new RecordEncoder(createHeader()).getRecordLength());
+    }
+
+    private static DbfHeader createHeader()
+                                   throws DbfLibException
+    {
+        final List<Field> fields = new ArrayList<Field>();
+        fields.add(new Field("A", Type.CHARACTER, 4));
+        fields.add(new Field("B", Type.CHARACTER, 3));
+        fields.add(new Field("C", Type.CHARACTER, 4));
+
+        final DbfHeader header = new DbfHeader();
+        header.setVersion(Version.DBASE_3);
+        header.setFields(fields);
+
+        return header;
+    }
+}
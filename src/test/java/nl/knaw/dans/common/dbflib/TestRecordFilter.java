@@ -0,0 +1,161 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Tests filtering records on their raw field values.
+ */
+public class TestRecordFilter
+{
+    private Table table;
+
+    @Before
+    public void setUp()
+               throws Exception
+    {
+        table = new Table(new File("src/test/resources/dbase3plus/cars/cars.dbf"));
+        table.openReadOnly();
+    }
+
+    @After
+    public void tearDown()
+                  throws Exception
+    {
+        table.close();
+    }
+
+    @Test
+    public void characterFilters()
+                          throws Exception
+    {
+        assertEquals(Arrays.asList("POLO"),
+                     names(RecordFilter.equalTo("NAME", "POLO")));
+        assertEquals(Arrays.asList("POLO"),
+                     names(RecordFilter.equalTo("NAME", "POLO   ")));
+        assertEquals(Arrays.asList(),
+                     names(RecordFilter.equalTo("NAME", "POL")));
+        assertEquals(Arrays.asList("PASSAT", "POLO"),
+                     names(RecordFilter.startsWith("NAME", "P")));
+    }
+
+    @Test
+    public void numberAndDateFilters()
+                              throws Exception
+    {
+        assertEquals(Arrays.asList("POLO", "JETTA"),
+                     names(RecordFilter.greaterThan("YEAR", 1989)));
+        assertEquals(Arrays.asList("PASSAT", "JETTA"),
+                     names(RecordFilter.lessThanOrEqualTo("YEAR", 1990)));
+        assertEquals(Arrays.asList("JETTA"),
+                     names(RecordFilter.equalTo("YEAR", 1990.0)));
+        assertEquals(Arrays.asList("POLO"),
+                     names(RecordFilter.between("CC", 333.444, 333.444)));
+        assertEquals(Arrays.asList("PASSAT", "JETTA"),
+                     names(RecordFilter.greaterThanOrEqualTo("PROD_DATE", date(1977, 1, 1))));
+        assertEquals(Arrays.asList("POLO"),
+                     names(RecordFilter.lessThan("PROD_DATE", date(1977, 1, 1))));
+    }
+
+    @Test
+    public void logicalAndCombinedFilters()
+                                   throws Exception
+    {
+        assertEquals(Arrays.asList("JETTA"),
+                     names(RecordFilter.isTrue("SEDAN")));
+        assertEquals(Arrays.asList("PASSAT", "POLO"),
+                     names(RecordFilter.isFalse("SEDAN")));
+        assertEquals(Arrays.asList("POLO"),
+                     names(RecordFilter.and(RecordFilter.startsWith("NAME", "P"),
+                                            RecordFilter.greaterThan("YEAR", 1989))));
+        assertEquals(Arrays.asList("PASSAT", "JETTA"),
+                     names(RecordFilter.or(RecordFilter.isTrue("SEDAN"),
+                                           RecordFilter.equalTo("NAME", "PASSAT"))));
+        assertEquals(Arrays.asList("PASSAT", "POLO", ""),
+                     names(RecordFilter.not(RecordFilter.isTrue("SEDAN"))));
+    }
+
+    @Test
+    public void iteratorDecodesOnlyMatches()
+    {
+        final Iterator<Record> iterator =
+            table.recordIterator(false,
+                                 Arrays.asList("NAME", "DESCR"),
+                                 RecordFilter.isTrue("SEDAN"));
+
+        final Record record = iterator.next();
+        assertEquals("JETTA", record.getStringValue("NAME").trim());
+        assertEquals(false, iterator.hasNext());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rangeOnCharacterNotSupported()
+    {
+        table.recordCursor(false,
+                           RecordFilter.greaterThan("NAME", "A"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownField()
+    {
+        table.recordCursor(false,
+                           RecordFilter.equalTo("NOSUCHFIELD", "A"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongValueType()
+    {
+        table.recordCursor(false,
+                           RecordFilter.equalTo("YEAR", "1990"));
+    }
+
+    private List<String> names(final RecordFilter filter)
+                        throws Exception
+    {
+        final List<String> names = new ArrayList<String>();
+        final RecordCursor cursor = table.recordCursor(false, filter);
+
+        while (cursor.next())
+        {
+            names.add(cursor.getStringValue("NAME").trim());
+        }
+
+        return names;
+    }
+
+    private static Date date(final int year, final int month, final int day)
+    {
+        final Calendar cal = Calendar.getInstance();
+        cal.clear();
+        cal.set(year, month - 1, day);
+
+        return cal.getTime();
+    }
+}
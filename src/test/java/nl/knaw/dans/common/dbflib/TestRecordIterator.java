@@ -0,0 +1,171 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Tests iterating over tables that span several read blocks and contain runs of deleted records.
+ */
+public class TestRecordIterator
+{
+    private static final int NR_OF_RECORDS = 2000;
+
+    private Table table;
+
+    @Before
+    public void setUp()
+               throws Exception
+    {
+        final File outputDir = UnitTestUtil.recreateDirectory("target/test-output/iterator");
+        final List<Field> fields = new ArrayList<Field>();
+        fields.add(new Field("ID", Type.NUMBER, 6));
+        fields.add(new Field("TEXT", Type.CHARACTER, 100));
+
+        table = new Table(new File(outputDir, "ITERATOR.DBF"), Version.DBASE_3, fields);
+        table.open(IfNonExistent.CREATE);
+
+        for (int i = 0; i < NR_OF_RECORDS; ++i)
+        {
+            table.addRecord(i, "record " + i);
+        }
+
+        /*
+         * Delete a long run crossing a block boundary, every third record in another part and the
+         * tail of the table.
+         */
+        for (int i = 500; i < 1500; ++i)
+        {
+            table.deleteRecordAt(i);
+        }
+
+        for (int i = 1500; i < 1900; i += 3)
+        {
+            table.deleteRecordAt(i);
+        }
+
+        for (int i = 1950; i < NR_OF_RECORDS; ++i)
+        {
+            table.deleteRecordAt(i);
+        }
+    }
+
+    @After
+    public void tearDown()
+                  throws Exception
+    {
+        table.close();
+    }
+
+    @Test
+    public void skipsDeletedRecords()
+    {
+        final Iterator<Record> iterator = table.recordIterator();
+        int expected = 0;
+        int count = 0;
+
+        while (iterator.hasNext())
+        {
+            expected = nextLive(expected);
+
+            final Record record = iterator.next();
+            assertFalse(record.isMarkedDeleted());
+            assertEquals(expected,
+                         record.getNumberValue("ID").intValue());
+            ++expected;
+            ++count;
+        }
+
+        assertEquals(NR_OF_RECORDS, nextLive(expected));
+        assertEquals(500 + 266 + 50, count);
+    }
+
+    @Test
+    public void includesDeletedRecords()
+    {
+        final Iterator<Record> iterator = table.recordIterator(true);
+        int count = 0;
+
+        while (iterator.hasNext())
+        {
+            final Record record = iterator.next();
+            assertEquals(count,
+                         record.getNumberValue("ID").intValue());
+            assertEquals(isDeleted(count),
+                         record.isMarkedDeleted());
+            ++count;
+        }
+
+        assertEquals(NR_OF_RECORDS, count);
+    }
+
+    @Test
+    public void hasNextIsIdempotent()
+    {
+        final Iterator<Record> iterator = table.recordIterator();
+
+        for (int i = 0; i < 10; ++i)
+        {
+            assertTrue(iterator.hasNext());
+        }
+
+        assertEquals(0,
+                     iterator.next().getNumberValue("ID").intValue());
+    }
+
+    @Test
+    public void removeFirstRecord()
+                           throws Exception
+    {
+        final Iterator<Record> iterator = table.recordIterator();
+        iterator.next();
+        iterator.remove();
+
+        assertTrue(table.getRecordAt(0).isMarkedDeleted());
+        assertEquals(1,
+                     iterator.next().getNumberValue("ID").intValue());
+    }
+
+    private static boolean isDeleted(final int index)
+    {
+        return (index >= 500 && index < 1500) || (index >= 1500 && index < 1900 && (index - 1500) % 3 == 0)
+               || index >= 1950;
+    }
+
+    private static int nextLive(final int index)
+    {
+        int i = index;
+
+        while (i < NR_OF_RECORDS && isDeleted(i))
+        {
+            ++i;
+        }
+
+        return i;
+    }
+}
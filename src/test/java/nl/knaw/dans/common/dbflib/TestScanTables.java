@@ -0,0 +1,143 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests processing the tables of a database in parallel.
+ */
+public class TestScanTables
+{
+    private static final int NR_OF_TABLES = 12;
+
+    private File databaseDir;
+
+    @Before
+    public void setUp()
+               throws Exception
+    {
+        databaseDir = UnitTestUtil.recreateDirectory("target/test-output/scantables");
+
+        for (int i = 0; i < NR_OF_TABLES; ++i)
+        {
+            UnitTestUtil.copyFile(new File("src/test/resources/dbase3plus/cars/cars.dbf"),
+                                  databaseDir,
+                                  "cars" + i + ".dbf");
+            UnitTestUtil.copyFile(new File("src/test/resources/dbase3plus/cars/cars.dbt"),
+                                  databaseDir,
+                                  "cars" + i + ".dbt");
+        }
+    }
+
+    @Test
+    public void visitsAllTablesWithinBound()
+                                    throws Exception
+    {
+        final Database database = new Database(databaseDir, Version.DBASE_3);
+        final AtomicInteger records = new AtomicInteger();
+        final AtomicInteger open = new AtomicInteger();
+        final AtomicInteger maxOpen = new AtomicInteger();
+        final ExecutorService executor = Executors.newCachedThreadPool();
+
+        try
+        {
+            final Map<String, Exception> failures =
+                database.scanTables(new TableHandler()
+                    {
+                        public void handle(final Table table)
+                                    throws IOException, DbfLibException
+                        {
+                            final int n = open.incrementAndGet();
+
+                            synchronized (maxOpen)
+                            {
+                                maxOpen.set(Math.max(maxOpen.get(), n));
+                            }
+
+                            assertTrue(table.isReadOnly());
+                            records.addAndGet(table.countRecords(null));
+
+                            try
+                            {
+                                Thread.sleep(20);
+                            }
+                            catch (final InterruptedException e)
+                            {
+                                Thread.currentThread().interrupt();
+                            }
+
+                            open.decrementAndGet();
+                        }
+                    },
+                                    executor,
+                                    3);
+
+            assertTrue(failures.isEmpty());
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        assertEquals(NR_OF_TABLES * 4,
+                     records.get());
+        assertTrue(maxOpen.get() <= 3);
+
+        for (final String name : database.getTableNames())
+        {
+            assertFalse(database.getTable(name).isOpen());
+        }
+    }
+
+    @Test
+    public void failuresAreReportedPerTable()
+                                     throws Exception
+    {
+        final Database database = new Database(databaseDir, Version.DBASE_3);
+        final Map<String, Exception> failures =
+            database.scanTables(new TableHandler()
+                {
+                    public void handle(final Table table)
+                                throws IOException
+                    {
+                        if (table.getName().equals("cars3.dbf"))
+                        {
+                            throw new IOException("failed");
+                        }
+                    }
+                },
+                                2);
+
+        assertEquals(1,
+                     failures.size());
+        assertEquals("failed",
+                     failures.get("cars3.dbf").getMessage());
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2009-2010 Data Archiving and Networked Services (DANS), Netherlands.
+ *
+ * This file is part of DANS DBF Library.
+ *
+ * DANS DBF Library is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DANS DBF Library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DANS DBF Library. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.knaw.dans.common.dbflib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests adding records in chunks.
+ */
+public class TestTableAppender
+{
+    private final File tableFile = new File("target/test-output/tableappender/APPEND.DBF");
+    private Table table;
+
+    @Before
+    public void setUp()
+               throws Exception
+    {
+        table = UnitTestUtil.createMemoTable(tableFile, Version.DBASE_3);
+    }
+
+    @After
+    public void tearDown()
+                  throws Exception
+    {
+        table.close();
+    }
+
+    @Test
+    public void addRecords()
+                    throws Exception
+    {
+        final List<Record> records = new ArrayList<Record>();
+
+        for (int i = 0; i < 1000; ++i)
+        {
+            records.add(UnitTestUtil.createMemoRecord(i, "Note " + i));
+        }
+
+        table.addRecords(records);
+        table.close();
+
+        table = new Table(tableFile);
+        table.open();
+
+        assertEquals(1000,
+                     table.getRecordCount());
+        assertRecords(0, 1000);
+        assertEndOfFile();
+    }
+
+    @Test
+    public void recordsAreWrittenWhenBufferIsFull()
+                                          throws Exception
+    {
+        final TableAppender appender = table.appender(10 * (1 + 6 + 10));
+
+        for (int i = 0; i < 25; ++i)
+        {
+            appender.add(UnitTestUtil.createMemoRecord(i, "Note " + i));
+        }
+
+        assertEquals(20,
+                     table.getRecordCount());
+        assertEquals(5,
+                     appender.getBufferedRecordCount());
+        assertEndOfFile();
+
+        appender.flush();
+
+        assertEquals(25,
+                     table.getRecordCount());
+        assertEquals(0,
+                     appender.getBufferedRecordCount());
+        assertRecords(0, 25);
+        assertEndOfFile();
+
+        appender.add(UnitTestUtil.createMemoRecord(25, "Note 25"));
+        appender.close();
+        assertRecords(0, 26);
+    }
+
+    @Test
+    public void appendAfterExistingRecords()
+                                    throws Exception
+    {
+        table.addRecord(UnitTestUtil.createMemoRecord(0, "Note 0"));
+
+        final TableAppender appender = table.appender();
+        appender.add(UnitTestUtil.createMemoRecord(1, "Note 1"));
+        appender.add(UnitTestUtil.createMemoRecord(2, "Note 2"));
+        appender.close();
+
+        table.addRecord(UnitTestUtil.createMemoRecord(3, "Note 3"));
+
+        assertRecords(0, 4);
+        assertEndOfFile();
+    }
+
+    @Test
+    public void tableChangedWhileBuffering()
+                                    throws Exception
+    {
+        final TableAppender appender = table.appender();
+        appender.add(UnitTestUtil.createMemoRecord(0, "Note 0"));
+        table.addRecord(UnitTestUtil.createMemoRecord(1, "Note 1"));
+
+        try
+        {
+            appender.add(UnitTestUtil.createMemoRecord(2, "Note 2"));
+            fail("Table was changed");
+        }
+        catch (final IllegalStateException ex)
+        {
+            // expected
+        }
+
+        try
+        {
+            table.close();
+            fail("Buffered record cannot be written");
+        }
+        catch (final IllegalStateException ex)
+        {
+            // expected
+        }
+
+        table = new Table(tableFile);
+        table.open();
+
+        assertEquals(1,
+                     table.getRecordCount());
+    }
+
+    @Test
+    public void recordsAreWrittenOnTableFlush()
+                                      throws Exception
+    {
+        final TableAppender appender = table.appender();
+
+        for (int i = 0; i < 3; ++i)
+        {
+            appender.add(UnitTestUtil.createMemoRecord(i, "Note " + i));
+        }
+
+        table.flush();
+
+        assertEquals(0,
+                     appender.getBufferedRecordCount());
+        assertEquals(3,
+                     table.getRecordCount());
+        assertRecords(0, 3);
+        assertEndOfFile();
+    }
+
+    @Test
+    public void recordsAreWrittenOnTableClose()
+                                      throws Exception
+    {
+        final TableAppender appender = table.appender();
+
+        for (int i = 0; i < 3; ++i)
+        {
+            appender.add(UnitTestUtil.createMemoRecord(i, "Note " + i));
+        }
+
+        table.close();
+
+        table = new Table(tableFile);
+        table.open();
+
+        assertEquals(3,
+                     table.getRecordCount());
+        assertRecords(0, 3);
+        assertEndOfFile();
+    }
+
+    @Test
+    public void recordsBeforeFailingRecordAreAdded()
+                                           throws Exception
+    {
+        final List<Record> records = new ArrayList<Record>();
+        records.add(UnitTestUtil.createMemoRecord(0, "Note 0"));
+        records.add(UnitTestUtil.createMemoRecord(1, "Note 1"));
+
+        records.add(UnitTestUtil.createMemoRecord(1234567, "Note 2"));
+
+        try
+        {
+            table.addRecords(records);
+            fail("Value should be too large");
+        }
+        catch (final ValueTooLargeException ex)
+        {
+            assertEquals(2,
+                         table.getRecordCount());
+            assertRecords(0, 2);
+        }
+    }
+
+    private void assertRecords(final int first, final int n)
+                        throws Exception
+    {
+        for (int i = first; i < first + n; ++i)
+        {
+            final Record record = table.getRecordAt(i);
+            assertEquals(i,
+                         record.getNumberValue("ID").intValue());
+            assertEquals("Note " + i,
+                         record.getStringValue("NOTE"));
+        }
+    }
+
+    private void assertEndOfFile()
+                          throws Exception
+    {
+        final RandomAccessFile raf = new RandomAccessFile(tableFile, "r");
+
+        try
+        {
+            final DbfHeader header = table.getHeader();
+            final long end = header.getLength() + (long) table.getRecordCount() * header.getRecordLength();
+            assertEquals(end + 1,
+                         raf.length());
+            raf.seek(end);
+            assertEquals(0x1a,
+                         raf.read());
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+}
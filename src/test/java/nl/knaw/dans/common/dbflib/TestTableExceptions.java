@@ -98,7 +98,7 @@ public class TestTableExceptions
         try
         {
             table.open(IfNonExistent.ERROR);
-            table.recordIterator().next();
+            table.recordIterator().next().getTypedValue("MEMO");
         }
         finally
         {
@@ -116,7 +116,7 @@ public class TestTableExceptions
         try
         {
             table.open(IfNonExistent.ERROR);
-            table.recordIterator().next();
+            table.recordIterator().next().getTypedValue("MEMO");
         }
         finally
         {
@@ -134,7 +134,7 @@ public class TestTableExceptions
         try
         {
             table.open(IfNonExistent.ERROR);
-            table.recordIterator().next();
+            table.recordIterator().next().getTypedValue("MEMO");
         }
         finally
         {
@@ -27,8 +27,10 @@ import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Utility functions for testing databases.
@@ -189,6 +191,69 @@ class UnitTestUtil
         return dir;
     }
 
+    /**
+     * Creates and opens a table with a NUMBER field ID of length 6 and a MEMO field NOTE, as used by
+     * the tests of memo handling. The directory of <code>aTableFile</code> is recreated first.
+     *
+     * @param aTableFile the .DBF file to create
+     * @param aVersion the version of DBF to create
+     * @return the opened table
+     *
+     * @throws IOException if the table could not be created
+     * @throws DbfLibException if the table could not be created
+     */
+    public static Table createMemoTable(final File aTableFile, final Version aVersion)
+                                 throws IOException, DbfLibException
+    {
+        recreateDirectory(aTableFile.getParent());
+
+        final List<Field> fields = new ArrayList<Field>();
+        fields.add(new Field("ID", Type.NUMBER, 6));
+        fields.add(new Field("NOTE", Type.MEMO, 10));
+
+        final Table table = new Table(aTableFile, aVersion, fields);
+        table.open(IfNonExistent.CREATE);
+
+        return table;
+    }
+
+    /**
+     * Creates a record for a table created with {@link #createMemoTable(File, Version)}.
+     *
+     * @param aId the value of the ID field
+     * @param aNote the value of the NOTE field, or <code>null</code> to leave it empty
+     * @return the record
+     */
+    public static Record createMemoRecord(final int aId, final String aNote)
+    {
+        final Map<String, Value> values = new HashMap<String, Value>();
+        values.put("ID", new NumberValue(aId));
+
+        if (aNote != null)
+        {
+            values.put("NOTE", new StringValue(aNote));
+        }
+
+        return new Record(values);
+    }
+
+    /**
+     * Flushes <code>aTable</code> and returns the length of its memo file.
+     *
+     * @param aTable the table
+     * @param aTableFile the .DBF file of the table
+     * @return the length of the memo file in bytes
+     *
+     * @throws IOException if the table could not be flushed
+     */
+    public static long getMemoFileLength(final Table aTable, final File aTableFile)
+                                  throws IOException
+    {
+        aTable.flush();
+
+        return Util.getMemoFile(aTableFile, aTable.getVersion()).length();
+    }
+
     /**
      * Performs a test in which a DBF is copied by reading it and writing it using the Table class,
      * after which a byte by byte comparision of the . DBF files and .DBT files (.FPT files in